@@ -0,0 +1,184 @@
+import api.APIProvider;
+import api.GeminiProvider;
+import api.HedgingProvider;
+import api.LatencyHistogram;
+import api.MockLLMServer;
+import api.OpenAIProvider;
+import api.ProviderGovernor;
+import api.ReplayProvider;
+import api.RequestPriority;
+
+import javax.swing.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Headless end-to-end latency benchmark of the autocomplete pipeline.
+ * <p>
+ * Starts a {@link MockLLMServer}, points the real provider chain (governor and hedging, as
+ * set up by Syngrafi) at it and lets one or more {@link TextEditor}s type a script through their
+ * documents, pausing after every few words so the debounce fires. Every pause produces one
+ * keystroke-to-first-suggestion sample, covering debounce, prompt building, the request and the
+ * popup layout. Extra editors type at the same time to put the shared provider under load.
+ * <p>
+ * Options: {@code --provider gemini|openai --editors 1 --sessions 5 --words 40 --burst 4
+ * --key-interval 80 --pause 2500 --delay 1000 --suggestions 3 --latency 300 --spread 0.5
+ * --interval 20 --error-rate 0 --rpm 600 --record file | --replay file}.
+ */
+public class AutocompleteBenchmark {
+
+    private static final String SCRIPT = "The rain had stopped by the time she reached the harbour, "
+            + "and the lamps along the quay were already lit. She stood for a while at the edge of the water, "
+            + "listening to the boats knock against each other, and tried to remember why she had come. "
+            + "Somewhere behind her a door opened and closed, and footsteps crossed the wet stones. ";
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        String providerName = "gemini";
+        int editors = 1;
+        int sessions = 5;
+        int words = 40;
+        int burst = 4;
+        long keyInterval = 80;
+        long pause = 2500;
+        String delay = "1000";
+        String suggestions = "3";
+        int rpm = 600;
+        Path record = null;
+        Path replay = null;
+        MockLLMServer.Settings defaults = MockLLMServer.Settings.defaults();
+        long latency = defaults.latencyMedianMillis();
+        double spread = defaults.latencySpread();
+        long tokenInterval = defaults.tokenIntervalMillis();
+        double errorRate = defaults.errorRate();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--provider" -> providerName = value;
+                case "--editors" -> editors = Integer.parseInt(value);
+                case "--sessions" -> sessions = Integer.parseInt(value);
+                case "--words" -> words = Integer.parseInt(value);
+                case "--burst" -> burst = Integer.parseInt(value);
+                case "--key-interval" -> keyInterval = Long.parseLong(value);
+                case "--pause" -> pause = Long.parseLong(value);
+                case "--delay" -> delay = value;
+                case "--suggestions" -> suggestions = value;
+                case "--latency" -> latency = Long.parseLong(value);
+                case "--spread" -> spread = Double.parseDouble(value);
+                case "--interval" -> tokenInterval = Long.parseLong(value);
+                case "--error-rate" -> errorRate = Double.parseDouble(value);
+                case "--rpm" -> rpm = Integer.parseInt(value);
+                case "--record" -> record = Path.of(value);
+                case "--replay" -> replay = Path.of(value);
+                default -> System.err.println("Unknown option " + args[i]);
+            }
+        }
+
+        MockLLMServer server = new MockLLMServer(0, new MockLLMServer.Settings(latency, spread, tokenInterval,
+                defaults.tokensPerCandidate(), errorRate, defaults.errorStatus()));
+        server.start();
+
+        APIProvider backend = providerName.equalsIgnoreCase("openai")
+                ? new OpenAIProvider("benchmark", "mock", server.getBaseUrl())
+                : new GeminiProvider("benchmark", "mock", server.getBaseUrl());
+        if (replay != null) {
+            backend = new ReplayProvider(backend, replay, ReplayProvider.Mode.REPLAY, true);
+        } else if (record != null) {
+            backend = new ReplayProvider(backend, record, ReplayProvider.Mode.RECORD, false);
+        }
+        ProviderGovernor governor = ProviderGovernor.forProvider("benchmark");
+        governor.configure(rpm, rpm * 1500, Math.max(4, editors * 4));
+        HedgingProvider hedging = new HedgingProvider(governor.wrap(backend, RequestPriority.BACKGROUND), "autocomplete", 15000);
+        hedging.warmUp();
+        APIProvider speculative = governor.wrap(backend, RequestPriority.SPECULATIVE);
+
+        PreferencesManager prefs = new PreferencesManager(); // Not loaded or saved: only the values below apply
+        prefs.setPreference("autocompleteDelay", delay);
+        prefs.setPreference("numSuggestions", suggestions);
+        if (prefs.isAiFeaturesDisabled()) {
+            System.err.println("AI features are disabled in the preferences; no suggestions will be requested.");
+        }
+
+        List<TextEditor> textEditors = new ArrayList<>();
+        int editorCount = editors;
+        SwingUtilities.invokeAndWait(() -> {
+            for (int i = 0; i < editorCount; i++) {
+                TextEditor editor = new TextEditor(new JLabel(), prefs);
+                editor.setAPIProvider(hedging);
+                editor.setPrefetchProvider(speculative);
+                textEditors.add(editor);
+            }
+        });
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int threadsBefore = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+        System.out.printf("Typing %d session(s) of %d words in %d editor(s) against %s (%s)...%n",
+                sessions, words, editors, server.getBaseUrl(), providerName);
+        long start = System.nanoTime();
+        List<Thread> typists = new ArrayList<>();
+        int sessionCount = sessions, wordCount = words, burstWords = burst;
+        long keyMillis = keyInterval, pauseMillis = pause;
+        for (TextEditor editor : textEditors) {
+            Thread typist = new Thread(() -> type(editor, sessionCount, wordCount, burstWords, keyMillis, pauseMillis),
+                    "Typist");
+            typist.start();
+            typists.add(typist);
+        }
+        for (Thread typist : typists) {
+            typist.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        LatencyHistogram total = new LatencyHistogram();
+        for (TextEditor editor : textEditors) {
+            total.add(editor.getSuggestionLatency());
+        }
+        System.out.printf("Keystroke to suggestion: samples=%d p50=%.0fms p95=%.0fms p99=%.0fms (%.1fs)%n",
+                total.count(), total.percentileMillis(50), total.percentileMillis(95), total.percentileMillis(99), seconds);
+        // Typing must not start threads: the debouncer shares one scheduler thread
+        System.out.printf("Threads: before=%d after=%d peak=%d%n",
+                threadsBefore, threads.getThreadCount(), threads.getPeakThreadCount());
+        System.out.print("Stages of the first editor:\n" + textEditors.get(0).getAutocompleteLatency().report());
+        System.out.println("Debouncer: " + textEditors.get(0).getDebouncerStats());
+        System.out.println("Prefetch: " + textEditors.get(0).getPrefetchStats());
+        System.out.println("Suggestion acceptance: " + textEditors.get(0).getSuggestionStats());
+        System.out.println("Mock server: " + server.getStats());
+        System.out.println("Governor: " + governor.getStats());
+        System.out.println("Hedging: " + hedging.getStats());
+        server.close();
+        System.exit(0);
+    }
+
+    /**
+     * Types the script into the editor on the EDT, one character at a time, pausing after every
+     * {@code burst} words. Each session starts from an empty document.
+     */
+    private static void type(TextEditor editor, int sessions, int words, int burst, long keyInterval, long pause) {
+        String[] script = SCRIPT.split(" ");
+        try {
+            for (int session = 0; session < sessions; session++) {
+                SwingUtilities.invokeAndWait(() -> {
+                    editor.cancelAutoComplete();
+                    editor.setText("");
+                });
+                for (int w = 0; w < words; w++) {
+                    String word = script[(session * words + w) % script.length] + " ";
+                    for (char c : word.toCharArray()) {
+                        String typed = String.valueOf(c);
+                        SwingUtilities.invokeAndWait(() -> editor.replaceSelection(typed));
+                        Thread.sleep(keyInterval);
+                    }
+                    if ((w + 1) % burst == 0) {
+                        Thread.sleep(pause); // Let the debounce fire and the suggestion arrive
+                    }
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Typist failed: " + e);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+// AutocompleteContext.java
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+
+/**
+ * The slice of a document sent with an autocomplete prompt.
+ * <p>
+ * Only a token-budgeted window around the caret is read: the nearest text before it,
+ * aligned to a paragraph or sentence start, a shorter slice after it, and the H1/H2
+ * headings the caret sits under. The prompt therefore stays the same size however long
+ * the document grows.
+ *
+ * @param headingPath     Enclosing headings, e.g. "Part One > Chapter 3", or empty.
+ * @param before          Text before the caret, ending exactly at the caret.
+ * @param after           Text after the caret, starting exactly at the caret.
+ * @param beforeTruncated Whether earlier text was left out.
+ * @param afterTruncated  Whether later text was left out.
+ */
+public record AutocompleteContext(String headingPath, String before, String after,
+                                  boolean beforeTruncated, boolean afterTruncated) {
+
+    /** Rough characters-per-token ratio for English prose. */
+    static final int CHARS_PER_TOKEN = 4;
+    private static final int MAX_HEADING_CHARS = 120;
+    /** Blocks looked at for the headings; a chapter rarely has more paragraphs than this. */
+    private static final int MAX_HEADING_SCAN_BLOCKS = 1000;
+
+    /**
+     * Reads the context window around {@code caret}. Must be called on the EDT (or under
+     * the document's read lock); cost depends on the budget, not the document length.
+     *
+     * @param doc         The document being edited.
+     * @param caret       Caret offset.
+     * @param tokenBudget Approximate number of tokens for the whole window.
+     */
+    public static AutocompleteContext capture(Document doc, int caret, int tokenBudget) {
+        int budgetChars = Math.max(64, tokenBudget) * CHARS_PER_TOKEN;
+        String headingPath = headingPath(doc, caret);
+        budgetChars = Math.max(budgetChars / 2, budgetChars - headingPath.length());
+        // Most of the budget goes to what the user just wrote
+        int beforeChars = budgetChars * 4 / 5;
+        int afterChars = budgetChars - beforeChars;
+
+        try {
+            int length = doc.getLength();
+            int beforeStart = Math.max(0, caret - beforeChars);
+            String before = doc.getText(beforeStart, caret - beforeStart);
+            boolean beforeTruncated = beforeStart > 0;
+            if (beforeTruncated) {
+                before = before.substring(alignStart(before));
+            }
+
+            int afterEnd = Math.min(length, caret + afterChars);
+            String after = doc.getText(caret, afterEnd - caret);
+            boolean afterTruncated = afterEnd < length;
+            if (afterTruncated) {
+                after = after.substring(0, alignEnd(after));
+            }
+            return new AutocompleteContext(headingPath, before, after, beforeTruncated, afterTruncated);
+        } catch (BadLocationException ex) {
+            ex.printStackTrace();
+            return new AutocompleteContext(headingPath, "", "", false, false);
+        }
+    }
+
+    /**
+     * Start of the first whole paragraph in the window, else the first whole sentence,
+     * else the first whole word. Only the first half of the window is searched so at
+     * least half the budget is kept.
+     */
+    private static int alignStart(String text) {
+        int limit = text.length() / 2;
+        int paragraph = text.indexOf('\n');
+        if (paragraph >= 0 && paragraph < limit) {
+            return paragraph + 1;
+        }
+        for (int i = 0; i < limit; i++) {
+            char c = text.charAt(i);
+            if ((c == '.' || c == '?' || c == '!') && i + 1 < text.length() && Character.isWhitespace(text.charAt(i + 1))) {
+                return i + 2;
+            }
+        }
+        int space = text.indexOf(' ');
+        return (space >= 0 && space < limit) ? space + 1 : 0;
+    }
+
+    /** End of the last whole sentence or paragraph in the window, else of the last whole word. */
+    private static int alignEnd(String text) {
+        int limit = text.length() / 2;
+        for (int i = text.length() - 1; i >= limit; i--) {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '.' || c == '?' || c == '!') {
+                return i + 1;
+            }
+        }
+        int space = text.lastIndexOf(' ');
+        return (space >= limit) ? space : text.length();
+    }
+
+    /**
+     * Finds the nearest H1 and H2 before the caret by walking back over the sibling
+     * blocks on the caret's element path. Stops at the first H1, or after
+     * {@link #MAX_HEADING_SCAN_BLOCKS} blocks, so documents without H1s are not walked to the start.
+     */
+    private static String headingPath(Document doc, int caret) {
+        String h1 = null;
+        String h2 = null;
+        int scanned = 0;
+        Element element = doc.getDefaultRootElement();
+        while (element != null && !element.isLeaf() && h1 == null) {
+            int index = element.getElementIndex(caret);
+            if (index < 0) break;
+            for (int i = index; i >= 0 && h1 == null && scanned++ < MAX_HEADING_SCAN_BLOCKS; i--) {
+                Element block = element.getElement(i);
+                String name = block.getName();
+                if ("h1".equals(name)) {
+                    h1 = headingText(doc, block);
+                } else if ("h2".equals(name) && h2 == null) {
+                    h2 = headingText(doc, block);
+                }
+            }
+            element = element.getElement(index);
+        }
+        StringBuilder path = new StringBuilder();
+        if (h1 != null && !h1.isEmpty()) path.append(h1);
+        if (h2 != null && !h2.isEmpty()) {
+            if (path.length() > 0) path.append(" > ");
+            path.append(h2);
+        }
+        return path.toString();
+    }
+
+    private static String headingText(Document doc, Element heading) {
+        try {
+            int end = Math.min(heading.getEndOffset(), doc.getLength());
+            int length = Math.min(end - heading.getStartOffset(), MAX_HEADING_CHARS);
+            return doc.getText(heading.getStartOffset(), length).trim();
+        } catch (BadLocationException ex) {
+            return "";
+        }
+    }
+}
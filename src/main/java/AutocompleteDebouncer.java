@@ -0,0 +1,161 @@
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the autocomplete task once typing has paused, on one scheduler thread shared by
+ * every editor.
+ * <p>
+ * Rescheduling on a keystroke only moves the deadline forward; the pending timer is left in
+ * place and, when it fires early, re-arms itself for the time that is left. A burst of typing
+ * therefore costs a few timer wake-ups instead of a cancelled task per character.
+ * <p>
+ * The delay adapts to the typist: a pause is a gap longer than their usual keystroke interval
+ * plus two standard deviations, so fast typists get suggestions sooner than slow ones. When
+ * the provider is slow a part of its latency is spent waiting anyway, so the request starts
+ * earlier, but never inside a normal keystroke gap. The configured delay is the upper bound.
+ */
+public class AutocompleteDebouncer {
+
+    private static final AtomicInteger THREADS_CREATED = new AtomicInteger();
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        THREADS_CREATED.incrementAndGet();
+        Thread thread = new Thread(r, "AutocompleteDebouncer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final long MIN_DELAY_MILLIS = 150;
+    private static final long MAX_TYPING_GAP_MILLIS = 2000; // Longer gaps are pauses, not cadence
+    private static final double SMOOTHING = 0.1;
+    private static final double LATENCY_SHARE = 0.25; // Part of the provider latency started early
+
+    // Guarded by this
+    private Runnable task;
+    private long deadlineNanos;
+    private ScheduledFuture<?> timer;
+    private long timerAtNanos;
+    private long lastKeystrokeNanos = 0;
+    private double gapMeanMillis = -1;
+    private double gapVarianceMillis = 0;
+    private double latencyMillis = -1;
+
+    // Counters
+    private long scheduled = 0;
+    private long timersArmed = 0;
+    private long fired = 0;
+    private long cancelled = 0;
+    private long overheadNanos = 0;
+
+    /** Feeds the cadence estimate; call on every typed character. */
+    public synchronized void recordKeystroke() {
+        long now = System.nanoTime();
+        if (lastKeystrokeNanos > 0) {
+            double gap = (now - lastKeystrokeNanos) / 1e6;
+            if (gap < MAX_TYPING_GAP_MILLIS) {
+                if (gapMeanMillis < 0) {
+                    gapMeanMillis = gap;
+                } else {
+                    double diff = gap - gapMeanMillis;
+                    gapMeanMillis += SMOOTHING * diff;
+                    gapVarianceMillis = (1 - SMOOTHING) * (gapVarianceMillis + SMOOTHING * diff * diff);
+                }
+            }
+        }
+        lastKeystrokeNanos = now;
+    }
+
+    /** Feeds the provider latency estimate with the time to a request's first token. */
+    public synchronized void recordProviderLatency(long nanos) {
+        double millis = nanos / 1e6;
+        latencyMillis = latencyMillis < 0 ? millis : latencyMillis + SMOOTHING * (millis - latencyMillis);
+    }
+
+    /**
+     * The pause to wait for before suggesting.
+     *
+     * @param maxDelayMillis The configured autocomplete delay, used until the cadence is known.
+     */
+    public synchronized long delayMillis(long maxDelayMillis) {
+        if (gapMeanMillis < 0) {
+            return maxDelayMillis;
+        }
+        double deviation = Math.sqrt(gapVarianceMillis);
+        double pause = gapMeanMillis + 2 * deviation;
+        if (latencyMillis > 0) {
+            pause = Math.max(gapMeanMillis + deviation, pause - LATENCY_SHARE * latencyMillis);
+        }
+        long minDelay = Math.min(MIN_DELAY_MILLIS, maxDelayMillis);
+        return Math.max(minDelay, Math.min(maxDelayMillis, Math.round(pause)));
+    }
+
+    /**
+     * Runs {@code task} on the scheduler thread after {@code delayMillis} without a further
+     * call, replacing any task still waiting.
+     */
+    public synchronized void schedule(Runnable task, long delayMillis) {
+        long now = System.nanoTime();
+        this.task = task;
+        deadlineNanos = now + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        scheduled++;
+        if (timer == null || timerAtNanos > deadlineNanos) {
+            if (timer != null) timer.cancel(false); // The delay shrank: the timer would fire too late
+            arm(deadlineNanos - now);
+        }
+        overheadNanos += System.nanoTime() - now;
+    }
+
+    /** Drops the waiting task, if any. The timer is left to expire on its own. */
+    public synchronized void cancel() {
+        if (task != null) {
+            cancelled++;
+            task = null;
+        }
+    }
+
+    private void arm(long delayNanos) {
+        timerAtNanos = System.nanoTime() + delayNanos;
+        timer = SCHEDULER.schedule(this::fire, delayNanos, TimeUnit.NANOSECONDS);
+        timersArmed++;
+    }
+
+    private void fire() {
+        Runnable due;
+        synchronized (this) {
+            if (task == null) {
+                timer = null;
+                return;
+            }
+            long remaining = deadlineNanos - System.nanoTime();
+            if (remaining > 0) {
+                arm(remaining); // Typing continued since the timer was set
+                return;
+            }
+            due = task;
+            task = null;
+            timer = null;
+            fired++;
+        }
+        due.run();
+    }
+
+    /**
+     * Snapshot of the scheduler activity. {@code threads} counts every thread the shared
+     * scheduler ever started, so it stays at 1 however much is typed.
+     */
+    public record Stats(int threads, long scheduled, long timersArmed, long fired, long cancelled,
+                        double overheadMicrosPerCall, long currentDelayMillis) {
+        @Override
+        public String toString() {
+            return String.format("threads=%d scheduled=%d timers=%d fired=%d cancelled=%d overhead=%.1fus/call delay=%dms",
+                    threads, scheduled, timersArmed, fired, cancelled, overheadMicrosPerCall, currentDelayMillis);
+        }
+    }
+
+    public synchronized Stats getStats(long maxDelayMillis) {
+        return new Stats(THREADS_CREATED.get(), scheduled, timersArmed, fired, cancelled,
+                scheduled == 0 ? 0 : overheadNanos / 1e3 / scheduled, delayMillis(maxDelayMillis));
+    }
+}
@@ -0,0 +1,87 @@
+import api.LatencyHistogram;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Where the time of an autocomplete round goes, one histogram per stage.
+ * <p>
+ * Stages are timed with {@link System#nanoTime()} where they run, on the EDT or a worker
+ * thread. Recording is a lock-free bucket increment, so it stays on in normal use. The
+ * network stages are also kept per provider and model, since they vary the most.
+ */
+public class AutocompleteLatency {
+
+    public enum Stage {
+        DEBOUNCE("Debounce"),
+        CONTEXT("Context capture"),
+        PROMPT("Prompt build"),
+        FIRST_TOKEN("Network, first token"),
+        RESPONSE("Network, full response"),
+        CLEANUP("Overlap cleanup"),
+        POPUP("Popup items"),
+        TOTAL("Keystroke to suggestion");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    private final Map<Stage, LatencyHistogram> stages = new EnumMap<>(Stage.class);
+    // Model id -> FIRST_TOKEN and RESPONSE histograms
+    private final Map<String, Map<Stage, LatencyHistogram>> models = new ConcurrentHashMap<>();
+
+    public AutocompleteLatency() {
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, new LatencyHistogram());
+        }
+    }
+
+    public void record(Stage stage, long nanos) {
+        stages.get(stage).record(nanos);
+    }
+
+    /** Records a network stage both overall and for the model that served it. */
+    public void record(Stage stage, String modelId, long nanos) {
+        record(stage, nanos);
+        models.computeIfAbsent(modelId, id -> {
+            Map<Stage, LatencyHistogram> histograms = new EnumMap<>(Stage.class);
+            histograms.put(Stage.FIRST_TOKEN, new LatencyHistogram());
+            histograms.put(Stage.RESPONSE, new LatencyHistogram());
+            return histograms;
+        }).get(stage).record(nanos);
+    }
+
+    public LatencyHistogram get(Stage stage) {
+        return stages.get(stage);
+    }
+
+    public void reset() {
+        stages.values().forEach(LatencyHistogram::reset);
+        models.clear();
+    }
+
+    /** A plain-text table with the count, p50, p95 and p99 of every stage and model. */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-24s %6s %8s %8s %8s%n", "Stage (ms)", "n", "p50", "p95", "p99"));
+        for (Stage stage : Stage.values()) {
+            appendRow(report, stage.label, stages.get(stage));
+        }
+        for (Map.Entry<String, Map<Stage, LatencyHistogram>> model : new TreeMap<>(models).entrySet()) {
+            report.append(String.format("%n%s%n", model.getKey()));
+            appendRow(report, "  " + Stage.FIRST_TOKEN.label, model.getValue().get(Stage.FIRST_TOKEN));
+            appendRow(report, "  " + Stage.RESPONSE.label, model.getValue().get(Stage.RESPONSE));
+        }
+        return report.toString();
+    }
+
+    private static void appendRow(StringBuilder report, String label, LatencyHistogram histogram) {
+        report.append(String.format("%-24s %6d %8.1f %8.1f %8.1f%n", label, histogram.count(),
+                histogram.percentileMillis(50), histogram.percentileMillis(95), histogram.percentileMillis(99)));
+    }
+}
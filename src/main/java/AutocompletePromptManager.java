@@ -1,17 +1,106 @@
 // AutocompletePromptManager.java
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
 public class AutocompletePromptManager {
 
+    /** Compiled templates per preferences instance, dropped when a prompt preference changes. */
+    private static final Map<PreferencesManager, Templates> COMPILED = new WeakHashMap<>();
+
     /**
      * Generates a suitable prompt for the AI based on context and variation.
      * Uses preferences for potentially user-defined prompt structures.
      *
-     * @param textBeforeCursor Text preceding the cursor.
-     * @param textAfterCursor  Text following the cursor.
+     * @param context   Token-budgeted text around the cursor and the enclosing headings.
      * @param variation        Integer indicating which prompt variation to use (1-based).
      * @param prefs            PreferencesManager to fetch prompt templates and settings.
      * @return The generated prompt string.
      */
-    public static String getPrompt(String textBeforeCursor, String textAfterCursor, int variation, PreferencesManager prefs) {
+    public static String getPrompt(AutocompleteContext context, int variation, PreferencesManager prefs) {
+        return getTemplate(variation, prefs, false).render(context);
+    }
+
+    /**
+     * As {@link #getPrompt(AutocompleteContext, int, PreferencesManager)}, optionally without
+     * the user's references, the lowest-priority part of the prefix.
+     */
+    public static String getPrompt(AutocompleteContext context, int variation, PreferencesManager prefs,
+                                   boolean shedReferences) {
+        return getTemplate(variation, prefs, shedReferences).render(context);
+    }
+
+    /**
+     * Returns the compiled template of a variation, compiling it on first use after a
+     * preference change.
+     */
+    static PromptTemplate getTemplate(int variation, PreferencesManager prefs, boolean shedReferences) {
+        Templates templates;
+        synchronized (COMPILED) {
+            templates = COMPILED.get(prefs);
+            if (templates == null) {
+                templates = new Templates();
+                prefs.addChangeListener(templates::preferenceChanged);
+                COMPILED.put(prefs, templates);
+            }
+        }
+        return templates.get(variation, prefs, shedReferences);
+    }
+
+    /**
+     * An autocomplete prompt split into a static part, compiled from the preferences, and
+     * slots for the text around the cursor.
+     * <p>
+     * The instructions, style and references come first and are byte-identical for every
+     * request of the variation, so providers that cache prompt prefixes can reuse them. Only
+     * the context and a short fixed closing follow.
+     *
+     * @param prefix Instructions, general style, references and the variation's instruction.
+     * @param suffix Output rules repeated after the context.
+     */
+    record PromptTemplate(String prefix, String suffix) {
+
+        String render(AutocompleteContext context) {
+            StringBuilder promptBuilder = new StringBuilder(prefix.length() + suffix.length()
+                    + context.before().length() + context.after().length() + 256);
+            promptBuilder.append(prefix);
+
+            if (!context.headingPath().isEmpty()) {
+                promptBuilder.append("The cursor is in this section of the document: ").append(context.headingPath()).append("\n\n");
+            }
+
+            promptBuilder.append(context.beforeTruncated() ? "Text before cursor (earlier text omitted):\n" : "Text before cursor:\n");
+            promptBuilder.append("```\n").append(context.before()).append("\n```\n\n");
+
+            promptBuilder.append(context.afterTruncated() ? "Text after cursor (later text omitted):\n" : "Text after cursor:\n");
+            promptBuilder.append("```\n").append(context.after()).append("\n```\n\n");
+
+            promptBuilder.append(suffix);
+            return promptBuilder.toString();
+        }
+    }
+
+    /** The compiled templates of one preferences instance. */
+    private static final class Templates {
+        private final Map<Integer, PromptTemplate> byVariation = new HashMap<>();
+        private final Map<Integer, PromptTemplate> withoutReferences = new HashMap<>();
+
+        // Compiling under the lock means a change during compilation is never lost
+        synchronized PromptTemplate get(int variation, PreferencesManager prefs, boolean shedReferences) {
+            return (shedReferences ? withoutReferences : byVariation)
+                    .computeIfAbsent(variation, v -> compile(v, prefs, !shedReferences));
+        }
+
+        synchronized void preferenceChanged(String key) {
+            if (key == null || key.startsWith("autocompletePrompt") || key.equals("generalStylePrompt")
+                    || key.equals("autocompleteMaxLength") || key.equals("aiReferences")) {
+                byVariation.clear();
+                withoutReferences.clear();
+            }
+        }
+    }
+
+    private static PromptTemplate compile(int variation, PreferencesManager prefs, boolean includeReferences) {
         // Retrieve the base prompt template for the given variation
         String promptTemplate = prefs.getPreference(
                 "autocompletePrompt" + variation,
@@ -26,7 +115,7 @@ public class AutocompletePromptManager {
              maxLength = Integer.parseInt(prefs.getPreference("autocompleteMaxLength", "100"));
         } catch (NumberFormatException e) { /* use default */ }
 
-        // Build the final prompt
+        // Build the static prefix
         StringBuilder promptBuilder = new StringBuilder();
         promptBuilder.append("You are an AI autocomplete tool helping a user write content.\n");
         promptBuilder.append("Your goal is to provide a relevant and helpful completion or continuation of their text.\n");
@@ -38,7 +127,7 @@ public class AutocompletePromptManager {
         }
 
         // Retrieve and insert AI references if provided
-        String references = prefs.getAIReferences();
+        String references = includeReferences ? prefs.getAIReferences() : "";
         if (references != null && !references.trim().isEmpty()) {
             promptBuilder.append("\nConsider these user-provided references only if relevant to the context:\n");
             // Split by newline and list them
@@ -48,21 +137,14 @@ public class AutocompletePromptManager {
                      promptBuilder.append("- ").append(ref.trim()).append("\n");
                  }
             }
-             promptBuilder.append("\n"); // Add blank line after references
         }
 
-        promptBuilder.append("Text before cursor:\n");
-        promptBuilder.append("```\n").append(textBeforeCursor).append("\n```\n\n");
-
-        promptBuilder.append("Text after cursor:\n");
-        promptBuilder.append("```\n").append(textAfterCursor).append("\n```\n\n");
-
         // Add the specific instruction from the template
-        promptBuilder.append(promptTemplate).append("\n");
-        promptBuilder.append("Provide only the suggested text to go after cursor but before subsequent text, without any introductory phrases like \"Here is the suggestion:\".");
-        promptBuilder.append("\nKeep the suggestion concise, ideally under ").append(maxLength).append(" characters.");
+        promptBuilder.append("\n").append(promptTemplate).append("\n\n");
 
-        return promptBuilder.toString();
+        String suffix = "Provide only the suggested text to go after cursor but before subsequent text, without any introductory phrases like \"Here is the suggestion:\"."
+                + "\nKeep the suggestion concise, ideally under " + maxLength + " characters.";
+        return new PromptTemplate(promptBuilder.toString(), suffix);
     }
 
     /**
@@ -0,0 +1,155 @@
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.GapContent;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Headless benchmark of document content for large manuscripts: Swing's {@link GapContent}
+ * against {@link PieceTableContent}.
+ * <p>
+ * For each size, builds the content the way the HTML reader does (appending a few KB at a time)
+ * with a position every 500 characters, as the document's elements would create, and measures
+ * the heap it retains. It then times typing at one spot, edits at random offsets far apart,
+ * copying the whole text, scanning it through a partial-return {@link Segment}, and taking a
+ * snapshot. The last row per size opens the same text from a file through
+ * {@link PieceTableContent#mapped}.
+ * <p>
+ * Options: {@code --sizes 10,50} (megabytes of text) {@code --edits 2000}.
+ */
+public class ContentBenchmark {
+
+    private static final String TEXT = "The rain had stopped by the time she reached the harbour, and the lamps along "
+            + "the quay were already lit. She stood for a while at the edge of the water.\n";
+
+    public static void main(String[] args) throws Exception {
+        String sizes = "10,50";
+        int edits = 2000;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--sizes" -> sizes = value;
+                case "--edits" -> edits = Integer.parseInt(value);
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        System.out.printf("%-8s %6s %10s %10s %12s %12s %10s %10s %10s%n", "content", "MB", "build ms", "heap MB",
+                "type us/op", "far us/op", "copy ms", "scan ms", "snap us");
+        for (String size : sizes.split(",")) {
+            int chars = Integer.parseInt(size.trim()) * 1024 * 1024;
+            run("gap", chars, edits, GapContent::new);
+            run("piece", chars, edits, PieceTableContent::new);
+            runMapped(chars);
+        }
+    }
+
+    private static void run(String name, int chars, int edits, Supplier<AbstractDocument.Content> factory)
+            throws BadLocationException {
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        AbstractDocument.Content content = factory.get();
+        List<Position> positions = new ArrayList<>();
+        StringBuilder block = new StringBuilder();
+        while (block.length() < 4096) block.append(TEXT);
+        String text = block.toString();
+        for (int length = 0; length < chars; length += text.length()) {
+            content.insertString(content.length() - 1, text);
+            for (int p = length; p < length + text.length(); p += 500) {
+                positions.add(content.createPosition(p));
+            }
+        }
+        double buildMillis = (System.nanoTime() - start) / 1e6;
+        double heapMB = (usedHeap() - heapBefore) / 1024.0 / 1024.0;
+
+        Random random = new Random(42);
+        // Typing: bursts of single characters at one spot, moving to another now and then
+        start = System.nanoTime();
+        int caret = content.length() / 2;
+        for (int i = 0; i < edits; i++) {
+            if (i % 200 == 0) caret = random.nextInt(content.length() - 1);
+            if (i % 10 == 9) {
+                content.remove(caret - 1, 1);
+                caret--;
+            } else {
+                content.insertString(caret++, "a");
+            }
+        }
+        double typeMicros = (System.nanoTime() - start) / 1e3 / edits;
+
+        // Far edits: every one somewhere else in the document
+        start = System.nanoTime();
+        for (int i = 0; i < edits; i++) {
+            int at = random.nextInt(content.length() - 20);
+            if (i % 2 == 0) {
+                content.insertString(at, "word ");
+            } else {
+                content.remove(at, 5);
+            }
+        }
+        double farMicros = (System.nanoTime() - start) / 1e3 / edits;
+
+        start = System.nanoTime();
+        String copy = content.getString(0, content.length());
+        double copyMillis = (System.nanoTime() - start) / 1e6;
+
+        start = System.nanoTime();
+        long sum = 0;
+        Segment segment = new Segment();
+        segment.setPartialReturn(true);
+        for (int offset = 0; offset < content.length(); offset += segment.count) {
+            content.getChars(offset, content.length() - offset, segment);
+            sum += segment.count;
+        }
+        double scanMillis = (System.nanoTime() - start) / 1e6;
+
+        double snapshotMicros = Double.NaN;
+        if (content instanceof PieceTableContent pieceTable) {
+            start = System.nanoTime();
+            CharSequence snapshot = pieceTable.snapshot();
+            snapshotMicros = (System.nanoTime() - start) / 1e3;
+            sum += snapshot.length();
+        }
+        System.out.printf("%-8s %6d %10.0f %10.1f %12.2f %12.2f %10.1f %10.1f %10.1f%n", name, chars / 1024 / 1024,
+                buildMillis, heapMB, typeMicros, farMicros, copyMillis, scanMillis, snapshotMicros);
+        if (sum + copy.length() + positions.size() == 42) System.out.print(""); // Keep the results reachable
+    }
+
+    private static void runMapped(int chars) throws IOException, BadLocationException {
+        Path file = Files.createTempFile("syngrafi-content", ".txt");
+        try {
+            StringBuilder text = new StringBuilder(chars);
+            while (text.length() < chars) text.append(TEXT);
+            Files.writeString(file, text, StandardCharsets.UTF_8);
+            text = null;
+            long heapBefore = usedHeap();
+            long start = System.nanoTime();
+            PieceTableContent content = PieceTableContent.mapped(file, StandardCharsets.UTF_8);
+            double openMillis = (System.nanoTime() - start) / 1e6;
+            double heapMB = (usedHeap() - heapBefore) / 1024.0 / 1024.0;
+            start = System.nanoTime();
+            String copy = content.getString(0, content.length());
+            double copyMillis = (System.nanoTime() - start) / 1e6;
+            System.out.printf("%-8s %6d %10.0f %10.1f %12s %12s %10.1f %10s %10s%n", "mapped", chars / 1024 / 1024,
+                    openMillis, heapMB, "", "", copyMillis, "", "");
+            if (copy.length() == 42) System.out.print("");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,62 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless check that autocomplete debouncing does not start threads as the user types.
+ * <p>
+ * Types {@code --chars} characters through one {@link AutocompleteDebouncer}: a keystroke and
+ * a {@code schedule()} call every {@code --key-interval} microseconds, with a pause every
+ * {@code --burst} characters so the task fires. Compares {@link Thread#activeCount()} before
+ * and after, once the shared scheduler thread is running, and exits with status 1 if it grew.
+ * <p>
+ * Options: {@code --chars 10000 --key-interval 200 --burst 500 --delay 20}.
+ */
+public class DebouncerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int chars = 10_000;
+        long keyIntervalMicros = 200;
+        int burst = 500;
+        long delayMillis = 20;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--chars" -> chars = Integer.parseInt(value);
+                case "--key-interval" -> keyIntervalMicros = Long.parseLong(value);
+                case "--burst" -> burst = Integer.parseInt(value);
+                case "--delay" -> delayMillis = Long.parseLong(value);
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        AutocompleteDebouncer debouncer = new AutocompleteDebouncer();
+        AtomicInteger runs = new AtomicInteger();
+        Runnable task = runs::incrementAndGet;
+        debouncer.schedule(task, delayMillis); // Starts the shared scheduler thread
+        Thread.sleep(delayMillis * 2);
+        int threadsBefore = Thread.activeCount();
+        int peakThreads = threadsBefore;
+
+        long start = System.nanoTime();
+        for (int i = 1; i <= chars; i++) {
+            debouncer.recordKeystroke();
+            debouncer.schedule(task, delayMillis);
+            LockSupport.parkNanos(keyIntervalMicros * 1000);
+            if (i % burst == 0) {
+                Thread.sleep(delayMillis * 2); // Pause: the task fires
+            }
+            peakThreads = Math.max(peakThreads, Thread.activeCount());
+        }
+        Thread.sleep(delayMillis * 2);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int threadsAfter = Thread.activeCount();
+
+        System.out.printf("Typed %d characters in %.1f s, task ran %d times%n", chars, seconds, runs.get());
+        System.out.println("Debouncer " + debouncer.getStats(delayMillis));
+        System.out.printf("Threads: before=%d peak=%d after=%d%n", threadsBefore, peakThreads, threadsAfter);
+        if (peakThreads > threadsBefore || threadsAfter > threadsBefore) {
+            System.out.println("FAILED: typing started threads");
+            System.exit(1);
+        }
+        System.out.println("OK: thread count stayed flat");
+    }
+}
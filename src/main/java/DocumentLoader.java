@@ -0,0 +1,181 @@
+import javax.swing.SwingUtilities;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.EditorKit;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Opens a document in the background and shows it while the rest is still being read.
+ * <p>
+ * A daemon thread decodes the file as UTF-8 from a {@link FileChannel} and parses it into a
+ * fresh {@link EditorDocument}. The HTML reader adds what it has parsed in batches of growing
+ * size. Until the document holds a screenful of text they are added on the loading thread;
+ * then the document is handed to the listener to be shown, and every later batch is added on
+ * the EDT, in between the events it processes. The tail of a large file thus appears as it is
+ * parsed, and the editor's listeners see every change on the EDT as usual.
+ * <p>
+ * Once {@link #cancel()} has been called on the EDT the listener hears nothing more, so the
+ * caller can put its previous document back right away.
+ */
+public class DocumentLoader {
+
+    /** Text added before the document is shown: more than fits on one screen. */
+    private static final int FIRST_SCREEN_CHARS = 8 * 1024;
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    /** Told about the load on the EDT. */
+    public interface Listener {
+        /** The first screenful has been parsed: the document can be shown, read-only. */
+        void shown(EditorDocument document);
+
+        /** How much of the file has been read, in percent. */
+        void progress(int percent);
+
+        /** The whole file has been parsed into the document, which may not have been shown yet. */
+        void loaded(EditorDocument document);
+
+        /** The file could not be read or parsed. The document may have been shown already. */
+        void failed(EditorDocument document, Exception error);
+    }
+
+    private final Path file;
+    private final EditorKit kit;
+    private final EditorDocument document;
+    private final Listener listener;
+    private final Thread thread;
+    private volatile boolean cancelled = false;
+    private volatile Exception failure; // From adding a batch; the reader stops at its next read
+    private boolean shown = false; // Loading thread only
+    private int lastPercent = -1; // Loading thread only
+
+    /** Call on the EDT, with the editor's kit; {@link #start()} begins reading. */
+    public DocumentLoader(Path file, EditorKit kit, Listener listener) {
+        this.file = file;
+        this.kit = kit;
+        this.document = (EditorDocument) kit.createDefaultDocument();
+        this.listener = listener;
+        // The text is decoded here, so a charset named in the HTML has nothing left to change
+        document.putProperty("IgnoreCharsetDirective", Boolean.TRUE);
+        this.thread = new Thread(this::run, "DocumentLoader");
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /** Stops loading; call on the EDT. No more callbacks reach the listener. */
+    public void cancel() {
+        cancelled = true;
+        thread.interrupt();
+    }
+
+    private void run() {
+        Exception error = null;
+        document.setBatchHandler(this::addBatch);
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        try (FileChannel channel = FileChannel.open(file);
+             Reader reader = new ProgressReader(Channels.newReader(channel, decoder, BUFFER_BYTES), channel)) {
+            kit.read(reader, document, 0);
+        } catch (IOException | BadLocationException | RuntimeException e) {
+            error = e; // Also how a cancelled load ends
+        } finally {
+            document.setBatchHandler(null);
+        }
+        if (failure != null) {
+            error = failure;
+        }
+        if (error != null && !cancelled) {
+            error.printStackTrace();
+        }
+        Exception result = error;
+        SwingUtilities.invokeLater(() -> {
+            if (cancelled) return;
+            if (result != null) {
+                listener.failed(document, result);
+            } else {
+                listener.loaded(document);
+            }
+        });
+    }
+
+    /**
+     * Adds each batch the reader flushes: here until the first screenful is shown, then on the EDT.
+     * The parser prints and swallows exceptions thrown from here, so failures are kept instead
+     * and thrown by the reader; once cancelled or failed, batches are dropped.
+     */
+    private void addBatch(EditorDocument.Batch batch) {
+        if (cancelled || failure != null) return;
+        if (shown) {
+            onEventThread(batch);
+            return;
+        }
+        try {
+            batch.add();
+        } catch (BadLocationException | RuntimeException e) {
+            failure = e;
+            return;
+        }
+        if (document.getLength() >= FIRST_SCREEN_CHARS) {
+            onEventThread(() -> listener.shown(document));
+            shown = true;
+        }
+    }
+
+    /** Runs {@code batch} on the EDT and waits for it, unless the load is cancelled meanwhile. */
+    private void onEventThread(EditorDocument.Batch batch) {
+        try {
+            SwingUtilities.invokeAndWait(() -> {
+                if (cancelled) return;
+                try {
+                    batch.add();
+                } catch (BadLocationException | RuntimeException e) {
+                    failure = e;
+                }
+            });
+        } catch (InterruptedException | InvocationTargetException e) {
+            // Interrupted by cancel(): the reader stops at its next read
+        }
+    }
+
+    private void reportProgress(long position, long size) {
+        int percent = size > 0 ? (int) Math.min(100, position * 100 / size) : 100;
+        if (percent == lastPercent) return;
+        lastPercent = percent;
+        SwingUtilities.invokeLater(() -> {
+            if (!cancelled) listener.progress(percent);
+        });
+    }
+
+    /** Reports how far into the file the decoder has read, and stops reading once cancelled. */
+    private final class ProgressReader extends FilterReader {
+        private final FileChannel channel;
+        private final long size;
+
+        ProgressReader(Reader in, FileChannel channel) throws IOException {
+            super(in);
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            if (cancelled) throw new InterruptedIOException("Loading cancelled");
+            if (failure != null) throw new IOException(failure);
+            int read = super.read(buffer, offset, length);
+            reportProgress(channel.position(), size);
+            return read;
+        }
+    }
+}
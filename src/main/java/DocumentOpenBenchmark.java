@@ -0,0 +1,155 @@
+import javax.swing.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Headless benchmark of opening a large document: parsing it with {@code setText} on the EDT,
+ * as opening used to, against a {@link DocumentLoader}.
+ * <p>
+ * Writes a document of about {@code --size} characters to a temporary file. For each way of
+ * opening it, reports the median time until the first screenful is in the editor, until all of
+ * it is, and the longest the EDT went without processing events, measured by posting an empty
+ * event every millisecond.
+ * <p>
+ * Options: {@code --size 3000000 --iterations 3}.
+ */
+public class DocumentOpenBenchmark {
+
+    private static final String[] WORDS = ("the rain had stopped by time she reached harbour and lamps along quay "
+            + "were already lit stood for while at edge of water listening to boats knock against each other").split(" ");
+
+    private static volatile long longestStallNanos = 0; // Written by the probe thread
+    private static volatile boolean probing = false;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        int size = 3_000_000;
+        int iterations = 3;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--size" -> size = Integer.parseInt(value);
+                case "--iterations" -> iterations = Integer.parseInt(value);
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        TextEditor[] editor = new TextEditor[1];
+        SwingUtilities.invokeAndWait(() -> editor[0] = new TextEditor(new JLabel(), new PreferencesManager()));
+        Path file = Files.createTempFile("syngrafi-open", ".html");
+        try {
+            Files.writeString(file, buildHtml(size));
+            System.out.printf("Document: %d KB%n", Files.size(file) / 1024);
+            System.out.printf("%-10s %16s %12s %16s%n", "open", "first screen ms", "total ms", "longest stall ms");
+            measure("setText", iterations, () -> openWithSetText(editor[0], file));
+            measure("loader", iterations, () -> openWithLoader(editor[0], file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        System.exit(0);
+    }
+
+    private interface Open {
+        /** Opens the file; returns when the first screenful was in the editor, as System.nanoTime(). */
+        long run() throws Exception;
+    }
+
+    private static void measure(String name, int iterations, Open open) throws Exception {
+        open.run(); // Warm up
+        double[] first = new double[iterations];
+        double[] total = new double[iterations];
+        double[] stall = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            startProbe();
+            long start = System.nanoTime();
+            long shown = open.run();
+            long end = System.nanoTime();
+            probing = false;
+            first[i] = (shown - start) / 1e6;
+            total[i] = (end - start) / 1e6;
+            stall[i] = longestStallNanos / 1e6;
+        }
+        System.out.printf("%-10s %16.0f %12.0f %16.0f%n", name, median(first), median(total), median(stall));
+    }
+
+    private static long openWithSetText(TextEditor editor, Path file) throws Exception {
+        String html = Files.readString(file);
+        long[] shown = new long[1];
+        SwingUtilities.invokeAndWait(() -> {
+            editor.setText(html);
+            shown[0] = System.nanoTime(); // Nothing shows until all of it is parsed
+        });
+        return shown[0];
+    }
+
+    private static long openWithLoader(TextEditor editor, Path file) throws InterruptedException {
+        CountDownLatch loaded = new CountDownLatch(1);
+        long[] shown = new long[1];
+        SwingUtilities.invokeLater(() -> new DocumentLoader(file, editor.getEditorKit(), new DocumentLoader.Listener() {
+            @Override
+            public void shown(EditorDocument document) {
+                editor.beginLoading(document);
+                shown[0] = System.nanoTime();
+            }
+
+            @Override
+            public void progress(int percent) {
+            }
+
+            @Override
+            public void loaded(EditorDocument document) {
+                if (editor.getDocument() != document) {
+                    editor.beginLoading(document);
+                    shown[0] = System.nanoTime();
+                }
+                editor.finishLoading(null);
+                loaded.countDown();
+            }
+
+            @Override
+            public void failed(EditorDocument document, Exception error) {
+                throw new IllegalStateException(error);
+            }
+        }).start());
+        loaded.await();
+        return shown[0];
+    }
+
+    /** Posts an empty event to the EDT every millisecond and keeps the longest wait for it. */
+    private static void startProbe() {
+        longestStallNanos = 0;
+        probing = true;
+        Thread probe = new Thread(() -> {
+            while (probing) {
+                long posted = System.nanoTime();
+                try {
+                    SwingUtilities.invokeAndWait(() -> { });
+                    Thread.sleep(1);
+                } catch (Exception e) {
+                    return;
+                }
+                longestStallNanos = Math.max(longestStallNanos, System.nanoTime() - posted);
+            }
+        }, "EdtProbe");
+        probe.setDaemon(true);
+        probe.start();
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static String buildHtml(int size) {
+        StringBuilder html = new StringBuilder("<html><body><p>");
+        int words = 0;
+        while (html.length() < size) {
+            String word = WORDS[words % WORDS.length];
+            html.append(words % 10 == 0 ? "<b>" + word + "</b>" : word).append(' ');
+            if (++words % 100 == 0) html.append(".</p>\n<p>");
+        }
+        return html.append("</p></body></html>\n<!-- PROVENANCE=h100 -->\n").toString();
+    }
+}
@@ -0,0 +1,197 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Segment;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Word, character and sentence counts of a document, kept per paragraph element and updated
+ * from its {@link DocumentEvent}s.
+ * <p>
+ * An event only recounts the paragraphs in its range, found by walking down from the root
+ * along that range; paragraphs its element changes removed are subtracted. Totals are plain
+ * fields, so reading them costs nothing however long the manuscript is. The text is scanned
+ * through a partial-return {@link Segment}, which reads the document's buffer without copying
+ * it. Used on the EDT only.
+ */
+public final class DocumentStats {
+
+    private record Counts(int words, int characters, int sentences) {
+    }
+
+    private final Document document;
+    private final Map<Element, Counts> paragraphs = new IdentityHashMap<>();
+    private final Segment segment = new Segment();
+    private long words = 0;
+    private long characters = 0;
+    private long sentences = 0;
+    private long updates = 0;
+    private long paragraphsRecounted = 0;
+
+    public DocumentStats(Document document) {
+        this.document = document;
+        segment.setPartialReturn(true);
+        rebuild();
+    }
+
+    /** Recounts every paragraph from scratch. */
+    public void rebuild() {
+        paragraphs.clear();
+        words = characters = sentences = 0;
+        add(document.getDefaultRootElement());
+    }
+
+    /** Brings the counts up to date after an insert, remove or attribute change. */
+    public void update(DocumentEvent e) {
+        EditorEvents.WordCount event = new EditorEvents.WordCount();
+        event.begin();
+        long recountedBefore = paragraphsRecounted;
+        // From the character before the change: a remove at a paragraph's start can also cut the
+        // end off the paragraph before it
+        int start = Math.max(0, e.getOffset() - 1);
+        int end = e.getType() == DocumentEvent.EventType.REMOVE ? e.getOffset() : e.getOffset() + e.getLength();
+        // Formatting leaves the text alone: only paragraphs its element changes replaced are counted
+        boolean recount = e.getType() != DocumentEvent.EventType.CHANGE;
+        visit(document.getDefaultRootElement(), e, start, end, recount);
+        updates++;
+        if (event.shouldCommit()) {
+            event.paragraphsRecounted = (int) (paragraphsRecounted - recountedBefore);
+            event.words = (int) words;
+            event.commit();
+        }
+    }
+
+    private void visit(Element element, DocumentEvent e, int start, int end, boolean recount) {
+        DocumentEvent.ElementChange change = e.getChange(element);
+        if (change != null) {
+            for (Element removed : change.getChildrenRemoved()) {
+                remove(removed);
+            }
+        }
+        if (isParagraph(element)) {
+            if (recount || !paragraphs.containsKey(element)) recount(element);
+            return;
+        }
+        if (element.getElementCount() == 0) return;
+        int first = element.getElementIndex(start);
+        int last = element.getElementIndex(end);
+        for (int i = first; i <= last; i++) {
+            visit(element.getElement(i), e, start, end, recount);
+        }
+        if (change != null) {
+            for (Element added : change.getChildrenAdded()) {
+                add(added); // Usually inside the range already; recounting is idempotent
+            }
+        }
+    }
+
+    /** Counts every paragraph under {@code element}. */
+    private void add(Element element) {
+        if (isParagraph(element)) {
+            recount(element);
+            return;
+        }
+        for (int i = 0; i < element.getElementCount(); i++) {
+            add(element.getElement(i));
+        }
+    }
+
+    /** Forgets every paragraph under {@code element}, which is no longer in the document. */
+    private void remove(Element element) {
+        if (isParagraph(element)) {
+            subtract(paragraphs.remove(element));
+            return;
+        }
+        for (int i = 0; i < element.getElementCount(); i++) {
+            remove(element.getElement(i));
+        }
+    }
+
+    /** A branch holding content directly, such as a p, li body or heading. */
+    private static boolean isParagraph(Element element) {
+        return !element.isLeaf() && element.getElementCount() > 0 && element.getElement(0).isLeaf();
+    }
+
+    private void recount(Element paragraph) {
+        Counts counts = count(paragraph);
+        subtract(paragraphs.put(paragraph, counts));
+        words += counts.words;
+        characters += counts.characters;
+        sentences += counts.sentences;
+        paragraphsRecounted++;
+    }
+
+    private void subtract(Counts counts) {
+        if (counts == null) return;
+        words -= counts.words;
+        characters -= counts.characters;
+        sentences -= counts.sentences;
+    }
+
+    private Counts count(Element paragraph) {
+        int start = paragraph.getStartOffset();
+        int end = Math.min(paragraph.getEndOffset(), document.getLength());
+        int wordCount = 0;
+        int characterCount = 0;
+        int sentenceCount = 0;
+        boolean inWord = false;
+        boolean terminated = false; // The current word ended with . ! or ?
+        int offset = start;
+        try {
+            while (offset < end) {
+                document.getText(offset, end - offset, segment);
+                for (int i = segment.offset; i < segment.offset + segment.count; i++) {
+                    char c = segment.array[i];
+                    if (c != '\n') characterCount++;
+                    if (Character.isWhitespace(c)) {
+                        if (inWord && terminated) sentenceCount++;
+                        inWord = false;
+                    } else {
+                        if (!inWord) wordCount++;
+                        inWord = true;
+                        terminated = c == '.' || c == '!' || c == '?';
+                    }
+                }
+                offset += segment.count;
+            }
+        } catch (BadLocationException ex) {
+            ex.printStackTrace();
+        }
+        if (inWord) sentenceCount++; // Ends the paragraph, terminated or not
+        else if (wordCount > 0 && !terminated) sentenceCount++; // Unterminated last sentence, e.g. a heading
+        return new Counts(wordCount, characterCount, sentenceCount);
+    }
+
+    public long getWords() {
+        return words;
+    }
+
+    public long getCharacters() {
+        return characters;
+    }
+
+    public long getSentences() {
+        return sentences;
+    }
+
+    public int getParagraphs() {
+        return paragraphs.size();
+    }
+
+    /**
+     * Snapshot of the totals and of the work done keeping them.
+     */
+    public record Stats(int paragraphs, long words, long characters, long sentences, long updates, long paragraphsRecounted) {
+        @Override
+        public String toString() {
+            return String.format("paragraphs=%d words=%d chars=%d sentences=%d updates=%d recounted=%d",
+                    paragraphs, words, characters, sentences, updates, paragraphsRecounted);
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(paragraphs.size(), words, characters, sentences, updates, paragraphsRecounted);
+    }
+}
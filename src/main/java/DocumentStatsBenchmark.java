@@ -0,0 +1,127 @@
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.html.HTMLEditorKit;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Headless benchmark of the per-keystroke cost of keeping the word count current.
+ * <p>
+ * Builds documents of growing size and types into the middle of each, measuring time and
+ * allocation per keystroke for the incremental {@link DocumentStats} and for the former
+ * approach of serializing the document to HTML and counting with regexes. The incremental
+ * cost should stay flat while the former grows with the document.
+ * <p>
+ * Options: {@code --sizes 1000,10000,100000 --keystrokes 2000 --full-keystrokes 20}.
+ */
+public class DocumentStatsBenchmark {
+
+    private static final String[] WORDS = ("the rain had stopped by time she reached harbour and lamps along quay "
+            + "were already lit stood for while at edge of water listening to boats knock against each other").split(" ");
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        String sizes = "1000,10000,100000";
+        int keystrokes = 2000;
+        int fullKeystrokes = 20;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--sizes" -> sizes = value;
+                case "--keystrokes" -> keystrokes = Integer.parseInt(value);
+                case "--full-keystrokes" -> fullKeystrokes = Integer.parseInt(value);
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        int finalKeystrokes = keystrokes;
+        int finalFullKeystrokes = fullKeystrokes;
+        System.out.printf("%10s %14s %14s %14s %14s%n", "words", "incr us/key", "incr B/key", "full us/key", "full B/key");
+        for (String size : sizes.split(",")) {
+            int words = Integer.parseInt(size.trim());
+            SwingUtilities.invokeAndWait(() -> run(words, finalKeystrokes, finalFullKeystrokes));
+        }
+    }
+
+    private static void run(int words, int keystrokes, int fullKeystrokes) {
+        JTextPane pane = new JTextPane();
+        HTMLEditorKit kit = new HTMLEditorKit();
+        pane.setEditorKit(kit);
+        pane.setText(buildHtml(words));
+        Document document = pane.getDocument();
+        DocumentStats stats = new DocumentStats(document);
+        long[] sink = new long[1];
+        document.addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                stats.update(e);
+                sink[0] += stats.getWords();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                stats.update(e);
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                stats.update(e);
+            }
+        });
+        int offset = document.getLength() / 2;
+        type(document, offset, 200); // Warm up
+        Measurement incremental = measure(() -> type(document, offset, keystrokes), keystrokes);
+        Measurement full = measure(() -> {
+            for (int i = 0; i < fullKeystrokes; i++) {
+                type(document, offset, 1);
+                sink[0] += countWordsInHtml(pane.getText());
+            }
+        }, fullKeystrokes);
+        System.out.printf("%10d %14.1f %14d %14.1f %14d%n", stats.getWords(),
+                incremental.micros, incremental.bytes, full.micros, full.bytes);
+        if (sink[0] == 42) System.out.print(""); // Keep the counts observable
+    }
+
+    /** The word count as it was computed before {@link DocumentStats}. */
+    private static int countWordsInHtml(String htmlText) {
+        String textOnly = htmlText.replaceAll("<[^>]+>", " ");
+        textOnly = textOnly.replace("&nbsp;", " ").trim();
+        textOnly = textOnly.replaceAll("\\s+", " ");
+        if (textOnly.isEmpty()) return 0;
+        return textOnly.split("\\s+").length;
+    }
+
+    private static void type(Document document, int offset, int characters) {
+        try {
+            for (int i = 0; i < characters; i++) {
+                document.insertString(offset + i % 50, i % 6 == 5 ? " " : "a", null);
+            }
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record Measurement(double micros, long bytes) {
+    }
+
+    private static Measurement measure(Runnable work, int keystrokes) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().threadId();
+        long bytesBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        work.run();
+        long nanos = System.nanoTime() - start;
+        long bytes = threads.getThreadAllocatedBytes(thread) - bytesBefore;
+        return new Measurement(nanos / 1e3 / keystrokes, bytes / keystrokes);
+    }
+
+    private static String buildHtml(int words) {
+        StringBuilder html = new StringBuilder("<html><body>");
+        for (int i = 0; i < words; i++) {
+            if (i % 100 == 0) html.append(i == 0 ? "<p>" : ".</p><p>");
+            html.append(WORDS[i % WORDS.length]).append(' ');
+        }
+        return html.append("</p></body></html>").toString();
+    }
+}
@@ -0,0 +1,236 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.MutableAttributeSet;
+import javax.swing.text.html.HTMLDocument;
+import javax.swing.text.html.HTMLEditorKit;
+import javax.swing.text.html.StyleSheet;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * The editor's HTML document, with formatting that works on runs of text rather than characters.
+ * <p>
+ * Applying character or paragraph attributes skips the runs and paragraphs that already have
+ * them, and narrows the change to the span that is left: one change event and one undoable edit
+ * covering only that span, or none at all if nothing changes. Repainting and the listeners then
+ * only deal with what was actually reformatted, which on a long selection is most of the cost.
+ */
+public class EditorDocument extends HTMLDocument {
+
+    /**
+     * An HTML editor kit whose documents are {@link EditorDocument}s, holding their text in a
+     * {@link PieceTableContent} or in Swing's default {@code GapContent}.
+     */
+    public static class Kit extends HTMLEditorKit {
+        private final boolean pieceTable;
+
+        public Kit(boolean pieceTable) {
+            this.pieceTable = pieceTable;
+        }
+
+        @Override
+        public Document createDefaultDocument() {
+            StyleSheet styles = new StyleSheet();
+            styles.addStyleSheet(getStyleSheet());
+            EditorDocument doc = pieceTable ? new EditorDocument(new PieceTableContent(), styles) : new EditorDocument(styles);
+            doc.setParser(getParser());
+            doc.setAsynchronousLoadPriority(4);
+            doc.setTokenThreshold(100);
+            return doc;
+        }
+    }
+
+    /** Adds one batch of parsed content to the document. */
+    public interface Batch {
+        void add() throws BadLocationException;
+    }
+
+    /** Decides on which thread, and whether, each batch the HTML reader flushes is added. */
+    public interface BatchHandler {
+        void handle(Batch batch) throws BadLocationException;
+    }
+
+    private static final int BATCH_SPECS = 1000;
+
+    private volatile BatchHandler batchHandler; // Null adds batches directly
+
+    public EditorDocument(StyleSheet styles) {
+        super(styles);
+    }
+
+    public EditorDocument(Content content, StyleSheet styles) {
+        super(content, styles);
+    }
+
+    /**
+     * The text as it is now. With a {@link PieceTableContent} this is a snapshot that costs
+     * nothing to take and stays valid while editing continues; otherwise it is a copy.
+     */
+    public CharSequence snapshot() {
+        if (getContent() instanceof PieceTableContent pieceTable) {
+            readLock();
+            try {
+                return pieceTable.snapshot().subSequence(0, getLength()); // Without the closing newline
+            } finally {
+                readUnlock();
+            }
+        }
+        try {
+            return getText(0, getLength());
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Routes the batches the HTML reader adds while parsing into this document through
+     * {@code handler}, e.g. onto the EDT once the document is on screen; null to add them directly.
+     */
+    public void setBatchHandler(BatchHandler handler) {
+        batchHandler = handler;
+    }
+
+    @Override
+    protected void create(ElementSpec[] data) {
+        BatchHandler handler = batchHandler;
+        if (handler == null) {
+            super.create(data);
+            return;
+        }
+        try {
+            handler.handle(() -> super.create(data));
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e); // create does not use offsets
+        }
+    }
+
+    /**
+     * With a batch handler, a flush is handed over in batches of about {@link #BATCH_SPECS}
+     * elements. The reader's own flushes grow to thousands of elements; each is cut after a
+     * piece of text, which is where the reader itself flushes, so the result is the same.
+     */
+    @Override
+    protected void insert(int offset, ElementSpec[] data) throws BadLocationException {
+        BatchHandler handler = batchHandler;
+        if (handler == null) {
+            super.insert(offset, data);
+            return;
+        }
+        for (int from = 0, to; from < data.length; from = to) {
+            to = Math.min(from + BATCH_SPECS, data.length);
+            while (to < data.length && !(data[to - 1].getType() == ElementSpec.ContentType && data[to - 1].getLength() > 0)) {
+                to++;
+            }
+            ElementSpec[] batch = Arrays.copyOfRange(data, from, to);
+            int at = offset;
+            handler.handle(() -> super.insert(at, batch));
+            for (ElementSpec spec : batch) {
+                offset += spec.getLength();
+            }
+        }
+    }
+
+    /**
+     * Whether every run of text in [start, end) satisfies {@code test}, checking each leaf
+     * element once.
+     */
+    public boolean allRuns(int start, int end, Predicate<AttributeSet> test) {
+        readLock();
+        try {
+            for (int pos = start, runEnd; pos < end; pos = runEnd) {
+                Element run = getCharacterElement(pos);
+                runEnd = run.getEndOffset();
+                if (pos == runEnd) break; // Past the end of the document
+                if (!test.test(run.getAttributes())) return false;
+            }
+            return true;
+        } finally {
+            readUnlock();
+        }
+    }
+
+    @Override
+    public void setCharacterAttributes(int offset, int length, AttributeSet s, boolean replace) {
+        if (length <= 0) return;
+        if (replace) {
+            super.setCharacterAttributes(offset, length, s, true);
+            return;
+        }
+        try {
+            writeLock();
+            int end = offset + length;
+            int first = -1;
+            int last = -1;
+            for (int pos = offset, runEnd; pos < end; pos = runEnd) {
+                Element run = getCharacterElement(pos);
+                runEnd = run.getEndOffset();
+                if (pos == runEnd) break;
+                if (!hasAttributes(run, s)) {
+                    if (first < 0) first = pos;
+                    last = Math.min(runEnd, end);
+                }
+            }
+            if (first < 0) return; // Already formatted: no event and nothing to undo
+
+            DefaultDocumentEvent changes = new DefaultDocumentEvent(first, last - first, DocumentEvent.EventType.CHANGE);
+            buffer.change(first, last - first, changes); // Splits the runs at either end of the span
+            AttributeSet sCopy = s.copyAttributes();
+            for (int pos = first, runEnd; pos < last; pos = runEnd) {
+                Element run = getCharacterElement(pos);
+                runEnd = run.getEndOffset();
+                if (pos == runEnd) break;
+                if (hasAttributes(run, s)) continue;
+                changes.addEdit(new AttributeUndoableEdit(run, sCopy, false));
+                ((MutableAttributeSet) run.getAttributes()).addAttributes(s);
+            }
+            changes.end();
+            fireChangedUpdate(changes);
+            fireUndoableEditUpdate(new UndoableEditEvent(this, changes));
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    @Override
+    public void setParagraphAttributes(int offset, int length, AttributeSet s, boolean replace) {
+        if (replace) {
+            super.setParagraphAttributes(offset, length, s, true);
+            return;
+        }
+        int first = -1;
+        int last = -1;
+        readLock();
+        try {
+            int end = Math.min(offset + length, getLength());
+            for (int pos = offset, paragraphEnd; pos <= end; pos = paragraphEnd) {
+                Element paragraph = getParagraphElement(pos);
+                paragraphEnd = Math.max(paragraph.getEndOffset(), pos + 1);
+                if (!hasAttributes(paragraph, s)) {
+                    if (first < 0) first = paragraph.getStartOffset();
+                    last = paragraph.getEndOffset();
+                }
+            }
+        } finally {
+            readUnlock();
+        }
+        if (first < 0) return; // Every paragraph already has them
+        // Paragraphs in between that already have the attributes get them again, which changes nothing
+        super.setParagraphAttributes(first, Math.max(0, last - first - 1), s, false);
+    }
+
+    /** Whether the element already resolves every attribute in {@code s} to the same value. */
+    private static boolean hasAttributes(Element element, AttributeSet s) {
+        AttributeSet attributes = element.getAttributes();
+        for (Enumeration<?> names = s.getAttributeNames(); names.hasMoreElements(); ) {
+            Object name = names.nextElement();
+            if (!Objects.equals(s.getAttribute(name), attributes.getAttribute(name))) return false;
+        }
+        return true;
+    }
+}
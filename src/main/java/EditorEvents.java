@@ -0,0 +1,174 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.awt.event.KeyEvent;
+import java.io.File;
+
+/**
+ * Flight recorder events for the editor's hot paths: key handling, document listeners,
+ * word counting and file operations. Provider requests are recorded by
+ * {@link api.FlightRecorderProvider}.
+ * <p>
+ * An event that is not being recorded costs an allocation the JIT usually removes, so the
+ * events stay in place in normal use.
+ */
+public final class EditorEvents {
+
+    private EditorEvents() {
+    }
+
+    @Name("syngrafi.KeyEvent")
+    @Label("Key Event")
+    @Category({"Syngrafi", "Editor"})
+    @Description("Handling of one key event by the editor")
+    public static class Keystroke extends jdk.jfr.Event {
+        @Label("Event Type")
+        public String type;
+
+        @Label("Key Code")
+        public int keyCode;
+
+        @Label("Key Char")
+        public char keyChar;
+    }
+
+    @Name("syngrafi.DocumentChange")
+    @Label("Document Listener")
+    @Category({"Syngrafi", "Editor"})
+    @Description("The editor's own document listener handling one change")
+    public static class DocumentChange extends jdk.jfr.Event {
+        @Label("Change Type")
+        public String type;
+
+        @Label("Offset")
+        public int offset;
+
+        @Label("Length")
+        public int length;
+    }
+
+    @Name("syngrafi.WordCount")
+    @Label("Word Count Update")
+    @Category({"Syngrafi", "Editor"})
+    @Description("Incremental update of the document statistics after a change")
+    public static class WordCount extends jdk.jfr.Event {
+        @Label("Paragraphs Recounted")
+        public int paragraphsRecounted;
+
+        @Label("Words")
+        public int words;
+    }
+
+    /** A read or write of a document file. */
+    public abstract static class FileOperation extends jdk.jfr.Event {
+        @Label("Path")
+        public String path;
+
+        @Label("Size")
+        @DataAmount
+        public long bytes;
+
+        @Label("Succeeded")
+        public boolean succeeded;
+
+        /** Fills in the file, its size on disk and the outcome, and commits. */
+        public void commit(File file, boolean succeeded) {
+            if (!shouldCommit()) return;
+            this.path = file != null ? file.getAbsolutePath() : null;
+            this.bytes = file != null ? file.length() : 0;
+            this.succeeded = succeeded;
+            commit();
+        }
+    }
+
+    @Name("syngrafi.DocumentOpen")
+    @Label("Document Open")
+    @Category({"Syngrafi", "Persistence"})
+    public static class DocumentOpen extends FileOperation {
+    }
+
+    @Name("syngrafi.DocumentSave")
+    @Label("Document Save")
+    @Category({"Syngrafi", "Persistence"})
+    public static class DocumentSave extends FileOperation {
+    }
+
+    @Name("syngrafi.VersionCommit")
+    @Label("Version Commit")
+    @Category({"Syngrafi", "Persistence"})
+    public static class VersionCommit extends FileOperation {
+    }
+
+    @Name("syngrafi.PdfExport")
+    @Label("PDF Export")
+    @Category({"Syngrafi", "Persistence"})
+    public static class PdfExport extends FileOperation {
+    }
+
+    /** Wraps a document listener so each of its callbacks is recorded as a {@link DocumentChange}. */
+    public static DocumentListener recorded(DocumentListener listener) {
+        return new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                DocumentChange event = begin(e);
+                try {
+                    listener.insertUpdate(e);
+                } finally {
+                    event.commit();
+                }
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                DocumentChange event = begin(e);
+                try {
+                    listener.removeUpdate(e);
+                } finally {
+                    event.commit();
+                }
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                DocumentChange event = begin(e);
+                try {
+                    listener.changedUpdate(e);
+                } finally {
+                    event.commit();
+                }
+            }
+        };
+    }
+
+    private static DocumentChange begin(DocumentEvent e) {
+        DocumentChange event = new DocumentChange();
+        event.begin();
+        if (event.isEnabled()) {
+            event.type = e.getType().toString();
+            event.offset = e.getOffset();
+            event.length = e.getLength();
+        }
+        return event;
+    }
+
+    /** Starts a key event record; the caller commits it once the event is handled. */
+    public static Keystroke begin(KeyEvent e) {
+        Keystroke event = new Keystroke();
+        event.begin();
+        if (event.isEnabled()) {
+            event.type = switch (e.getID()) {
+                case KeyEvent.KEY_PRESSED -> "pressed";
+                case KeyEvent.KEY_RELEASED -> "released";
+                default -> "typed";
+            };
+            event.keyCode = e.getKeyCode();
+            event.keyChar = e.getKeyChar();
+        }
+        return event;
+    }
+}
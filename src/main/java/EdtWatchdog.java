@@ -0,0 +1,188 @@
+import javax.swing.SwingUtilities;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detects when the Swing event dispatch thread stops processing events.
+ * <p>
+ * A daemon thread posts a heartbeat to the EDT and checks how long it has been waiting. Once
+ * that passes the threshold the EDT is stalled: its stack is sampled a few times while the
+ * stall lasts, and when the heartbeat finally runs the stall is written with its samples to
+ * a rolling diagnostics log. Stalls are also counted by the topmost Syngrafi frame of the
+ * first sample (or the top frame, if no Syngrafi code is on the stack), which points at the
+ * operation that froze the UI.
+ */
+public class EdtWatchdog {
+
+    private static final int MAX_SAMPLES = 3;
+    private static final int MAX_FRAMES = 40;
+    private static final long MAX_LOG_BYTES = 1024 * 1024; // Rolled over to a single .1 file
+
+    private final long thresholdNanos;
+    private final long pollMillis;
+    private final Path logFile;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    // Written by the heartbeat on the EDT, read by the watchdog
+    private volatile Thread edt;
+    private volatile long pendingSinceNanos = 0; // When the unprocessed heartbeat was posted, 0 if none
+    private volatile long lastBeatNanos = 0;
+
+    // Watchdog thread only
+    private final List<StackTraceElement[]> samples = new ArrayList<>();
+    private long stallPostedNanos = 0;
+    private long lastSampleNanos = 0;
+
+    // Guarded by this
+    private final Map<String, Long> stallsByFrame = new HashMap<>();
+    private long stalls = 0;
+    private long longestNanos = 0;
+    private long totalNanos = 0;
+
+    private final Runnable heartbeat = () -> {
+        edt = Thread.currentThread();
+        lastBeatNanos = System.nanoTime();
+        pendingSinceNanos = 0;
+    };
+
+    /**
+     * @param thresholdMillis How long the EDT may go without processing events.
+     * @param logFile         The diagnostics log, or null to only count stalls.
+     */
+    public EdtWatchdog(long thresholdMillis, Path logFile) {
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, thresholdMillis));
+        this.pollMillis = Math.max(10, Math.min(100, thresholdMillis / 4));
+        this.logFile = logFile;
+        this.thread = new Thread(this::run, "EdtWatchdog");
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        thread.interrupt();
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                Thread.sleep(pollMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            long pendingSince = pendingSinceNanos;
+            if (pendingSince == 0) {
+                if (!samples.isEmpty()) {
+                    finishStall(lastBeatNanos - stallPostedNanos);
+                }
+                pendingSinceNanos = now;
+                SwingUtilities.invokeLater(heartbeat);
+            } else if (now - pendingSince >= thresholdNanos) {
+                stallPostedNanos = pendingSince;
+                Thread eventThread = edt;
+                if (eventThread != null && samples.size() < MAX_SAMPLES
+                        && now - lastSampleNanos >= thresholdNanos / 2) {
+                    samples.add(eventThread.getStackTrace());
+                    lastSampleNanos = now;
+                }
+            }
+        }
+    }
+
+    private void finishStall(long durationNanos) {
+        String frame = topFrame(samples.get(0));
+        synchronized (this) {
+            stalls++;
+            totalNanos += durationNanos;
+            longestNanos = Math.max(longestNanos, durationNanos);
+            stallsByFrame.merge(frame, 1L, Long::sum);
+        }
+        System.err.printf("EDT stalled for %d ms at %s%n", TimeUnit.NANOSECONDS.toMillis(durationNanos), frame);
+        if (logFile != null) {
+            log(durationNanos, frame);
+        }
+        samples.clear();
+    }
+
+    /** The topmost frame of Syngrafi code; framework frames alone say little about the cause. */
+    private static String topFrame(StackTraceElement[] stack) {
+        if (stack.length == 0) return "unknown";
+        for (StackTraceElement element : stack) {
+            String className = element.getClassName();
+            if (!className.startsWith("java.") && !className.startsWith("javax.") && !className.startsWith("sun.")
+                    && !className.startsWith("jdk.") && !className.startsWith("com.")) {
+                return element.toString();
+            }
+        }
+        return stack[0].toString();
+    }
+
+    private void log(long durationNanos, String frame) {
+        StringWriter entry = new StringWriter();
+        PrintWriter out = new PrintWriter(entry);
+        out.printf("%s EDT stalled for %d ms at %s%n", LocalDateTime.now(),
+                TimeUnit.NANOSECONDS.toMillis(durationNanos), frame);
+        for (int i = 0; i < samples.size(); i++) {
+            out.printf("  Sample %d of %d:%n", i + 1, samples.size());
+            StackTraceElement[] stack = samples.get(i);
+            for (int f = 0; f < Math.min(stack.length, MAX_FRAMES); f++) {
+                out.println("    at " + stack[f]);
+            }
+            if (stack.length > MAX_FRAMES) {
+                out.println("    ... " + (stack.length - MAX_FRAMES) + " more");
+            }
+        }
+        out.println();
+        out.flush();
+        try {
+            Files.createDirectories(logFile.getParent());
+            if (Files.exists(logFile) && Files.size(logFile) > MAX_LOG_BYTES) {
+                Files.move(logFile, logFile.resolveSibling(logFile.getFileName() + ".1"), StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.writeString(logFile, entry.toString(), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.err.println("Could not write EDT stall log " + logFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Snapshot of the stalls seen so far, with the counts by frame most frequent first.
+     */
+    public record Stats(long stalls, long longestMillis, long totalMillis, Map<String, Long> byFrame) {
+        @Override
+        public String toString() {
+            StringBuilder frames = new StringBuilder();
+            byFrame.entrySet().stream().limit(5)
+                    .forEach(entry -> frames.append(String.format("%n  %dx %s", entry.getValue(), entry.getKey())));
+            return String.format("stalls=%d longest=%dms total=%dms%s", stalls, longestMillis, totalMillis, frames);
+        }
+    }
+
+    public synchronized Stats getStats() {
+        Map<String, Long> byFrame = new LinkedHashMap<>();
+        stallsByFrame.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .forEach(entry -> byFrame.put(entry.getKey(), entry.getValue()));
+        return new Stats(stalls, TimeUnit.NANOSECONDS.toMillis(longestNanos),
+                TimeUnit.NANOSECONDS.toMillis(totalNanos), byFrame);
+    }
+}
@@ -6,6 +6,10 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class FindReplaceDialog extends JDialog {
 
@@ -94,18 +98,19 @@ public class FindReplaceDialog extends JDialog {
         int searchStart = (lastFoundIndex == -1) ? textPane.getCaretPosition() : lastFoundIndex + 1; // Start after last find or caret
 
         try {
-            String content = doc.getText(0, doc.getLength());
-            String searchContent = matchCase ? content : content.toLowerCase();
-            String searchText = matchCase ? findText : findText.toLowerCase();
-
-            lastFoundIndex = searchContent.indexOf(searchText, searchStart);
-
-            if (lastFoundIndex == -1 && wrap && searchStart > 0) { // Wrap search
-                lastFoundIndex = searchContent.indexOf(searchText, 0);
+            Matcher matcher = matcher(doc, findText, matchCase);
+            int foundEnd = -1;
+            lastFoundIndex = -1;
+            if (searchStart <= doc.getLength() && matcher.find(searchStart)) {
+                lastFoundIndex = matcher.start();
+                foundEnd = matcher.end();
+            } else if (wrap && searchStart > 0 && matcher.find(0)) { // Wrap search
+                lastFoundIndex = matcher.start();
+                foundEnd = matcher.end();
             }
 
             if (lastFoundIndex != -1) {
-                textPane.select(lastFoundIndex, lastFoundIndex + findText.length());
+                textPane.select(lastFoundIndex, foundEnd);
                 textPane.requestFocusInWindow();
             } else {
                 JOptionPane.showMessageDialog(this, "Text not found.", "Find", JOptionPane.INFORMATION_MESSAGE);
@@ -148,22 +153,17 @@ public class FindReplaceDialog extends JDialog {
         lastFoundIndex = -1; // Start from beginning
 
         try {
-             // It's safer to get text once and work with indices, but direct replaceAll isn't trivial with JTextPane styling.
-             // Simple approach: repeatedly find and replace.
-             // NOTE: This can be inefficient for large documents.
-             int searchFrom = 0;
-             while (true) {
-                 String content = doc.getText(0, doc.getLength());
-                 String searchContent = matchCase ? content : content.toLowerCase();
-                 String searchText = matchCase ? findText : findText.toLowerCase();
-                 
-                 int foundIndex = searchContent.indexOf(searchText, searchFrom);
-                 if (foundIndex == -1) break; // No more occurrences
-
-                 textPane.select(foundIndex, foundIndex + findText.length());
+             // Find every occurrence in one pass over the text, then replace from the last one back
+             // so the offsets of the ones before stay valid
+             Matcher matcher = matcher(doc, findText, matchCase);
+             List<int[]> found = new ArrayList<>();
+             while (matcher.find()) {
+                 found.add(new int[]{matcher.start(), matcher.end()});
+             }
+             for (int i = found.size() - 1; i >= 0; i--) {
+                 textPane.select(found.get(i)[0], found.get(i)[1]);
                  textPane.replaceSelection(replaceText);
                  replacements++;
-                 searchFrom = foundIndex + replaceText.length(); // Start next search after the replacement
              }
              JOptionPane.showMessageDialog(this, replacements + " replacement(s) made.", "Replace All", JOptionPane.INFORMATION_MESSAGE);
              lastFoundIndex = -1; // Reset search
@@ -171,4 +171,12 @@ public class FindReplaceDialog extends JDialog {
              ex.printStackTrace();
         }
     }
+
+    /** Searches the editor's text in place where the document allows it, rather than in a copy. */
+    private static Matcher matcher(Document doc, String findText, boolean matchCase) throws BadLocationException {
+        CharSequence content = doc instanceof EditorDocument editorDocument
+                ? editorDocument.snapshot() : doc.getText(0, doc.getLength());
+        int flags = matchCase ? Pattern.LITERAL : Pattern.LITERAL | Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+        return Pattern.compile(findText, flags).matcher(content);
+    }
 } 
\ No newline at end of file
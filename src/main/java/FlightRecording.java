@@ -0,0 +1,53 @@
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+
+/**
+ * An in-app flight recording with the JDK's "profile" settings plus Syngrafi's own events,
+ * started and stopped from the Help menu. The result is a single .jfr file to attach to a
+ * bug report. Used on the EDT only.
+ */
+public class FlightRecording {
+
+    private Recording recording;
+
+    public boolean isRecording() {
+        return recording != null;
+    }
+
+    public void start() throws IOException, ParseException {
+        if (recording != null) return;
+        Recording started = new Recording(Configuration.getConfiguration("profile"));
+        started.setName("Syngrafi");
+        started.setToDisk(true);
+        for (String event : new String[]{"syngrafi.KeyEvent", "syngrafi.DocumentChange", "syngrafi.WordCount",
+                "syngrafi.DocumentOpen", "syngrafi.DocumentSave", "syngrafi.VersionCommit",
+                "syngrafi.PdfExport", "syngrafi.ProviderCall"}) {
+            started.enable(event);
+        }
+        started.start();
+        recording = started;
+    }
+
+    /** Stops the recording and writes it to {@code destination}. */
+    public void stop(Path destination) throws IOException {
+        if (recording == null) return;
+        try {
+            recording.stop();
+            recording.dump(destination);
+        } finally {
+            recording.close();
+            recording = null;
+        }
+    }
+
+    /** Stops the recording without keeping it. */
+    public void discard() {
+        if (recording == null) return;
+        recording.close();
+        recording = null;
+    }
+}
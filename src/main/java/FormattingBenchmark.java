@@ -0,0 +1,124 @@
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.StyleConstants;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Headless benchmark of formatting a large selection.
+ * <p>
+ * Loads a document of about {@code --size} characters into a {@link TextEditor}, with every
+ * tenth word already bold so the selection is made of many runs, selects all of it and times
+ * the toolbar actions: toggling bold on and off, font family and size, and alignment. Each
+ * action alternates between two values, so every application reformats the whole selection.
+ * The "touch-up" cases reformat one paragraph and then apply the previous format to the whole
+ * document again, as when a chapter's font is reset after pasting into it. Each action is
+ * reported as median time and mean allocation per application, with the number of document
+ * events and undoable edits it produced.
+ * <p>
+ * Options: {@code --size 1000000 --iterations 5}.
+ */
+public class FormattingBenchmark {
+
+    private static final String[] WORDS = ("the rain had stopped by time she reached harbour and lamps along quay "
+            + "were already lit stood for while at edge of water listening to boats knock against each other").split(" ");
+
+    private static int events = 0; // Counted on the EDT by the listeners added in run
+    private static int edits = 0;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        int size = 1_000_000;
+        int iterations = 5;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--size" -> size = Integer.parseInt(value);
+                case "--iterations" -> iterations = Integer.parseInt(value);
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        int finalSize = size;
+        int finalIterations = iterations;
+        SwingUtilities.invokeAndWait(() -> run(finalSize, finalIterations));
+        System.exit(0);
+    }
+
+    private static void run(int size, int iterations) {
+        PreferencesManager prefs = new PreferencesManager(); // Not loaded or saved
+        TextEditor editor = new TextEditor(new JLabel(), prefs);
+        editor.setText(buildHtml(size));
+        int length = editor.getDocument().getLength();
+        System.out.printf("Document: %d characters, %d words%n", length, editor.getDocumentStats().getWords());
+        editor.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                events++;
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                events++;
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                events++;
+            }
+        });
+        editor.getDocument().addUndoableEditListener(e -> edits++);
+        System.out.printf("%-16s %12s %14s %8s %8s%n", "action", "median ms", "KB/apply", "events", "edits");
+        measure(editor, "bold on/off", iterations, i -> editor.applyBoldToSelectionOrToggle());
+        measure(editor, "italic on/off", iterations, i -> editor.applyItalicToSelectionOrToggle());
+        measure(editor, "font family", iterations, i -> editor.setFontFamily(i % 2 == 0 ? "Serif" : "Georgia"));
+        measure(editor, "font size", iterations, i -> editor.setFontSize(i % 2 == 0 ? 14 : 12));
+        measure(editor, "alignment", iterations,
+                i -> editor.applyAlignment(i % 2 == 0 ? StyleConstants.ALIGN_CENTER : StyleConstants.ALIGN_LEFT));
+        measure(editor, "touch-up bold", iterations, i -> {
+            editor.select(100, 600);
+            editor.applyBoldToSelectionOrToggle();
+            editor.selectAll();
+            editor.applyBoldToSelectionOrToggle();
+        });
+        measure(editor, "touch-up font", iterations, i -> {
+            editor.select(100, 600);
+            editor.setFontFamily("Serif");
+            editor.selectAll();
+            editor.setFontFamily("Georgia");
+        });
+    }
+
+    private static void measure(TextEditor editor, String action, int iterations, IntConsumer apply) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().threadId();
+        editor.selectAll();
+        apply.accept(1); // Warm up
+        events = 0;
+        edits = 0;
+        long bytesBefore = threads.getThreadAllocatedBytes(thread);
+        long[] nanos = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            editor.selectAll();
+            long start = System.nanoTime();
+            apply.accept(i);
+            nanos[i] = System.nanoTime() - start;
+        }
+        long bytes = threads.getThreadAllocatedBytes(thread) - bytesBefore;
+        Arrays.sort(nanos);
+        System.out.printf("%-16s %12.1f %14d %8.1f %8.1f%n", action, nanos[iterations / 2] / 1e6,
+                bytes / 1024 / iterations, (double) events / iterations, (double) edits / iterations);
+    }
+
+    private static String buildHtml(int size) {
+        StringBuilder html = new StringBuilder("<html><body><p>");
+        int words = 0;
+        while (html.length() < size) {
+            String word = WORDS[words % WORDS.length];
+            html.append(words % 10 == 0 ? "<b>" + word + "</b>" : word).append(' ');
+            if (++words % 100 == 0) html.append(".</p><p>");
+        }
+        return html.append("</p></body></html>").toString();
+    }
+}
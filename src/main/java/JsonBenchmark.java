@@ -0,0 +1,187 @@
+import api.JsonReader;
+import api.JsonWriter;
+import okio.Buffer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Headless benchmark of the provider JSON code: writing a request with {@link JsonWriter} and
+ * reading a response with {@link JsonReader}, against the string concatenation and regex
+ * matching the providers used before.
+ * <p>
+ * The request carries a prompt of about {@code --size} KB; the response, in the shape of a chat
+ * completion, has {@code --candidates} choices of about that size together. Reports the median
+ * time per encode and per decode; a path that fails, as the regex does by overflowing the stack
+ * on long texts, is reported as such.
+ * <p>
+ * Options: {@code --size 400 --candidates 8 --iterations 20}.
+ */
+public class JsonBenchmark {
+
+    private static final String TEXT = "The rain had stopped by the time she reached the \"harbour\",\n"
+            + "and the lamps along the quay\\were already lit.\t";
+
+    private static final Pattern CHOICE_FIELD = Pattern.compile(
+            "\"index\":\\s*(\\d+)|\"content\":\\s*\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+    private interface Run {
+        /** Returns something derived from the result, so the work is not optimised away. */
+        int run() throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int sizeKb = 400;
+        int candidates = 8;
+        int iterations = 20;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--size" -> sizeKb = Integer.parseInt(value);
+                case "--candidates" -> candidates = Integer.parseInt(value);
+                case "--iterations" -> iterations = Integer.parseInt(value);
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        String prompt = text(sizeKb * 1024);
+        List<String> choices = new ArrayList<>();
+        for (int i = 0; i < candidates; i++) {
+            choices.add(i + ": " + text(sizeKb * 1024 / candidates));
+        }
+        String response = response(choices);
+        if (!readWithReader(response).equals(choices)) {
+            throw new IllegalStateException("JsonReader did not read back the written choices");
+        }
+        System.out.printf("Request: %d KB prompt, response: %d KB, %d choices%n",
+                prompt.length() / 1024, response.length() / 1024, candidates);
+        System.out.printf("%-16s %12s%n", "path", "median ms");
+        measure("encode concat", iterations, () -> encodeWithConcat(prompt).length());
+        measure("encode writer", iterations, () -> encodeWithWriter(prompt).length);
+        measure("decode regex", iterations, () -> readWithRegex(response).size());
+        measure("decode reader", iterations, () -> readWithReader(response).size());
+    }
+
+    private static void measure(String name, int iterations, Run run) throws IOException {
+        try {
+            run.run(); // Warm up
+        } catch (StackOverflowError e) {
+            System.out.printf("%-16s %12s%n", name, "stack overflow");
+            return;
+        }
+        double[] millis = new double[iterations];
+        int sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            sink += run.run();
+            millis[i] = (System.nanoTime() - start) / 1e6;
+        }
+        Arrays.sort(millis);
+        System.out.printf("%-16s %12.2f%s%n", name, millis[iterations / 2], sink == 0 ? " (empty)" : "");
+    }
+
+    /** The request body as it used to be built; only quotes, backslashes and newlines were escaped. */
+    private static String encodeWithConcat(String prompt) {
+        return "{"
+                + "\"model\": \"gpt-4o-mini\","
+                + "\"messages\": [ { \"role\": \"user\", \"content\": \""
+                + prompt.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\" } ],"
+                + "\"max_tokens\": 50,"
+                + "\"temperature\": 0.7,"
+                + "\"n\": 1,"
+                + "\"stream\": false"
+                + "}";
+    }
+
+    private static byte[] encodeWithWriter(String prompt) throws IOException {
+        Buffer buffer = new Buffer();
+        new JsonWriter(buffer).beginObject()
+                .name("model").value("gpt-4o-mini")
+                .name("messages").beginArray()
+                .beginObject().name("role").value("user").name("content").value(prompt).endObject()
+                .endArray()
+                .name("max_tokens").value(50)
+                .name("temperature").value(0.7)
+                .name("n").value(1)
+                .name("stream").value(false)
+                .endObject();
+        return buffer.readByteArray();
+    }
+
+    private static List<String> readWithRegex(String json) {
+        List<String> result = new ArrayList<>();
+        Matcher m = CHOICE_FIELD.matcher(json);
+        while (m.find()) {
+            if (m.group(2) != null) {
+                result.add(m.group(2));
+            }
+        }
+        return result;
+    }
+
+    private static List<String> readWithReader(String json) throws IOException {
+        List<String> result = new ArrayList<>();
+        JsonReader reader = new JsonReader(new Buffer().writeUtf8(json));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("choices")) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            while (reader.hasNext()) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (!reader.nextName().equals("message")) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (reader.nextName().equals("content")) {
+                            result.add(reader.nextString());
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                reader.endObject();
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+        return result;
+    }
+
+    private static String response(List<String> choices) throws IOException {
+        Buffer buffer = new Buffer();
+        JsonWriter writer = new JsonWriter(buffer).beginObject()
+                .name("id").value("chatcmpl-benchmark")
+                .name("object").value("chat.completion")
+                .name("choices").beginArray();
+        for (int i = 0; i < choices.size(); i++) {
+            writer.beginObject()
+                    .name("index").value(i)
+                    .name("message").beginObject()
+                    .name("role").value("assistant")
+                    .name("content").value(choices.get(i))
+                    .endObject()
+                    .name("finish_reason").value("length")
+                    .endObject();
+        }
+        writer.endArray().endObject();
+        return buffer.readUtf8();
+    }
+
+    private static String text(int length) {
+        StringBuilder text = new StringBuilder(length + TEXT.length());
+        while (text.length() < length) {
+            text.append(TEXT);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,135 @@
+import api.NGramModel;
+
+import javax.swing.text.MutableAttributeSet;
+import javax.swing.text.html.HTML;
+import javax.swing.text.html.HTMLEditorKit;
+import javax.swing.text.html.parser.ParserDelegator;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Feeds the user's documents into the offline {@link NGramModel}.
+ * <p>
+ * The documents in the default directory are indexed once in the background. When a
+ * document is saved, the text the model learned from its previous version is removed and the
+ * new text added, so the model follows the documents without a full rebuild. That text is kept
+ * per document as UTF-8 in a direct buffer, off the Java heap like the model's tables, so saving
+ * never has to read the old file back. All model updates run on one background thread; lookups
+ * can happen on any thread.
+ */
+public class OfflineCorpus {
+
+    private static final int MAX_DEPTH = 3;
+
+    private final NGramModel model = new NGramModel();
+    // The text each indexed document added to the model; updated on the background thread only
+    private final Map<Path, ByteBuffer> indexed = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "OfflineCorpus");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private boolean started = false;
+
+    public NGramModel getModel() {
+        return model;
+    }
+
+    /** Indexes the HTML documents under the directory in the background, once. */
+    public synchronized void indexDirectory(File directory) {
+        if (started) return;
+        started = true;
+        executor.submit(() -> {
+            try (Stream<Path> files = Files.walk(directory.toPath(), MAX_DEPTH)) {
+                files.filter(path -> path.toString().toLowerCase().endsWith(".html"))
+                        .forEach(this::indexFile);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Offline model: could not scan " + directory + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Updates the model after a save.
+     *
+     * @param html Content just written.
+     */
+    public void documentSaved(File file, String html) {
+        Path path = file.toPath().toAbsolutePath().normalize();
+        executor.submit(() -> {
+            String text = htmlToText(html);
+            ByteBuffer previous = indexed.put(path, offHeap(text));
+            if (previous != null) {
+                model.remove(StandardCharsets.UTF_8.decode(previous).toString());
+            }
+            model.add(text);
+        });
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void indexFile(Path file) {
+        Path path = file.toAbsolutePath().normalize();
+        if (indexed.containsKey(path)) return;
+        try {
+            String text = htmlToText(Files.readString(file, StandardCharsets.UTF_8));
+            model.add(text);
+            indexed.put(path, offHeap(text));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Offline model: skipped " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static ByteBuffer offHeap(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+    }
+
+    /** Extracts the visible text of an HTML document, one line per block. */
+    static String htmlToText(String html) {
+        StringBuilder text = new StringBuilder(html.length() / 2);
+        HTMLEditorKit.ParserCallback callback = new HTMLEditorKit.ParserCallback() {
+            private boolean inHead = false;
+
+            @Override
+            public void handleText(char[] data, int pos) {
+                if (!inHead) text.append(data).append(' ');
+            }
+
+            @Override
+            public void handleStartTag(HTML.Tag tag, MutableAttributeSet attributes, int pos) {
+                if (tag == HTML.Tag.HEAD) inHead = true;
+                if (tag.isBlock()) text.append('\n');
+            }
+
+            @Override
+            public void handleEndTag(HTML.Tag tag, int pos) {
+                if (tag == HTML.Tag.HEAD) inHead = false;
+            }
+
+            @Override
+            public void handleSimpleTag(HTML.Tag tag, MutableAttributeSet attributes, int pos) {
+                if (tag == HTML.Tag.BR) text.append('\n');
+            }
+        };
+        try {
+            new ParserDelegator().parse(new StringReader(html), callback, true);
+        } catch (IOException e) {
+            return "";
+        }
+        return text.toString();
+    }
+}
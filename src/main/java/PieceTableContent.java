@@ -0,0 +1,643 @@
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.UndoableEdit;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Document content kept as a piece table, for manuscripts too large for {@code GapContent}.
+ * <p>
+ * The text is a sequence of pieces, each a slice of a buffer that is never changed once
+ * written: typed and pasted text is appended to fixed-size chunks, large inserts get an array
+ * of their own, and a file's text can be a read-only mapping of the file. The pieces form a
+ * balanced tree (a treap keyed by position, each node storing the length of its subtree), so
+ * an insert or remove anywhere costs O(log n) and moves no text. Nodes are never modified
+ * either, only replaced along the edited path, which makes {@link #snapshot()} free: it keeps
+ * the current root, and reads from it see that text however the document changes later.
+ * <p>
+ * Positions follow the same rules as in {@code GapContent}: they move with inserts at or
+ * before them except at offset 0, collapse onto a removed range's start, and get their old
+ * offsets back when the remove is undone. They are kept in a sorted array split by a gap at
+ * the last edit; positions after the gap are stored relative to the end of the document, so
+ * an edit only touches the positions between it and the previous one.
+ */
+public class PieceTableContent implements AbstractDocument.Content {
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final int OWN_ARRAY_THRESHOLD = CHUNK_SIZE / 4; // Larger inserts are not copied into a chunk
+    private static final char[] EMPTY = new char[0];
+
+    /** A slice of a buffer, and the subtree of pieces below it. Immutable. */
+    private static final class Piece {
+        final char[] chars; // The buffer, or null for single-byte text in bytes
+        final ByteBuffer bytes;
+        final int start;
+        final int length;
+        final int priority;
+        final Piece left;
+        final Piece right;
+        final int size; // Characters in this subtree
+
+        Piece(char[] chars, ByteBuffer bytes, int start, int length, int priority, Piece left, Piece right) {
+            this.chars = chars;
+            this.bytes = bytes;
+            this.start = start;
+            this.length = length;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.size = size(left) + length + size(right);
+        }
+
+        Piece with(Piece left, Piece right) {
+            return left == this.left && right == this.right ? this
+                    : new Piece(chars, bytes, start, length, priority, left, right);
+        }
+
+        Piece slice(int from, int count, Piece left, Piece right) {
+            return new Piece(chars, bytes, start + from, count, priority, left, right);
+        }
+
+        char charAt(int index) {
+            return chars != null ? chars[start + index] : (char) (bytes.get(start + index) & 0xff);
+        }
+
+        void copy(int from, int count, char[] dest, int destPos) {
+            if (chars != null) {
+                System.arraycopy(chars, start + from, dest, destPos, count);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    dest[destPos + i] = (char) (bytes.get(start + from + i) & 0xff);
+                }
+            }
+        }
+    }
+
+    private final SplittableRandom random = new SplittableRandom();
+    private volatile Piece root;
+    private int length;
+
+    // The append-only buffer typed text goes to; pieces only refer to the part before used
+    private char[] chunk = new char[CHUNK_SIZE];
+    private int chunkUsed = 0;
+
+    /** Content holding only the newline every document ends with. */
+    public PieceTableContent() {
+        this(null);
+    }
+
+    private PieceTableContent(Piece original) {
+        root = append(original, "\n");
+        length = size(root);
+    }
+
+    /**
+     * Content holding the text of a file followed by the closing newline. Single-byte text (any
+     * ISO-8859-1 file, or UTF-8 and ASCII files without non-ASCII bytes) is mapped rather than
+     * read, so it takes no heap and is paged in by the operating system as it is read; other
+     * text is decoded into memory. Line breaks are normalized to {@code \n} as Swing expects,
+     * which also requires decoding if the file has carriage returns.
+     */
+    public static PieceTableContent mapped(Path file, Charset charset) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= Integer.MAX_VALUE) {
+                throw new IOException("File too large to map: " + file);
+            }
+            ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            boolean singleByte = charset.equals(StandardCharsets.ISO_8859_1)
+                    || charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII);
+            boolean latin1 = charset.equals(StandardCharsets.ISO_8859_1);
+            for (int i = 0; singleByte && i < size; i++) {
+                byte b = bytes.get(i);
+                singleByte = b != '\r' && (latin1 || b >= 0);
+            }
+            if (singleByte) {
+                return new PieceTableContent(size == 0 ? null : new Piece(null, bytes, 0, (int) size, 0, null, null));
+            }
+            char[] text = charset.decode(bytes).toString().replace("\r\n", "\n").replace('\r', '\n').toCharArray();
+            return new PieceTableContent(text.length == 0 ? null : new Piece(text, null, 0, text.length, 0, null, null));
+        }
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public UndoableEdit insertString(int where, String str) throws BadLocationException {
+        if (where < 0 || where > length) {
+            throw new BadLocationException("Invalid insert", length);
+        }
+        purgeMarks();
+        moveMarkGap(where == 0 ? 1 : where); // Positions at 0 stay there, all others at or after move
+        Piece[] parts = split(root, where);
+        root = merge(append(parts[0], str), parts[1]);
+        length += str.length();
+        return new InsertUndo(where, str.length());
+    }
+
+    @Override
+    public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+        if (where < 0 || nitems < 0 || where + nitems >= length) {
+            throw new BadLocationException("Invalid remove", length + 1);
+        }
+        RemoveUndo edit = new RemoveUndo(where, getString(where, nitems));
+        purgeMarks();
+        collapseMarks(where, nitems);
+        Piece[] head = split(root, where);
+        Piece[] tail = split(head[1], nitems);
+        root = merge(head[0], tail[1]);
+        length -= nitems;
+        return edit;
+    }
+
+    @Override
+    public String getString(int where, int len) throws BadLocationException {
+        checkRange(where, len);
+        char[] text = new char[len];
+        copy(root, where, len, text, 0);
+        return new String(text);
+    }
+
+    @Override
+    public void getChars(int where, int len, Segment txt) throws BadLocationException {
+        checkRange(where, len);
+        if (len == 0) {
+            txt.array = EMPTY;
+            txt.offset = 0;
+            txt.count = 0;
+            return;
+        }
+        Piece t = root;
+        int k = where;
+        if (txt.isPartialReturn()) {
+            // Hand out the piece's own buffer when the caller takes what is available
+            while (true) {
+                int leftSize = size(t.left);
+                if (k < leftSize) {
+                    t = t.left;
+                } else if (k < leftSize + t.length) {
+                    k -= leftSize;
+                    break;
+                } else {
+                    k -= leftSize + t.length;
+                    t = t.right;
+                }
+            }
+            int count = Math.min(len, t.length - k);
+            if (t.chars != null) {
+                txt.array = t.chars;
+                txt.offset = t.start + k;
+            } else {
+                txt.array = new char[count];
+                txt.offset = 0;
+                t.copy(k, count, txt.array, 0);
+            }
+            txt.count = count;
+            return;
+        }
+        char[] text = new char[len];
+        copy(t, where, len, text, 0);
+        txt.array = text;
+        txt.offset = 0;
+        txt.count = len;
+    }
+
+    private void checkRange(int where, int len) throws BadLocationException {
+        if (where < 0 || len < 0 || where + len > length) {
+            throw new BadLocationException("Invalid range", length);
+        }
+    }
+
+    /** Number of pieces the text is currently made of. */
+    public int pieceCount() {
+        return count(root);
+    }
+
+    /**
+     * The text as it is now, unaffected by later edits. Cheap to take and safe to read from any
+     * thread; sequential reads through {@link CharSequence#charAt} are amortized O(1).
+     */
+    public Snapshot snapshot() {
+        Piece current = root;
+        return new Snapshot(current, 0, size(current));
+    }
+
+    /** An immutable view of the text at one point in time. */
+    public static final class Snapshot implements CharSequence {
+        private final Piece root;
+        private final int offset;
+        private final int length;
+
+        /** The piece the last charAt found and its offset in the text; replaced, never changed. */
+        private record Cursor(Piece piece, int start) {
+        }
+
+        private volatile Cursor cursor;
+
+        private Snapshot(Piece root, int offset, int length) {
+            this.root = root;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            int at = offset + index;
+            Cursor c = cursor;
+            if (c == null || at < c.start || at >= c.start + c.piece.length) {
+                c = locate(at);
+                cursor = c;
+            }
+            return c.piece.charAt(at - c.start);
+        }
+
+        private Cursor locate(int at) {
+            Piece t = root;
+            int base = 0;
+            while (true) {
+                int leftSize = size(t.left);
+                if (at < base + leftSize) {
+                    t = t.left;
+                } else if (at < base + leftSize + t.length) {
+                    return new Cursor(t, base + leftSize);
+                } else {
+                    base += leftSize + t.length;
+                    t = t.right;
+                }
+            }
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException("[" + start + ", " + end + ") of " + length);
+            }
+            return new Snapshot(root, offset + start, end - start);
+        }
+
+        /** Copies characters [srcBegin, srcEnd) into {@code dst}, as {@link String#getChars} does. */
+        public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+            if (srcBegin < 0 || srcEnd > length || srcBegin > srcEnd) {
+                throw new IndexOutOfBoundsException("[" + srcBegin + ", " + srcEnd + ") of " + length);
+            }
+            copy(root, offset + srcBegin, srcEnd - srcBegin, dst, dstBegin);
+        }
+
+        @Override
+        public String toString() {
+            char[] text = new char[length];
+            copy(root, offset, length, text, 0);
+            return new String(text);
+        }
+    }
+
+    // --- Pieces ---
+
+    /**
+     * The tree followed by {@code str}. Typing usually continues at the end of the chunk the
+     * last piece ends in, and then that piece grows instead of a new one being added.
+     */
+    private Piece append(Piece before, String str) {
+        int n = str.length();
+        if (n == 0) return before;
+        if (n > OWN_ARRAY_THRESHOLD) {
+            return merge(before, newPiece(str.toCharArray(), 0, n));
+        }
+        if (chunkUsed + n > chunk.length) {
+            chunk = new char[CHUNK_SIZE];
+            chunkUsed = 0;
+        }
+        int start = chunkUsed;
+        str.getChars(0, n, chunk, start);
+        chunkUsed += n;
+        Piece grown = grow(before, start, n);
+        return grown != null ? grown : merge(before, newPiece(chunk, start, n));
+    }
+
+    private Piece newPiece(char[] chars, int start, int count) {
+        return new Piece(chars, null, start, count, random.nextInt(), null, null);
+    }
+
+    /** The tree with its last piece grown by {@code n}, or null if that piece does not end at {@code chunkStart}. */
+    private Piece grow(Piece t, int chunkStart, int n) {
+        if (t == null) return null;
+        if (t.right != null) {
+            Piece right = grow(t.right, chunkStart, n);
+            return right == null ? null : t.with(t.left, right);
+        }
+        if (t.chars != chunk || t.start + t.length != chunkStart) return null;
+        return new Piece(t.chars, null, t.start, t.length + n, t.priority, t.left, null);
+    }
+
+    /** Splits into the first {@code k} characters and the rest, copying only the nodes on the way. */
+    private static Piece[] split(Piece t, int k) {
+        if (t == null) return new Piece[]{null, null};
+        if (k <= 0) return new Piece[]{null, t};
+        if (k >= t.size) return new Piece[]{t, null};
+        int leftSize = size(t.left);
+        if (k <= leftSize) {
+            Piece[] parts = split(t.left, k);
+            return new Piece[]{parts[0], t.with(parts[1], t.right)};
+        }
+        if (k >= leftSize + t.length) {
+            Piece[] parts = split(t.right, k - leftSize - t.length);
+            return new Piece[]{t.with(t.left, parts[0]), parts[1]};
+        }
+        // The cut falls inside this piece: both halves keep its priority, which keeps each side a heap
+        int cut = k - leftSize;
+        return new Piece[]{t.slice(0, cut, t.left, null), t.slice(cut, t.length - cut, null, t.right)};
+    }
+
+    private static Piece merge(Piece a, Piece b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (a.priority >= b.priority) {
+            return a.with(a.left, merge(a.right, b));
+        }
+        return b.with(merge(a, b.left), b.right);
+    }
+
+    /** Copies {@code count} characters from {@code from} in the subtree into {@code dest}. */
+    private static void copy(Piece t, int from, int count, char[] dest, int destPos) {
+        while (t != null && count > 0) {
+            int leftSize = size(t.left);
+            if (from < leftSize) {
+                int n = Math.min(count, leftSize - from);
+                copy(t.left, from, n, dest, destPos);
+                destPos += n;
+                count -= n;
+                from = leftSize;
+                if (count == 0) return;
+            }
+            int inPiece = from - leftSize;
+            if (inPiece < t.length) {
+                int n = Math.min(count, t.length - inPiece);
+                t.copy(inPiece, n, dest, destPos);
+                destPos += n;
+                count -= n;
+                inPiece += n;
+            }
+            from = inPiece - t.length;
+            t = t.right;
+        }
+    }
+
+    private static int count(Piece t) {
+        return t == null ? 0 : 1 + count(t.left) + count(t.right);
+    }
+
+    private static int size(Piece t) {
+        return t == null ? 0 : t.size;
+    }
+
+    // --- Positions ---
+
+    /** Where a position is; dropped from the array once nothing holds the position. */
+    private final class Mark extends WeakReference<StickyPosition> {
+        int value; // The offset before the gap, offset - length - 1 (always negative) after it
+
+        Mark(StickyPosition position) {
+            super(position, reclaimed);
+        }
+
+        int offset() {
+            return value >= 0 ? value : value + length + 1;
+        }
+    }
+
+    private static final class StickyPosition implements Position {
+        Mark mark;
+
+        @Override
+        public int getOffset() {
+            return mark.offset();
+        }
+
+        @Override
+        public String toString() {
+            return Integer.toString(getOffset());
+        }
+    }
+
+    private record UndoPosRef(Mark mark, int offset) {
+    }
+
+    private final ReferenceQueue<StickyPosition> reclaimed = new ReferenceQueue<>();
+    private Mark[] marks = new Mark[16];
+    private int gapStart = 0; // Marks before the gap are [0, gapStart), after it [gapEnd, marks.length)
+    private int gapEnd = marks.length;
+    private int unusedMarks = 0;
+
+    @Override
+    public Position createPosition(int offset) throws BadLocationException {
+        if (offset < 0 || offset > length) {
+            throw new BadLocationException("Invalid position", offset);
+        }
+        purgeMarks();
+        moveMarkGap(offset);
+        if (gapEnd < marks.length && marks[gapEnd].offset() == offset) {
+            StickyPosition existing = marks[gapEnd].get();
+            if (existing != null) return existing; // Positions at one offset always move together
+        }
+        if (gapStart == gapEnd) {
+            growMarks();
+        }
+        StickyPosition position = new StickyPosition();
+        Mark mark = new Mark(position);
+        mark.value = offset - length - 1;
+        position.mark = mark;
+        marks[--gapEnd] = mark;
+        return position;
+    }
+
+    /** Moves the gap so that exactly the marks before {@code boundary} are in front of it. */
+    private void moveMarkGap(int boundary) {
+        while (gapStart > 0 && marks[gapStart - 1].value >= boundary) {
+            Mark mark = marks[--gapStart];
+            marks[gapStart] = null;
+            mark.value = mark.value - length - 1;
+            marks[--gapEnd] = mark;
+        }
+        while (gapEnd < marks.length && marks[gapEnd].offset() < boundary) {
+            Mark mark = marks[gapEnd];
+            marks[gapEnd++] = null;
+            mark.value = mark.offset();
+            marks[gapStart++] = mark;
+        }
+    }
+
+    /** Moves the marks in [where, where + n] to where, before the text between them is removed. */
+    private void collapseMarks(int where, int n) {
+        moveMarkGap(where + n + 1);
+        for (int i = gapStart - 1; i >= 0 && marks[i].value > where; i--) {
+            marks[i].value = where;
+        }
+    }
+
+    /** The live marks in [where, where + n] and their offsets, to put back when a remove is undone. */
+    private UndoPosRef[] positionsInRange(int where, int n) {
+        moveMarkGap(where + n + 1);
+        List<UndoPosRef> refs = new ArrayList<>();
+        for (int i = gapStart - 1; i >= 0 && marks[i].value >= where; i--) {
+            if (!marks[i].refersTo(null)) {
+                refs.add(new UndoPosRef(marks[i], marks[i].value));
+            }
+        }
+        return refs.toArray(new UndoPosRef[0]);
+    }
+
+    /** Puts marks back where they were before [where, where + n] was removed, once the text is back. */
+    private void restorePositions(UndoPosRef[] refs, int where, int n) {
+        moveMarkGap(where + n + 1);
+        int first = gapStart;
+        while (first > 0 && marks[first - 1].value >= where) {
+            first--;
+        }
+        for (UndoPosRef ref : refs) {
+            ref.mark.value = ref.offset;
+        }
+        Arrays.sort(marks, first, gapStart, Comparator.comparingInt(mark -> mark.value));
+    }
+
+    private void growMarks() {
+        Mark[] grown = new Mark[marks.length * 2];
+        int after = marks.length - gapEnd;
+        System.arraycopy(marks, 0, grown, 0, gapStart);
+        System.arraycopy(marks, gapEnd, grown, grown.length - after, after);
+        marks = grown;
+        gapEnd = grown.length - after;
+    }
+
+    /** Drops the marks of collected positions once there are enough of them to be worth a pass. */
+    private void purgeMarks() {
+        while (reclaimed.poll() != null) {
+            unusedMarks++;
+        }
+        int markCount = gapStart + marks.length - gapEnd;
+        if (unusedMarks <= Math.max(16, markCount / 8)) return;
+        int kept = 0;
+        for (int i = 0; i < gapStart; i++) {
+            if (!marks[i].refersTo(null)) marks[kept++] = marks[i];
+        }
+        Arrays.fill(marks, kept, gapStart, null);
+        gapStart = kept;
+        kept = marks.length;
+        for (int i = marks.length - 1; i >= gapEnd; i--) {
+            if (!marks[i].refersTo(null)) marks[--kept] = marks[i];
+        }
+        Arrays.fill(marks, gapEnd, kept, null);
+        gapEnd = kept;
+        unusedMarks = 0;
+    }
+
+    /** Number of positions currently tracked, including ones not yet purged. */
+    public int positionCount() {
+        return gapStart + marks.length - gapEnd;
+    }
+
+    // --- Undo ---
+
+    private final class InsertUndo extends AbstractUndoableEdit {
+        private final int offset;
+        private final int length;
+        private String string; // The inserted text while undone
+        private UndoPosRef[] positions;
+
+        InsertUndo(int offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            try {
+                positions = positionsInRange(offset, length);
+                string = getString(offset, length);
+                remove(offset, length);
+            } catch (BadLocationException ex) {
+                throw new CannotUndoException();
+            }
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            try {
+                insertString(offset, string);
+                string = null;
+                restorePositions(positions, offset, length);
+                positions = null;
+            } catch (BadLocationException ex) {
+                throw new CannotRedoException();
+            }
+        }
+    }
+
+    private final class RemoveUndo extends AbstractUndoableEdit {
+        private final int offset;
+        private final int length;
+        private String string; // The removed text while the remove is in effect
+        private UndoPosRef[] positions;
+
+        RemoveUndo(int offset, String string) {
+            this.offset = offset;
+            this.length = string.length();
+            this.string = string;
+            this.positions = positionsInRange(offset, length);
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            try {
+                insertString(offset, string);
+                restorePositions(positions, offset, length);
+                positions = null;
+                string = null;
+            } catch (BadLocationException ex) {
+                throw new CannotUndoException();
+            }
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            try {
+                string = getString(offset, length);
+                positions = positionsInRange(offset, length);
+                remove(offset, length);
+            } catch (BadLocationException ex) {
+                throw new CannotRedoException();
+            }
+        }
+    }
+}
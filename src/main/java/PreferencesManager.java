@@ -1,5 +1,7 @@
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -13,6 +15,7 @@ public class PreferencesManager {
     private static final String PROPS_FILE_NAME = "syngrafi_props.properties";
     private Properties properties = new Properties();
     private Path propsFilePath;
+    private Path prefsDir;
 
     private static final String SECURE_PROPS_FILE_NAME = "syngrafi_secure.properties";
     private static final String KEY_FILE_NAME = "syngrafi.key";
@@ -20,6 +23,7 @@ public class PreferencesManager {
     private Path securePropsFilePath;
     private Path keyFilePath;
     private ApiKeyEncryptor encryptor;
+    private final List<Consumer<String>> changeListeners = new CopyOnWriteArrayList<>();
 
     private static final String API_KEY = "apiKey";
     private static final String API_PROVIDER = "apiProvider";
@@ -37,7 +41,7 @@ public class PreferencesManager {
         prefsNode = Preferences.userRoot().node(PREFS_NODE_PATH);
 
         String userHome = System.getProperty("user.home");
-        Path prefsDir = Paths.get(userHome, ".syngrafi");
+        prefsDir = Paths.get(userHome, ".syngrafi");
         try {
             Files.createDirectories(prefsDir);
         } catch (IOException e) {
@@ -70,8 +74,26 @@ public class PreferencesManager {
         properties.putIfAbsent("theme", "System");
         properties.putIfAbsent("generalStylePrompt", "");
         properties.putIfAbsent("autocompleteMaxLength", "200");
+        properties.putIfAbsent("contextTokenBudget", "1500");
+        properties.putIfAbsent("cacheMaxEntries", "500");
+        properties.putIfAbsent("cacheMaxDiskMB", "16");
+        properties.putIfAbsent("cacheTtlHours", "24");
+        properties.putIfAbsent("rateLimitRequestsPerMinute", "60");
+        properties.putIfAbsent("rateLimitTokensPerMinute", "90000");
+        properties.putIfAbsent("maxInFlightRequests", "4");
+        properties.putIfAbsent("requestDeadlineSeconds", "15");
         properties.putIfAbsent("recentFiles", "");
         properties.putIfAbsent("defaultPath", System.getProperty("user.dir"));
+        properties.putIfAbsent("connectionPoolSize", "5");
+        properties.putIfAbsent("connectionKeepAliveSeconds", "300");
+        properties.putIfAbsent("offlineSuggestions", "true");
+        properties.putIfAbsent("tokenBudgetSession", "0");
+        properties.putIfAbsent("tokenBudgetDaily", "0");
+        properties.putIfAbsent("speculativePrefetch", "true");
+        properties.putIfAbsent("adaptiveSuggestions", "true");
+        properties.putIfAbsent("edtStallThresholdMillis", "500");
+        properties.putIfAbsent("pieceTableContent", "true");
+        properties.putIfAbsent("printStatsOnExit", "false");
 
         if (Files.exists(securePropsFilePath)) {
             try (FileInputStream fis = new FileInputStream(securePropsFilePath.toFile())) {
@@ -81,6 +103,7 @@ public class PreferencesManager {
                 secureProperties.clear();
             }
         }
+        firePreferenceChanged(null);
     }
 
     public void savePreferences() {
@@ -124,6 +147,21 @@ public class PreferencesManager {
         } else {
             properties.setProperty(key, value);
         }
+        firePreferenceChanged(key);
+    }
+
+    /**
+     * Registers a listener called with the key of every changed preference, or with null
+     * when all of them may have changed (after loading). Called on the thread making the change.
+     */
+    public void addChangeListener(Consumer<String> listener) {
+        changeListeners.add(listener);
+    }
+
+    private void firePreferenceChanged(String key) {
+        for (Consumer<String> listener : changeListeners) {
+            listener.accept(key);
+        }
     }
 
     public List<String> getRecentFiles() {
@@ -140,6 +178,11 @@ public class PreferencesManager {
         setPreference("recentFiles", String.join(";", recent));
     }
 
+    /** The ~/.syngrafi directory holding preferences and local caches. */
+    public Path getPreferencesDirectory() {
+        return prefsDir;
+    }
+
     public String getDefaultPath() {
         return getPreference("defaultPath", System.getProperty("user.dir"));
     }
@@ -150,6 +193,7 @@ public class PreferencesManager {
 
     public void setAIReferences(String references) {
         prefsNode.put(AI_REFERENCES, references);
+        firePreferenceChanged(AI_REFERENCES);
     }
 
     public String getApiProvider() {
@@ -0,0 +1,210 @@
+import java.util.Random;
+
+/**
+ * Who wrote each character of the document: a sequence of runs, each AI- or human-authored,
+ * that follows the document's inserts and removes.
+ * <p>
+ * The runs are the nodes of an implicit treap ordered by position, where every node stores the
+ * total and AI-authored length of its subtree. Locating an offset, inserting a run and cutting a
+ * range out all take O(log n) expected time, and the totals are read off the root. Text typed
+ * into a run of the same author extends that run instead of adding a node.
+ * <p>
+ * {@link #encode()} writes the runs compactly, e.g. {@code h120a45h300}, for storing with the
+ * document. Used on the EDT only.
+ */
+public class ProvenanceMap {
+
+    private static final class Run {
+        int length;
+        final boolean ai;
+        final int priority;
+        Run left;
+        Run right;
+        int size; // Characters in this subtree
+        int aiSize; // AI-authored characters in this subtree
+
+        Run(int length, boolean ai, int priority) {
+            this.length = length;
+            this.ai = ai;
+            this.priority = priority;
+            update();
+        }
+
+        void update() {
+            size = size(left) + length + size(right);
+            aiSize = aiSize(left) + (ai ? length : 0) + aiSize(right);
+        }
+    }
+
+    private final Random random = new Random();
+    private Run root;
+    private int runs = 0;
+
+    /** Marks {@code length} characters inserted at {@code offset} as written by AI or by the user. */
+    public void insert(int offset, int length, boolean ai) {
+        if (length <= 0) return;
+        offset = Math.max(0, Math.min(offset, size(root)));
+        if (extend(root, offset, length, ai)) return;
+        Run[] parts = split(root, offset);
+        runs++;
+        root = merge(merge(parts[0], new Run(length, ai, random.nextInt())), parts[1]);
+    }
+
+    /** Forgets {@code length} characters removed at {@code offset}. */
+    public void remove(int offset, int length) {
+        if (length <= 0) return;
+        Run[] head = split(root, offset);
+        Run[] tail = split(head[1], length);
+        runs -= count(tail[0]);
+        root = merge(head[0], tail[1]);
+    }
+
+    public void clear() {
+        root = null;
+        runs = 0;
+    }
+
+    public int length() {
+        return size(root);
+    }
+
+    public int aiChars() {
+        return aiSize(root);
+    }
+
+    public int humanChars() {
+        return size(root) - aiSize(root);
+    }
+
+    public int runCount() {
+        return runs;
+    }
+
+    /** The runs in document order, adjacent runs of the same author joined. */
+    public String encode() {
+        StringBuilder out = new StringBuilder();
+        boolean[] lastAi = new boolean[1];
+        int[] pending = new int[1];
+        forEach(root, (length, ai) -> {
+            if (pending[0] > 0 && ai != lastAi[0]) {
+                out.append(lastAi[0] ? 'a' : 'h').append(pending[0]);
+                pending[0] = 0;
+            }
+            lastAi[0] = ai;
+            pending[0] += length;
+        });
+        if (pending[0] > 0) {
+            out.append(lastAi[0] ? 'a' : 'h').append(pending[0]);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Replaces the runs with encoded ones, fitted to a document of {@code documentLength}:
+     * missing characters count as human, surplus runs are cut off at the end.
+     *
+     * @throws IllegalArgumentException if the encoding is malformed; the map is left unchanged.
+     */
+    public void decode(String encoded, int documentLength) {
+        Run decoded = null;
+        int decodedRuns = 0;
+        int total = 0;
+        int i = 0;
+        while (i < encoded.length() && total < documentLength) {
+            char author = encoded.charAt(i++);
+            int start = i;
+            while (i < encoded.length() && Character.isDigit(encoded.charAt(i))) i++;
+            if ((author != 'a' && author != 'h') || start == i) {
+                throw new IllegalArgumentException("Malformed provenance at " + start + ": " + encoded);
+            }
+            int length = Math.min(Integer.parseInt(encoded.substring(start, i)), documentLength - total);
+            decoded = merge(decoded, new Run(length, author == 'a', random.nextInt()));
+            decodedRuns++;
+            total += length;
+        }
+        root = decoded;
+        runs = decodedRuns;
+        insert(total, documentLength - total, false);
+    }
+
+    /** Appends to the run touching {@code offset} if it has the same author; false if there is none. */
+    private static boolean extend(Run t, int offset, int length, boolean ai) {
+        if (t == null) return false;
+        int leftSize = size(t.left);
+        boolean extended;
+        if (t.left != null && offset <= leftSize) {
+            extended = extend(t.left, offset, length, ai);
+        } else if (offset <= leftSize + t.length) {
+            extended = t.ai == ai;
+            if (extended) t.length += length;
+        } else {
+            extended = extend(t.right, offset - leftSize - t.length, length, ai);
+        }
+        if (extended) t.update();
+        return extended;
+    }
+
+    /** Splits into the first {@code k} characters and the rest, cutting a run if needed. */
+    private Run[] split(Run t, int k) {
+        if (t == null) return new Run[]{null, null};
+        int leftSize = size(t.left);
+        if (k <= leftSize) {
+            Run[] parts = split(t.left, k);
+            t.left = parts[1];
+            t.update();
+            return new Run[]{parts[0], t};
+        }
+        if (k >= leftSize + t.length) {
+            Run[] parts = split(t.right, k - leftSize - t.length);
+            t.right = parts[0];
+            t.update();
+            return new Run[]{t, parts[1]};
+        }
+        // The cut falls inside this run: its tail becomes a new node above the right subtree
+        int cut = k - leftSize;
+        Run tail = new Run(t.length - cut, t.ai, t.priority);
+        tail.right = t.right;
+        tail.update();
+        t.length = cut;
+        t.right = null;
+        t.update();
+        runs++;
+        return new Run[]{t, tail};
+    }
+
+    private static Run merge(Run a, Run b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (a.priority >= b.priority) {
+            a.right = merge(a.right, b);
+            a.update();
+            return a;
+        }
+        b.left = merge(a, b.left);
+        b.update();
+        return b;
+    }
+
+    private interface RunVisitor {
+        void visit(int length, boolean ai);
+    }
+
+    private static void forEach(Run t, RunVisitor visitor) {
+        if (t == null) return;
+        forEach(t.left, visitor);
+        visitor.visit(t.length, t.ai);
+        forEach(t.right, visitor);
+    }
+
+    private static int count(Run t) {
+        return t == null ? 0 : 1 + count(t.left) + count(t.right);
+    }
+
+    private static int size(Run t) {
+        return t == null ? 0 : t.size;
+    }
+
+    private static int aiSize(Run t) {
+        return t == null ? 0 : t.aiSize;
+    }
+}
@@ -1,10 +1,9 @@
 import api.APIProvider;
-import java.util.ArrayList;
+import api.TokenBudget;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 /**
  * Handles the logic for rewriting selected text using an API provider,
@@ -14,10 +13,15 @@ public class RewriteManager {
 
     private final APIProvider apiProvider;
     private final PreferencesManager prefs;
+    private final TokenBudget tokenBudget;
 
-    public RewriteManager(APIProvider apiProvider, PreferencesManager prefs) {
+    /**
+     * @param tokenBudget Budget deciding when the references are left out, or null for none.
+     */
+    public RewriteManager(APIProvider apiProvider, PreferencesManager prefs, TokenBudget tokenBudget) {
         this.apiProvider = apiProvider;
         this.prefs = prefs;
+        this.tokenBudget = tokenBudget;
     }
 
     /**
@@ -51,45 +55,29 @@ public class RewriteManager {
         if (!stylePrompt.trim().isEmpty()) {
             basePromptBuilder.append("Apply the following style, but prioritize the previous instruction: ").append(stylePrompt).append("\n\n---\n");
         }
-        if (!references.trim().isEmpty()) {
+        // References are the first thing shed when the token budget runs low
+        boolean shedReferences = tokenBudget != null && tokenBudget.isNearLimit();
+        if (!references.trim().isEmpty() && !shedReferences) {
             basePromptBuilder.append("Use the following reference examples:\n").append(references).append("\n\n---\n");
         }
         basePromptBuilder.append("Do not provide multiple options and do not use unicode characters. The text will be inserted directly into the file. Rewrite the following text:\n\n").append(selectedText);
         
         String basePrompt = basePromptBuilder.toString(); // Base prompt without variation info
 
-        // Create a list of CompletableFuture for each suggestion
-        List<CompletableFuture<String>> suggestionFutures = IntStream.range(0, numSuggestions)
-            .mapToObj(i -> CompletableFuture.supplyAsync(() -> {
-                try {
-                    // Add variation info if needed by API, or just call multiple times
-                    // String promptToSend = basePrompt + "\n(Variation: " + (i + 1) + ")"; 
-                    String promptToSend = basePrompt; // Assuming multiple calls are sufficient
-                    return apiProvider.generateCompletion(promptToSend);
-                } catch (Exception ex) {
-                    System.err.println("Error during API call for rewrite suggestion " + (i+1) + ": " + ex.getMessage());
-                    // Return null or a specific error marker for this suggestion
-                    return null; 
-                }
-            }))
-            .collect(Collectors.toList());
-
-        // Combine all futures: Wait for all to complete
-        return CompletableFuture.allOf(suggestionFutures.toArray(new CompletableFuture[0]))
-            .thenApply(v -> suggestionFutures.stream()
-                .map(future -> {
-                    try {
-                        return future.join(); // Get result from completed future
-                    } catch (Exception e) {
-                        return null; // Handle potential exceptions during join
-                    }
-                })
-                .filter(result -> result != null && !result.trim().isEmpty()) // Filter out nulls/empty results
+        // One request returns all suggestions when the provider supports multiple candidates.
+        // Cancelling the returned future aborts the in-flight request.
+        CompletableFuture<List<String>> request = apiProvider.requestCompletions(basePrompt, numSuggestions);
+        CompletableFuture<List<String>> result = request
+            .thenApply(results -> results.stream()
+                .filter(r -> r != null && !r.trim().isEmpty()) // Filter out nulls/empty results
                 .collect(Collectors.toList()))
             .exceptionally(ex -> {
-                 // Handle exceptions during the combination/collection phase
-                 System.err.println("Error combining rewrite suggestion futures: " + ex.getMessage());
+                 System.err.println("Error during API call for rewrite suggestions: " + ex.getMessage());
                  return Collections.singletonList("ERROR: Failed to generate rewrite suggestions.");
             });
+        result.whenComplete((r, ex) -> {
+            if (result.isCancelled()) request.cancel(true);
+        });
+        return result;
     }
 } 
\ No newline at end of file
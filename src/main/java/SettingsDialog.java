@@ -25,6 +25,7 @@ public class SettingsDialog extends JDialog {
     // AI Settings tab components
     private JTextArea generalStylePromptArea;
     private JTextField maxLengthField;
+    private JTextField contextTokenBudgetField;
     private JTextArea aiReferencesArea;
     private String initialThemeValue;
 
@@ -110,7 +111,7 @@ public class SettingsDialog extends JDialog {
         gbc.gridx = 0; gbc.gridy++; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0.0;
         panel.add(new JLabel("API Provider:"), gbc);
         gbc.gridx++; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
-        providerComboBox = new JComboBox<>(new String[]{"OpenAI", "Google Gemini"});
+        providerComboBox = new JComboBox<>(new String[]{"OpenAI", "Google Gemini", "Offline"});
         providerComboBox.addActionListener(e -> updateModelComboBox());
         panel.add(providerComboBox, gbc);
 
@@ -163,6 +164,10 @@ public class SettingsDialog extends JDialog {
             }
         });
         topSettingsPanel.add(numAutocompleteSuggestionsField);
+        topSettingsPanel.add(Box.createHorizontalStrut(20)); // Spacer
+        topSettingsPanel.add(new JLabel("Context Budget (tokens):"));
+        contextTokenBudgetField = new JTextField(6);
+        topSettingsPanel.add(contextTokenBudgetField);
         containerPanel.add(topSettingsPanel, BorderLayout.NORTH);
 
         // Panel for the dynamic prompts list
@@ -182,6 +187,8 @@ public class SettingsDialog extends JDialog {
             modelComboBox.addItem("gpt-4.1");
             modelComboBox.addItem("gpt-4.1-mini");
             modelComboBox.addItem("gpt-4.1-nano");
+        } else if ("Offline".equals(provider)) {
+            modelComboBox.addItem("n-gram"); // Learned from the documents in the default path
         } else {
             modelComboBox.addItem("gemini-2.0-flash-lite");
             modelComboBox.addItem("gemini-2.0-flash");
@@ -204,6 +211,7 @@ public class SettingsDialog extends JDialog {
 
         autocompleteDelayField.setText(preferencesManager.getPreference("autocompleteDelay", "1000"));
         numAutocompleteSuggestionsField.setText(preferencesManager.getPreference("numSuggestions", "3"));
+        contextTokenBudgetField.setText(preferencesManager.getPreference("contextTokenBudget", "1500"));
         refreshAutocompletePrompts();
 
         generalStylePromptArea.setText(preferencesManager.getPreference("generalStylePrompt", ""));
@@ -298,6 +306,9 @@ public class SettingsDialog extends JDialog {
         int maxLengthVal = 200;
         try { maxLengthVal = Integer.parseInt(maxLengthField.getText().trim()); if (maxLengthVal < 10) maxLengthVal = 10; if (maxLengthVal > 1000) maxLengthVal = 1000; } catch (NumberFormatException ex) { maxLengthVal = 200; }
         preferencesManager.setPreference("autocompleteMaxLength", String.valueOf(maxLengthVal));
+        int contextTokens = 1500;
+        try { contextTokens = Integer.parseInt(contextTokenBudgetField.getText().trim()); if (contextTokens < 128) contextTokens = 128; if (contextTokens > 32000) contextTokens = 32000; } catch (NumberFormatException ex) { contextTokens = 1500; }
+        preferencesManager.setPreference("contextTokenBudget", String.valueOf(contextTokens));
         preferencesManager.setAIReferences(aiReferencesArea.getText().trim());
 
         int numRewriteSuggest = 2;
@@ -5,6 +5,7 @@ import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeCellRenderer;
 import javax.swing.tree.TreePath;
 import java.awt.*;
+import java.awt.datatransfer.StringSelection;
 import java.awt.event.*;
 import java.io.File;
 import java.util.ArrayList;
@@ -14,11 +15,12 @@ import javax.swing.text.html.HTML;
 
 
 /**
- * A panel that offers four sidebar modes:
+ * A panel that offers five sidebar modes:
  * 1) File tree
  * 2) Version explorer
  * 3) Usage pie chart of AI vs Human
  * 4) Section explorer for headings
+ * 5) Performance breakdown of autocomplete latency
  */
 public class SidebarPanel extends JPanel {
 
@@ -31,6 +33,7 @@ public class SidebarPanel extends JPanel {
     private JPanel versionPanel;
     private UsagePiePanel usagePanel;
     private SectionExplorer sectionExplorer;
+    private PerformancePanel performancePanel;
 
     // Callback to main editor?
     private Syngrafi parentFrame;
@@ -46,7 +49,7 @@ public class SidebarPanel extends JPanel {
         super(new BorderLayout());
         this.parentFrame = parentFrame;
         modeCombo = new JComboBox<>(new String[]{
-                "File Tree", "Version Explorer", "Usage Chart", "Section Explorer"
+                "File Tree", "Version Explorer", "Usage Chart", "Section Explorer", "Performance"
         });
         modeCombo.addActionListener(e -> switchMode());
         add(modeCombo, BorderLayout.NORTH);
@@ -59,11 +62,13 @@ public class SidebarPanel extends JPanel {
         versionPanel = createVersionPanel();
         usagePanel = new UsagePiePanel(parentFrame);
         sectionExplorer = new SectionExplorer(parentFrame);
+        performancePanel = new PerformancePanel(parentFrame);
 
         cardContainer.add(fileTreePanel, "File Tree");
         cardContainer.add(versionPanel, "Version Explorer");
         cardContainer.add(usagePanel, "Usage Chart");
         cardContainer.add(sectionExplorer, "Section Explorer");
+        cardContainer.add(performancePanel, "Performance");
 
         add(cardContainer, BorderLayout.CENTER);
 
@@ -113,6 +118,9 @@ public class SidebarPanel extends JPanel {
         if ("File Tree".equals(mode)) {
             refreshFileTree();
         }
+        if ("Performance".equals(mode)) {
+            performancePanel.refresh();
+        }
     }
 
     /**
@@ -390,6 +398,57 @@ public class SidebarPanel extends JPanel {
         }
     }
 
+    /**
+     * A panel that shows p50/p95/p99 of every autocomplete stage and provider model,
+     * with buttons to reset the histograms and copy the report.
+     */
+    private static class PerformancePanel extends JPanel {
+        private Syngrafi parentFrame;
+        private JTextArea reportArea;
+
+        public PerformancePanel(Syngrafi parentFrame) {
+            super(new BorderLayout());
+            this.parentFrame = parentFrame;
+            reportArea = new JTextArea();
+            reportArea.setEditable(false);
+            reportArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+
+            JButton resetButton = new JButton("Reset");
+            resetButton.addActionListener(e -> {
+                AutocompleteLatency latency = getLatency();
+                if (latency != null) latency.reset();
+                refresh();
+            });
+            JButton copyButton = new JButton("Copy Report");
+            copyButton.addActionListener(e -> {
+                refresh();
+                Toolkit.getDefaultToolkit().getSystemClipboard()
+                        .setContents(new StringSelection(reportArea.getText()), null);
+            });
+            JPanel buttons = new JPanel(new FlowLayout(FlowLayout.CENTER));
+            buttons.add(resetButton);
+            buttons.add(copyButton);
+
+            add(new JLabel("Autocomplete Latency"), BorderLayout.NORTH);
+            add(new JScrollPane(reportArea), BorderLayout.CENTER);
+            add(buttons, BorderLayout.SOUTH);
+        }
+
+        private AutocompleteLatency getLatency() {
+            TextEditor editor = parentFrame.getTextEditor();
+            return editor != null ? editor.getAutocompleteLatency() : null;
+        }
+
+        public void refresh() {
+            AutocompleteLatency latency = getLatency();
+            String report = latency != null ? latency.report() : "No editor";
+            if (!report.equals(reportArea.getText())) {
+                reportArea.setText(report);
+                reportArea.setCaretPosition(0);
+            }
+        }
+    }
+
     private void setupUpdateTimer() {
         updateTimer = new Timer(2000, e -> updateStats()); // Update every 2 seconds
         updateTimer.setInitialDelay(500); // Initial update after 0.5s
@@ -405,6 +464,9 @@ public class SidebarPanel extends JPanel {
 
     // Call this method to update the stats display
     public void updateStats() {
+        if (performancePanel.isShowing()) {
+            performancePanel.refresh();
+        }
         TextEditor editor = parentFrame.getTextEditor();
         if (editor != null) {
             // Call editor's methods to get current stats
@@ -0,0 +1,98 @@
+import api.APIProvider;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts the next autocomplete request early, at moments when the user is likely to pause:
+ * after finishing a sentence and after accepting a suggestion.
+ * <p>
+ * The result waits in a single slot stamped with the document revision, caret and number of
+ * suggestions. When the debounced round starts with the same stamp, it takes the slot and
+ * shows its suggestions straight away, even if the request is still running. An edit before
+ * that, or a slot older than its time to live, discards the slot and aborts its request.
+ * Requests go through a provider view with the lowest priority, so they never hold up
+ * regular suggestions. The hit rate shows whether they are worth what they cost. Used on the
+ * EDT only.
+ */
+public class SpeculativePrefetcher {
+
+    private static final long TTL_NANOS = TimeUnit.SECONDS.toNanos(15);
+
+    private record Slot(long revision, int caret, int n, CompletableFuture<List<String>> results, long createdNanos) {
+    }
+
+    private final APIProvider provider;
+    private Slot slot;
+    private long issued = 0;
+    private long hits = 0;
+    private long discarded = 0;
+
+    /**
+     * @param provider Provider view used for speculative requests, at the lowest priority.
+     */
+    public SpeculativePrefetcher(APIProvider provider) {
+        this.provider = provider;
+    }
+
+    /** Starts a speculative request for the given document state, replacing any earlier one. */
+    public void prefetch(long revision, int caret, int n, String prompt) {
+        if (slot != null && slot.revision == revision && slot.caret == caret && slot.n == n) {
+            return; // Already fetching for this state
+        }
+        discard();
+        issued++;
+        slot = new Slot(revision, caret, n, provider.requestCompletions(prompt, n), System.nanoTime());
+    }
+
+    /**
+     * Hands over the slot if it was fetched for exactly this state.
+     *
+     * @return The suggestions, possibly still in flight, or null if there is no matching slot.
+     */
+    public CompletableFuture<List<String>> take(long revision, int caret, int n) {
+        if (slot == null) return null;
+        if (slot.revision != revision || slot.caret != caret || slot.n != n
+                || System.nanoTime() - slot.createdNanos > TTL_NANOS) {
+            discard();
+            return null;
+        }
+        CompletableFuture<List<String>> results = slot.results;
+        slot = null;
+        hits++;
+        return results;
+    }
+
+    /** Drops a slot made stale by an edit; the document is now at {@code revision}. */
+    public void documentChanged(long revision) {
+        if (slot != null && slot.revision != revision) {
+            discard();
+        }
+    }
+
+    private void discard() {
+        if (slot == null) return;
+        slot.results.cancel(true); // Aborts the request if it is still running
+        slot = null;
+        discarded++;
+    }
+
+    /**
+     * Snapshot of the prefetch counters.
+     */
+    public record Stats(long issued, long hits, long discarded) {
+        public double hitRate() {
+            return issued == 0 ? 0 : (double) hits / issued;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("issued=%d hits=%d discarded=%d hitRate=%.0f%%", issued, hits, discarded, hitRate() * 100);
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(issued, hits, discarded);
+    }
+}
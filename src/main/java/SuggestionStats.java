@@ -0,0 +1,171 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Acceptance statistics per autocomplete variant, used to request only the variants that
+ * are likely to be picked.
+ * <p>
+ * Every round that showed suggestions ends in one outcome: a variant was accepted, the popup
+ * was dismissed, or the user typed on and ignored it. Each variant's acceptance probability
+ * is estimated with a Beta(1, 3) prior, so new variants start at 25% and are dropped once
+ * evidence shows they are rarely chosen. A small share of rounds still request every variant
+ * to keep the estimates current. The counts are kept in a file so they carry across sessions.
+ * Thread-safe.
+ */
+public class SuggestionStats {
+
+    private static final int MAX_VARIANTS = 10;
+    /** Variants below this estimated acceptance probability are not requested. */
+    private static final double MIN_ACCEPTANCE = 0.05;
+    /** Share of rounds that request every variant regardless of its estimate. */
+    private static final double EXPLORATION_RATE = 0.1;
+
+    private final Path file;
+    private final Random random = new Random();
+    private final long[] shown = new long[MAX_VARIANTS + 1]; // Indexed by variant, 1-based
+    private final long[] accepted = new long[MAX_VARIANTS + 1];
+    private long dismissed = 0;
+    private long ignored = 0;
+    private long variantsRequested = 0;
+    private long variantsConfigured = 0;
+    private long version = 0; // Bumped on every outcome, so saves never go backwards
+    private final Object saveLock = new Object();
+    private long savedVersion = 0; // Guarded by saveLock
+
+    /**
+     * @param file Where the counts are kept, or null to keep them in memory only.
+     */
+    public SuggestionStats(Path file) {
+        this.file = file;
+        load();
+    }
+
+    /**
+     * Chooses the variants to request in a round, in ascending order. The most likely variant
+     * is always included.
+     *
+     * @param max     The configured number of suggestions.
+     * @param explore Whether this round may be an exploration round requesting all of them.
+     */
+    public synchronized int[] selectVariants(int max, boolean explore) {
+        max = Math.max(1, Math.min(MAX_VARIANTS, max));
+        List<Integer> selected = new ArrayList<>();
+        int best = 1;
+        for (int v = 1; v <= max; v++) {
+            if (acceptance(v) > acceptance(best)) best = v;
+        }
+        boolean exploring = explore && random.nextDouble() < EXPLORATION_RATE;
+        for (int v = 1; v <= max; v++) {
+            if (exploring || v == best || acceptance(v) >= MIN_ACCEPTANCE) {
+                selected.add(v);
+            }
+        }
+        if (explore) {
+            variantsRequested += selected.size();
+            variantsConfigured += max;
+        }
+        return selected.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /** Estimated probability that a shown suggestion of the variant is accepted. */
+    public synchronized double acceptance(int variant) {
+        return (accepted[variant] + 1.0) / (shown[variant] + 4.0);
+    }
+
+    /**
+     * Records how a round ended.
+     *
+     * @param variants      Variant of each suggestion slot.
+     * @param shownSlots    Which slots had a suggestion on screen.
+     * @param acceptedSlot  The slot accepted, or -1.
+     * @param wasDismissed  Whether the user closed the popup without choosing.
+     */
+    public void recordOutcome(int[] variants, boolean[] shownSlots, int acceptedSlot, boolean wasDismissed) {
+        synchronized (this) {
+            for (int i = 0; i < variants.length && i < shownSlots.length; i++) {
+                if (shownSlots[i]) shown[variants[i]]++;
+            }
+            if (acceptedSlot >= 0 && acceptedSlot < variants.length) {
+                accepted[variants[acceptedSlot]]++;
+            } else if (wasDismissed) {
+                dismissed++;
+            } else {
+                ignored++;
+            }
+            version++;
+        }
+        if (file != null) {
+            CompletableFuture.runAsync(this::save);
+        }
+    }
+
+    /**
+     * Snapshot of the counters. {@code savedShare} is the part of the configured variants
+     * that adaptive rounds did not request.
+     */
+    public record Stats(long[] shown, long[] accepted, long dismissed, long ignored, double savedShare) {
+        @Override
+        public String toString() {
+            StringBuilder perVariant = new StringBuilder();
+            for (int v = 1; v < shown.length; v++) {
+                if (shown[v] == 0) continue;
+                perVariant.append(String.format(" #%d=%d/%d", v, accepted[v], shown[v]));
+            }
+            return String.format("accepted/shown:%s dismissed=%d ignored=%d variantsSaved=%.0f%%",
+                    perVariant.length() > 0 ? perVariant : " none", dismissed, ignored, savedShare * 100);
+        }
+    }
+
+    public synchronized Stats getStats() {
+        double saved = variantsConfigured == 0 ? 0 : 1 - (double) variantsRequested / variantsConfigured;
+        return new Stats(shown.clone(), accepted.clone(), dismissed, ignored, saved);
+    }
+
+    private synchronized void load() {
+        if (file == null || !Files.exists(file)) return;
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+            for (int v = 1; v <= MAX_VARIANTS; v++) {
+                shown[v] = Long.parseLong(properties.getProperty("shown." + v, "0"));
+                accepted[v] = Long.parseLong(properties.getProperty("accepted." + v, "0"));
+            }
+            dismissed = Long.parseLong(properties.getProperty("dismissed", "0"));
+            ignored = Long.parseLong(properties.getProperty("ignored", "0"));
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Could not read suggestion statistics from " + file + ": " + e.getMessage());
+        }
+    }
+
+    /** Writes a snapshot outside the main lock, so the EDT never waits for the disk. */
+    private void save() {
+        Properties properties = new Properties();
+        long snapshotVersion;
+        synchronized (this) {
+            for (int v = 1; v <= MAX_VARIANTS; v++) {
+                properties.setProperty("shown." + v, Long.toString(shown[v]));
+                properties.setProperty("accepted." + v, Long.toString(accepted[v]));
+            }
+            properties.setProperty("dismissed", Long.toString(dismissed));
+            properties.setProperty("ignored", Long.toString(ignored));
+            snapshotVersion = version;
+        }
+        synchronized (saveLock) {
+            if (snapshotVersion <= savedVersion) return; // A newer snapshot was written
+            try (OutputStream out = Files.newOutputStream(file)) {
+                properties.store(out, "Syngrafi suggestion acceptance statistics");
+                savedVersion = snapshotVersion;
+            } catch (IOException e) {
+                System.err.println("Could not save suggestion statistics to " + file + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -1,18 +1,34 @@
 import javax.swing.*;
 import javax.swing.text.Document;
 import javax.swing.text.StyleConstants;
+import javax.swing.text.html.HTMLDocument;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.Vector;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import api.APIProvider;
+import api.CachingProvider;
+import api.CompletionCache;
+import api.FlightRecorderProvider;
 import api.GeminiProvider;
+import api.HedgingProvider;
+import api.MeteredProvider;
+import api.NGramProvider;
 import api.OpenAIProvider;
+import api.ProviderGovernor;
+import api.ProviderTransport;
+import api.RequestPriority;
+import api.RequestHandle;
+import api.TokenBudget;
 import com.itextpdf.html2pdf.HtmlConverter;
 import com.formdev.flatlaf.FlatDarkLaf;
 import com.formdev.flatlaf.FlatLightLaf;
@@ -24,10 +40,23 @@ import java.util.concurrent.CompletableFuture;
 
 public class Syngrafi extends JFrame {
     private static final String VERSION = "1.0";
+    // Saved files write CREATED_TIMESTAMP/LAST_EDIT_TIMESTAMP, committed versions CREATED/LAST_EDIT
+    private static final Pattern METADATA_PATTERN = Pattern.compile("<!--\\s*AI_CHARS=(\\d+)\\s+HUMAN_CHARS=(\\d+)\\s*CREATED(?:_TIMESTAMP)?=(\\d+)\\s*LAST_EDIT(?:_TIMESTAMP)?=(\\d+)\\s*VERSION=([\\d.]+)\\s*-->");
+    private static final Pattern PROVENANCE_PATTERN = Pattern.compile("<!--\\s*PROVENANCE=([ah0-9]*)\\s*-->");
     private TextEditor textEditor;
     private JLabel statusBar;
+    private JPanel openingPanel; // Progress of the document being opened, next to the status bar
+    private JProgressBar openingProgress;
+    private DocumentLoader documentLoader; // Null unless a document is being opened
     private PreferencesManager preferencesManager;
     private APIProvider currentProvider;
+    private CompletionCache completionCache;
+    private TokenBudget tokenBudget;
+    private HedgingProvider autocompleteHedging;
+    private HedgingProvider rewriteHedging;
+    private final OfflineCorpus offlineCorpus = new OfflineCorpus();
+    private final FlightRecording flightRecording = new FlightRecording();
+    private EdtWatchdog edtWatchdog; // Null when disabled
     private File currentFile = null;
     private long creationTimestamp = 0;
     private long lastEditTimestamp = 0;
@@ -44,6 +73,7 @@ public class Syngrafi extends JFrame {
         super("Syngrafi");
         preferencesManager = new PreferencesManager();
         preferencesManager.loadPreferences();
+        startEdtWatchdog();
 
         String openAIKey = preferencesManager.getApiKey("apiKeyOpenAI");
         String geminiKey = preferencesManager.getApiKey("apiKeyGemini");
@@ -52,10 +82,23 @@ public class Syngrafi extends JFrame {
                 provider.equals("OpenAI") ? "gpt-4o" : "gemini-2.0-flash");
         initStatusBar();
         initUI();
+        offlineCorpus.indexDirectory(getDefaultDirectory());
 
         updateAPIProvider(openAIKey, geminiKey, provider, model);
     }
 
+    /** Watches for UI freezes; stalls are logged with EDT stacks under the preferences directory. */
+    private void startEdtWatchdog() {
+        long threshold = 500;
+        try {
+            threshold = Long.parseLong(preferencesManager.getPreference("edtStallThresholdMillis", "500"));
+        } catch (NumberFormatException ex) { /* use default */ }
+        if (threshold <= 0) return; // Disabled
+        edtWatchdog = new EdtWatchdog(threshold,
+                preferencesManager.getPreferencesDirectory().resolve("diagnostics").resolve("edt-stalls.log"));
+        edtWatchdog.start();
+    }
+
     public void initStatusBar() {
         statusBar = new JLabel("Ready");
     }
@@ -74,6 +117,20 @@ public class Syngrafi extends JFrame {
                     if (sidebarPanel != null) {
                         sidebarPanel.stopUpdateTimer();
                     }
+                    if (Boolean.parseBoolean(preferencesManager.getPreference("printStatsOnExit", "false"))) {
+                        printStats();
+                    }
+                    offlineCorpus.shutdown();
+                    flightRecording.discard();
+                    if (edtWatchdog != null) {
+                        edtWatchdog.stop();
+                    }
+                    if (tokenBudget != null) {
+                        tokenBudget.close();
+                    }
+                    if (completionCache != null) {
+                        completionCache.close();
+                    }
                     dispose();
                     System.exit(0);
                 } else {
@@ -85,7 +142,17 @@ public class Syngrafi extends JFrame {
 
         createMenuBar();
         statusBar.setBorder(BorderFactory.createEmptyBorder(5, 10, 5, 10));
-        add(statusBar, BorderLayout.SOUTH);
+        JPanel statusPanel = new JPanel(new BorderLayout());
+        statusPanel.add(statusBar, BorderLayout.CENTER);
+        openingProgress = new JProgressBar(0, 100);
+        JButton cancelOpening = new JButton("Cancel");
+        cancelOpening.addActionListener(e -> cancelOpening());
+        openingPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+        openingPanel.add(openingProgress);
+        openingPanel.add(cancelOpening);
+        openingPanel.setVisible(false);
+        statusPanel.add(openingPanel, BorderLayout.EAST);
+        add(statusPanel, BorderLayout.SOUTH);
 
         sidebarPanel = new SidebarPanel(this);
         sidebarPanel.setPreferredSize(new Dimension(250, 600));
@@ -98,6 +165,36 @@ public class Syngrafi extends JFrame {
         setLocationRelativeTo(null);
     }
 
+    /** Logs what the background machinery did this session; enabled by the printStatsOnExit preference. */
+    private void printStats() {
+        for (ProviderTransport transport : ProviderTransport.all()) {
+            System.out.println("Transport stats " + transport.getStats());
+        }
+        for (ProviderGovernor governor : ProviderGovernor.all()) {
+            System.out.println("Governor stats " + governor.getStats());
+        }
+        if (autocompleteHedging != null) {
+            System.out.println("Hedging stats " + autocompleteHedging.getStats());
+            System.out.println("Hedging stats " + rewriteHedging.getStats());
+        }
+        System.out.println("Offline model stats " + offlineCorpus.getModel().getStats());
+        if (edtWatchdog != null) {
+            System.out.println("EDT stalls " + edtWatchdog.getStats());
+        }
+        System.out.println("Autocomplete debouncer " + textEditor.getDebouncerStats());
+        if (textEditor.getPrefetchStats() != null) {
+            System.out.println("Prefetch stats " + textEditor.getPrefetchStats());
+        }
+        System.out.println("Suggestion acceptance " + textEditor.getSuggestionStats());
+        System.out.print("Autocomplete latency\n" + textEditor.getAutocompleteLatency().report());
+        if (tokenBudget != null) {
+            System.out.println("Token usage " + tokenBudget.getStats());
+        }
+        if (completionCache != null) {
+            System.out.println("Completion cache stats " + completionCache.getStats());
+        }
+    }
+
     private void createMenuBar() {
         JMenuBar menuBar = new JMenuBar();
         JMenu fileMenu = new JMenu("File");
@@ -198,6 +295,11 @@ public class Syngrafi extends JFrame {
         shortcutsItem.addActionListener(e -> showHelpDialog());
         helpMenu.add(shortcutsItem);
 
+        helpMenu.addSeparator();
+        JMenuItem recordingItem = new JMenuItem("Start Flight Recording");
+        recordingItem.addActionListener(e -> toggleFlightRecording(recordingItem));
+        helpMenu.add(recordingItem);
+
         menuBar.add(helpMenu);
 
         setJMenuBar(menuBar);
@@ -336,6 +438,8 @@ public class Syngrafi extends JFrame {
 
     private void createEditorPanel() {
         textEditor = new TextEditor(statusBar, preferencesManager);
+        textEditor.setSuggestionStats(new SuggestionStats(
+                preferencesManager.getPreferencesDirectory().resolve("suggestion_stats.properties")));
         textEditor.setFont(new Font("Georgia", Font.PLAIN, 12));
 
         // Initialize spellchecker *after* editor is created and basic setup done
@@ -430,18 +534,131 @@ public class Syngrafi extends JFrame {
 
     public void updateAPIProvider(String openAIKey, String geminiKey,
                                   String provider, String model) {
+        configureTransport();
+        if (provider.equals("Offline")) {
+            // Suggestions come from the user's own documents; no requests, so nothing to govern or hedge
+            autocompleteHedging = null;
+            rewriteHedging = null;
+            currentProvider = new NGramProvider(offlineCorpus.getModel());
+            if (textEditor != null) {
+                textEditor.setOfflineModel(null);
+                textEditor.setTokenBudget(null);
+                textEditor.setPrefetchProvider(null);
+                textEditor.setAPIProvider(currentProvider);
+            }
+            rewriteManager = null; // The n-gram model can only continue text, not rewrite it
+            statusBar.setText("Provider changed to " + provider + " | Model: " + model);
+            return;
+        }
+        APIProvider backend;
         if (provider.equals("OpenAI")) {
-            currentProvider = new OpenAIProvider(openAIKey, model);
+            backend = new OpenAIProvider(openAIKey, model);
         } else {
-            currentProvider = new GeminiProvider(geminiKey, model);
+            backend = new GeminiProvider(geminiKey, model);
+        }
+        // All requests to the account share one governor; rewrites pre-empt autocomplete
+        ProviderGovernor governor = ProviderGovernor.forProvider(provider);
+        configureGovernor(governor);
+        // Slow requests are hedged and transient failures retried; hedges are rate limited too
+        long deadlineMillis = 15000;
+        try {
+            deadlineMillis = Long.parseLong(preferencesManager.getPreference("requestDeadlineSeconds", "15")) * 1000;
+        } catch (NumberFormatException ex) { /* use default */ }
+        // Every request that reaches the backend is charged to the token budget
+        TokenBudget budget = getTokenBudget();
+        APIProvider autocompleteBackend = meteredBackend(backend, budget, "autocomplete");
+        APIProvider rewriteBackend = meteredBackend(backend, budget, "rewrite");
+        autocompleteHedging = new HedgingProvider(governor.wrap(autocompleteBackend, RequestPriority.BACKGROUND), "autocomplete", deadlineMillis);
+        rewriteHedging = new HedgingProvider(governor.wrap(rewriteBackend, RequestPriority.INTERACTIVE), "rewrite", deadlineMillis);
+        // Repeated prompts (undo/redo, re-selected passages) are answered locally
+        currentProvider = new CachingProvider(autocompleteHedging, getCompletionCache());
+        APIProvider rewriteProvider = new CachingProvider(rewriteHedging, getCompletionCache());
+        if (!preferencesManager.isAiFeaturesDisabled()) {
+            currentProvider.warmUp(); // Open the pooled connection before the first suggestion
         }
         if (textEditor != null) {
+            // The offline model answers instantly while the cloud request is in flight
+            boolean instant = Boolean.parseBoolean(preferencesManager.getPreference("offlineSuggestions", "true"));
+            textEditor.setOfflineModel(instant ? offlineCorpus.getModel() : null);
+            textEditor.setTokenBudget(budget);
+            // Speculative requests share the cache, so a prefetch also answers an identical regular request
+            textEditor.setPrefetchProvider(new CachingProvider(governor.wrap(
+                    meteredBackend(backend, budget, "prefetch"), RequestPriority.SPECULATIVE), getCompletionCache()));
             textEditor.setAPIProvider(currentProvider);
         }
-        rewriteManager = new RewriteManager(currentProvider, preferencesManager);
+        rewriteManager = new RewriteManager(rewriteProvider, preferencesManager, budget);
         statusBar.setText("Provider changed to " + provider + " | Model: " + model);
     }
 
+    /** The backend as seen by one purpose: charged to the budget and visible in flight recordings. */
+    private static APIProvider meteredBackend(APIProvider backend, TokenBudget budget, String purpose) {
+        return new MeteredProvider(new FlightRecorderProvider(backend, purpose), budget, purpose);
+    }
+
+    /** Applies the connection pool preferences to the shared provider transports. */
+    private void configureTransport() {
+        int poolSize = 5;
+        long keepAlive = 300;
+        try {
+            poolSize = Integer.parseInt(preferencesManager.getPreference("connectionPoolSize", "5"));
+            keepAlive = Long.parseLong(preferencesManager.getPreference("connectionKeepAliveSeconds", "300"));
+        } catch (NumberFormatException ex) {
+            System.err.println("Invalid connection pool settings, using defaults.");
+        }
+        ProviderTransport.configure(poolSize, keepAlive);
+    }
+
+    /** Applies the rate limit preferences to a provider's governor. */
+    private void configureGovernor(ProviderGovernor governor) {
+        int requestsPerMinute = 60;
+        int tokensPerMinute = 90000;
+        int maxInFlight = 4;
+        try {
+            requestsPerMinute = Integer.parseInt(preferencesManager.getPreference("rateLimitRequestsPerMinute", "60"));
+            tokensPerMinute = Integer.parseInt(preferencesManager.getPreference("rateLimitTokensPerMinute", "90000"));
+            maxInFlight = Integer.parseInt(preferencesManager.getPreference("maxInFlightRequests", "4"));
+        } catch (NumberFormatException ex) {
+            System.err.println("Invalid rate limit settings, using defaults.");
+        }
+        governor.configure(requestsPerMinute, tokensPerMinute, maxInFlight);
+    }
+
+    /** Opens the completion cache on first use; entries are keyed by model, so it survives provider changes. */
+    private CompletionCache getCompletionCache() {
+        if (completionCache == null) {
+            int maxEntries = 500;
+            long maxDiskMb = 16;
+            long ttlHours = 24;
+            try {
+                maxEntries = Integer.parseInt(preferencesManager.getPreference("cacheMaxEntries", "500"));
+                maxDiskMb = Long.parseLong(preferencesManager.getPreference("cacheMaxDiskMB", "16"));
+                ttlHours = Long.parseLong(preferencesManager.getPreference("cacheTtlHours", "24"));
+            } catch (NumberFormatException ex) {
+                System.err.println("Invalid completion cache settings, using defaults.");
+            }
+            Path cacheFile = preferencesManager.getPreferencesDirectory().resolve("completion_cache.bin");
+            completionCache = new CompletionCache(cacheFile, maxEntries, maxDiskMb * 1024 * 1024, Duration.ofHours(ttlHours));
+        }
+        return completionCache;
+    }
+
+    /** The token budget shared by all providers; limits are re-read on every provider change. */
+    private TokenBudget getTokenBudget() {
+        if (tokenBudget == null) {
+            tokenBudget = new TokenBudget(preferencesManager.getPreferencesDirectory().resolve("token_usage.properties"));
+        }
+        long sessionLimit = 0;
+        long dailyLimit = 0;
+        try {
+            sessionLimit = Long.parseLong(preferencesManager.getPreference("tokenBudgetSession", "0"));
+            dailyLimit = Long.parseLong(preferencesManager.getPreference("tokenBudgetDaily", "0"));
+        } catch (NumberFormatException ex) {
+            System.err.println("Invalid token budget settings, budgets disabled.");
+        }
+        tokenBudget.configure(sessionLimit, dailyLimit);
+        return tokenBudget;
+    }
+
     File getDefaultDirectory() {
         String defPath = preferencesManager.getPreference("defaultPath", System.getProperty("user.dir"));
         return new File(defPath);
@@ -453,9 +670,9 @@ public class Syngrafi extends JFrame {
             JMenuItem item = new JMenuItem(filePath);
             item.addActionListener(e -> {
                 if (checkUnsavedChanges()) {
-                    currentFile = new File(filePath);
-                    openDocument(currentFile);
-                    preferencesManager.addRecentFile(currentFile.getAbsolutePath());
+                    File file = new File(filePath);
+                    openDocument(file, true);
+                    preferencesManager.addRecentFile(file.getAbsolutePath());
                     updateRecentFilesMenu();
                 }
             });
@@ -470,7 +687,7 @@ public class Syngrafi extends JFrame {
     }
 
     private void newDocument() {
-        textEditor.resetCharacterCounts();
+        cancelOpening();
         textEditor.setText("");
         textEditor.markClean();
         currentFile = null;
@@ -487,9 +704,9 @@ public class Syngrafi extends JFrame {
         chooser.setCurrentDirectory(getDefaultDirectory());
         int result = chooser.showOpenDialog(this);
         if (result == JFileChooser.APPROVE_OPTION) {
-            currentFile = chooser.getSelectedFile();
-            openDocument(currentFile);
-            preferencesManager.addRecentFile(currentFile.getAbsolutePath());
+            File file = chooser.getSelectedFile();
+            openDocument(file, true);
+            preferencesManager.addRecentFile(file.getAbsolutePath());
             updateRecentFilesMenu();
         }
     }
@@ -498,9 +715,8 @@ public class Syngrafi extends JFrame {
         if (!checkUnsavedChanges()) {
             return;
         }
-        currentFile = file;
-        openDocument(currentFile);
-        preferencesManager.addRecentFile(currentFile.getAbsolutePath());
+        openDocument(file, true);
+        preferencesManager.addRecentFile(file.getAbsolutePath());
         updateRecentFilesMenu();
     }
 
@@ -533,46 +749,103 @@ public class Syngrafi extends JFrame {
         return true;
     }
 
+    /** Opens {@code file} into the editor, keeping the current file; used for committed versions. */
     public void openDocument(File file) {
-        StringBuilder sb = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line).append("\n");
+        openDocument(file, false);
+    }
+
+    /**
+     * Loads {@code file} in the background. Its beginning is shown, read-only, as soon as it is
+     * parsed; the status bar shows progress and can cancel, which puts the current document back.
+     * Once loaded it becomes the current file if {@code asCurrentFile}.
+     */
+    private void openDocument(File file, boolean asCurrentFile) {
+        cancelOpening();
+        EditorEvents.DocumentOpen event = new EditorEvents.DocumentOpen();
+        event.begin();
+        documentLoader = new DocumentLoader(file.toPath(), textEditor.getEditorKit(), new DocumentLoader.Listener() {
+            @Override
+            public void shown(EditorDocument document) {
+                textEditor.beginLoading(document);
             }
-        } catch (IOException ex) {
-            ex.printStackTrace();
-            statusBar.setText("Error opening file.");
-            return;
-        }
-        String entireText = sb.toString();
 
-        // Parse metadata
-        Pattern p = Pattern.compile("<!--\\s*AI_CHARS=(\\d+)\\s+HUMAN_CHARS=(\\d+)\\s*CREATED=(\\d+)\\s*LAST_EDIT=(\\d+)\\s*VERSION=([\\d.]+)\\s*-->");
-        Matcher m = p.matcher(entireText);
-        int aiChars = 0, humanChars = 0;
+            @Override
+            public void progress(int percent) {
+                openingProgress.setValue(percent);
+            }
+
+            @Override
+            public void loaded(EditorDocument document) {
+                finishOpening();
+                if (textEditor.getDocument() != document) {
+                    textEditor.beginLoading(document); // Small enough to be parsed before it was shown
+                }
+                textEditor.finishLoading(readMetadata(document)); // Older files count as written by the user
+                if (asCurrentFile) {
+                    currentFile = file;
+                }
+                updateTitle();
+                event.commit(file, true); // Includes parsing the HTML into the editor
+            }
+
+            @Override
+            public void failed(EditorDocument document, Exception error) {
+                finishOpening();
+                textEditor.cancelLoading();
+                statusBar.setText("Error opening file.");
+                event.commit(file, false);
+            }
+        });
+        openingProgress.setValue(0);
+        openingPanel.setVisible(true);
+        statusBar.setText("Opening " + file.getName() + "...");
+        documentLoader.start();
+    }
+
+    /** Stops opening a document, if one is being opened, and puts the previous one back. */
+    private void cancelOpening() {
+        if (documentLoader == null) return;
+        documentLoader.cancel();
+        finishOpening();
+        textEditor.cancelLoading();
+        statusBar.setText("Opening cancelled.");
+    }
+
+    private void finishOpening() {
+        documentLoader = null;
+        openingPanel.setVisible(false);
+    }
+
+    /**
+     * Takes the metadata comments saved after the HTML out of the loaded document, sets the
+     * timestamps from them, and returns the saved provenance runs, or null if there are none.
+     */
+    private String readMetadata(HTMLDocument document) {
         long created = 0, lastEdit = 0;
-        String version = VERSION;
-        if (m.find()) {
-            try {
-                aiChars = Integer.parseInt(m.group(1));
-                humanChars = Integer.parseInt(m.group(2));
-                created = Long.parseLong(m.group(3));
-                lastEdit = Long.parseLong(m.group(4));
-                version = m.group(5);
-            } catch (NumberFormatException | IndexOutOfBoundsException ignored) {
+        String provenanceRuns = null;
+        // Comments after </html> are kept by the reader as a document property, without the delimiters
+        if (document.getProperty(HTMLDocument.AdditionalComments) instanceof Vector<?> comments) {
+            for (Iterator<?> it = comments.iterator(); it.hasNext(); ) {
+                String comment = "<!--" + it.next() + "-->";
+                Matcher m = METADATA_PATTERN.matcher(comment);
+                Matcher provenance = PROVENANCE_PATTERN.matcher(comment);
+                if (m.matches()) {
+                    try {
+                        // The character counts are derived from the provenance runs
+                        created = Long.parseLong(m.group(3));
+                        lastEdit = Long.parseLong(m.group(4));
+                    } catch (NumberFormatException ignored) {
+                    }
+                    it.remove(); // Written afresh on save
+                } else if (provenance.matches()) {
+                    provenanceRuns = provenance.group(1);
+                    it.remove();
+                }
             }
-            entireText = m.replaceFirst("").trim();
         }
-        textEditor.setAICharCount(aiChars);
-        textEditor.setHumanCharCount(humanChars);
-        textEditor.setText(entireText.trim());
-        textEditor.markClean();
         creationTimestamp = created > 0 ? created : System.currentTimeMillis();
         lastEditTimestamp = lastEdit > 0 ? lastEdit : creationTimestamp;
-
-        // Update status bar using TextEditor's method
-        textEditor.updateStatusBarInfo(); 
+        return provenanceRuns;
     }
 
     /** Saves the current document. Returns true if successful, false otherwise. */
@@ -639,6 +912,12 @@ public class Syngrafi extends JFrame {
 
     /** Performs the actual write to the specified file. Returns true if successful. */
     private boolean performSave(File file) {
+        if (documentLoader != null) {
+            statusBar.setText("Wait for the document to open before saving.");
+            return false;
+        }
+        EditorEvents.DocumentSave event = new EditorEvents.DocumentSave();
+        event.begin();
         try {
             String textToSave = textEditor.getText();
             lastEditTimestamp = System.currentTimeMillis();
@@ -650,7 +929,7 @@ public class Syngrafi extends JFrame {
                     textEditor.getAICharCount(), textEditor.getHumanCharCount(),
                     creationTimestamp, lastEditTimestamp, VERSION);
 
-            textToSave += "\n" + metadata + "\n"; // Append metadata
+            textToSave += "\n" + metadata + "\n" + provenanceComment() + "\n"; // Append metadata
 
             // Ensure parent directory exists (robustness)
             File parentDir = file.getParentFile();
@@ -662,12 +941,15 @@ public class Syngrafi extends JFrame {
 
             try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
                  writer.write(textToSave);
+                 offlineCorpus.documentSaved(file, textToSave);
                  textEditor.markClean(); 
                  textEditor.updateStatusBarInfo();
                  System.out.println("File saved successfully: " + file.getName()); // Debug
-                 return true;
             }
+            event.commit(file, true);
+            return true;
         } catch (IOException ex) {
+            event.commit(file, false);
             ex.printStackTrace();
             statusBar.setText("Error saving file: " + ex.getMessage());
             JOptionPane.showMessageDialog(this, "Error saving file: "+ ex.getMessage(), "Save Error", JOptionPane.ERROR_MESSAGE);
@@ -675,7 +957,16 @@ public class Syngrafi extends JFrame {
         }
     }
 
+    /** Which characters were written by AI, as document offsets; read back by openDocument. */
+    private String provenanceComment() {
+        return "<!-- PROVENANCE=" + textEditor.encodeProvenance() + " -->";
+    }
+
     private void commitVersion() {
+        if (documentLoader != null) {
+            statusBar.setText("Wait for the document to open before committing.");
+            return;
+        }
         String text = textEditor.getText();
         if (text.isEmpty()) {
             statusBar.setText("Nothing to commit.");
@@ -691,21 +982,27 @@ public class Syngrafi extends JFrame {
 
         String fileName = "version_" + System.currentTimeMillis() + ".html";
         File versionFile = new File(versionDir, fileName);
+        EditorEvents.VersionCommit event = new EditorEvents.VersionCommit();
+        event.begin();
 
         text += "\n<!-- AI_CHARS=" + aiCount +
                 " HUMAN_CHARS=" + humanCount +
                 " CREATED=" + creationTimestamp +
                 " LAST_EDIT=" + lastEditTimestamp +
-                " VERSION=" + VERSION + " -->\n";
+                " VERSION=" + VERSION + " -->\n" +
+                provenanceComment() + "\n";
 
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(versionFile))) {
             writer.write(text);
+            writer.flush();
+            event.commit(versionFile, true); // Before the confirmation dialog blocks
             statusBar.setText("Version committed: " + fileName +
                     " [AI=" + aiCount + ", Human=" + humanCount + "]");
             JOptionPane.showMessageDialog(this,
                     "Version committed successfully!\nSaved to: " + versionFile.getAbsolutePath(),
                     "Version Control", JOptionPane.INFORMATION_MESSAGE);
         } catch (IOException ex) {
+            event.commit(versionFile, false);
             ex.printStackTrace();
             statusBar.setText("Error committing version.");
         }
@@ -730,18 +1027,22 @@ public class Syngrafi extends JFrame {
             pdfFile = new File(pdfFile.getAbsolutePath() + ".pdf");
         }
 
+        EditorEvents.PdfExport event = new EditorEvents.PdfExport();
+        event.begin();
         try {
             String htmlContent = textEditor.getText();
             HtmlConverter.convertToPdf(
                     new ByteArrayInputStream(htmlContent.getBytes(StandardCharsets.UTF_8)),
                     new FileOutputStream(pdfFile)
             );
+            event.commit(pdfFile, true);
 
             JOptionPane.showMessageDialog(this,
                     "Exported to PDF:\n" + pdfFile.getAbsolutePath(),
                     "Export Successful",
                     JOptionPane.INFORMATION_MESSAGE);
         } catch (Exception ex) {
+            event.commit(pdfFile, false);
             ex.printStackTrace();
             JOptionPane.showMessageDialog(this,
                     "Error exporting PDF: " + ex.getMessage(),
@@ -760,6 +1061,45 @@ public class Syngrafi extends JFrame {
         }
     }
 
+    /**
+     * Starts a flight recording, or stops the running one and saves it where the user picks,
+     * for attaching to a bug report.
+     */
+    private void toggleFlightRecording(JMenuItem recordingItem) {
+        if (!flightRecording.isRecording()) {
+            try {
+                flightRecording.start();
+                recordingItem.setText("Stop Flight Recording...");
+                statusBar.setText("Flight recording started.");
+            } catch (Exception ex) {
+                ex.printStackTrace();
+                JOptionPane.showMessageDialog(this, "Could not start flight recording: " + ex.getMessage(),
+                        "Flight Recording", JOptionPane.ERROR_MESSAGE);
+            }
+            return;
+        }
+        JFileChooser chooser = new JFileChooser(getDefaultDirectory());
+        chooser.setDialogTitle("Save Flight Recording");
+        chooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("Flight Recordings (*.jfr)", "jfr"));
+        chooser.setSelectedFile(new File("syngrafi-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".jfr"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return; // Keep recording
+        }
+        File jfrFile = chooser.getSelectedFile();
+        if (!jfrFile.getName().toLowerCase().endsWith(".jfr")) {
+            jfrFile = new File(jfrFile.getAbsolutePath() + ".jfr");
+        }
+        recordingItem.setText("Start Flight Recording");
+        try {
+            flightRecording.stop(jfrFile.toPath());
+            statusBar.setText("Flight recording saved: " + jfrFile.getName());
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            JOptionPane.showMessageDialog(this, "Could not save flight recording: " + ex.getMessage(),
+                    "Flight Recording", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
     // Method to show the help dialog
     private void showHelpDialog() {
         HelpDialog helpDialog = new HelpDialog(this);
@@ -820,6 +1160,12 @@ public class Syngrafi extends JFrame {
              return;
         }
 
+        if (currentProvider instanceof NGramProvider) {
+             JOptionPane.showMessageDialog(this,
+                     "Rewrites are not available with the Offline provider. Choose OpenAI or Gemini in the settings.",
+                     "Rewrite Error", JOptionPane.ERROR_MESSAGE);
+             return;
+        }
         if (rewriteManager == null || currentProvider == null || !preferencesManager.hasApiKey()) {
              JOptionPane.showMessageDialog(this,
                      "Rewrite functionality requires a configured API Provider and Key.",
@@ -845,10 +1191,20 @@ public class Syngrafi extends JFrame {
         statusBar.setText("Generating rewrite suggestions..."); // Update status
         setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
 
+        // Stamp the request so it is aborted if the document or selection changes meanwhile
+        RequestHandle rewriteRequest = new RequestHandle(textEditor.getDocumentRevision(), textEditor.getCaretPosition());
+        textEditor.trackRewriteRequest(rewriteRequest);
+
         // Call RewriteManager to get multiple suggestions
-        rewriteManager.performRewrite(selectedText, userProvidedPrompt)
-            .thenAcceptAsync(suggestions -> {
+        CompletableFuture<List<String>> rewrite = rewriteManager.performRewrite(selectedText, userProvidedPrompt);
+        rewriteRequest.attach(rewrite);
+        rewrite.whenCompleteAsync((suggestions, ex) -> {
                 // Update UI on Event Dispatch Thread
+                if (ex != null || textEditor.isStale(rewriteRequest)) {
+                    statusBar.setText("Rewrite discarded: the document changed.");
+                    setCursor(Cursor.getDefaultCursor());
+                    return;
+                }
                 if (suggestions == null || suggestions.isEmpty() || (suggestions.size() == 1 && suggestions.get(0).startsWith("ERROR:"))) {
                     String errorMessage = "API returned no suggestions.";
                     if (suggestions != null && !suggestions.isEmpty()) {
@@ -1,4 +1,11 @@
 import api.APIProvider;
+import api.CandidateDelta;
+import api.LatencyHistogram;
+import api.NGramModel;
+import api.NGramProvider;
+import api.ProviderException;
+import api.RequestHandle;
+import api.TokenBudget;
 import io.github.geniot.jortho.FileUserDictionary;
 import io.github.geniot.jortho.SpellChecker;
 
@@ -15,11 +22,10 @@ import javax.swing.undo.CannotUndoException;
 import javax.swing.undo.UndoManager;
 import java.awt.*;
 import java.awt.datatransfer.DataFlavor;
-import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
 import java.awt.event.ActionEvent;
 import java.io.IOException;
 import java.io.StringWriter;
@@ -42,6 +48,7 @@ import javax.swing.event.PopupMenuListener;
 import javax.swing.event.PopupMenuEvent;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.function.Predicate;
 
 /**
  * A text editor that uses HTMLEditorKit for formatting,
@@ -55,21 +62,69 @@ public class TextEditor extends JTextPane {
     private final JLabel statusBar;
     private PreferencesManager prefs;
     private APIProvider currentProvider;
+    private NGramModel offlineModel; // Instant first suggestion while the provider answers
+    private TokenBudget tokenBudget;
+    private SpeculativePrefetcher prefetcher; // Null when speculative requests are not available
+    private SuggestionStats suggestionStats = new SuggestionStats(null);
     private UndoManager undoManager = new UndoManager();
+    private final UndoableEditListener undoListener = e -> undoManager.addEdit(e.getEdit());
+    private DocumentListener documentListener; // Moves with the editor to each document it shows
 
-    private Timer autocompleteTimer;
+    private final AutocompleteDebouncer autocompleteDebouncer = new AutocompleteDebouncer();
+    private DocumentStats documentStats; // Updated first thing in the document listener
     private boolean isAutocompleteActive = false;
     private JPopupMenu autoCompletePopup;
     private String[] currentAutocompleteSuggestions;
-
-    // Character counters
-    private int aiCharCount = 0;
-    private int humanCharCount = 0;
+    private JMenuItem[] autocompleteMenuItems;
+    private String[] cleanedAutocompleteSuggestions; // Full suggestions; the popup shows what is left after typed-ahead text
+    private final StringBuilder autocompleteTypedAhead = new StringBuilder();
+    private int autocompleteAnchor = -1; // Offset the round's suggestions continue from
+    private int[] roundVariants; // Variant of each slot in the shown round; null once its outcome is recorded
+    private boolean offlineSlot; // Slot 0 holds the offline model's suggestion, which is no variant
+    // Replaced when a round starts and cleared when it is cancelled; tokens for any other handle are dropped
+    private RequestHandle autocompleteRequest; // In-flight round, null when idle
+    private RequestHandle rewriteRequest;
+    // Bumped on every document change; with the caret it stamps AI requests so stale results are dropped
+    private volatile long documentRevision = 0;
+    private volatile int caretDot = 0;
+    private int pendingAutocompleteVariants = 0;
+    private String autocompleteErrorMessage;
+    // Per-stage latency of autocomplete rounds; the total is measured from the last typed character
+    private final AutocompleteLatency latency = new AutocompleteLatency();
+    private long lastKeystrokeNanos = 0;
+    private RequestHandle measuredRound;
+
+    // Who wrote each character; follows every insert and remove of the document
+    private final ProvenanceMap provenance = new ProvenanceMap();
+    private boolean insertingAiText = false; // Set while an accepted suggestion or rewrite is inserted
 
     // Track if doc has unsaved changes
     private boolean isDirty = false;
     private int activeHeadingLevel = 0;
 
+    // While a document loads in the background: what to put back if the load is cancelled
+    private Document documentBeforeLoading; // Null when not loading
+    private String provenanceBeforeLoading;
+    private boolean dirtyBeforeLoading;
+    // Keeps the user's edits out of a loading document; the loader's batches do not pass through it.
+    // Cheaper than setEditable, which rebuilds every view of the document when switched back.
+    private final DocumentFilter readOnly = new DocumentFilter() {
+        @Override
+        public void insertString(FilterBypass fb, int offset, String string, AttributeSet attr) {
+            UIManager.getLookAndFeel().provideErrorFeedback(TextEditor.this);
+        }
+
+        @Override
+        public void remove(FilterBypass fb, int offset, int length) {
+            UIManager.getLookAndFeel().provideErrorFeedback(TextEditor.this);
+        }
+
+        @Override
+        public void replace(FilterBypass fb, int offset, int length, String text, AttributeSet attrs) {
+            UIManager.getLookAndFeel().provideErrorFeedback(TextEditor.this);
+        }
+    };
+
     // Autocomplete trigger tracking
     private int consecutiveCharsTyped = 0;
     private long lastCharTypedTimestamp = 0;
@@ -89,7 +144,7 @@ public class TextEditor extends JTextPane {
         this.prefs = prefs;
 
         // Use an HTML editor kit with minimal styling
-        HTMLEditorKit kit = new HTMLEditorKit();
+        HTMLEditorKit kit = new EditorDocument.Kit(Boolean.parseBoolean(prefs.getPreference("pieceTableContent", "true")));
         setEditorKit(kit);
 
         // Provide some default style for headings, normal text
@@ -114,11 +169,10 @@ public class TextEditor extends JTextPane {
         // Add popup menu listeners to prevent closing on focus loss
         setupPopupListeners();
 
-        getDocument().addUndoableEditListener(e -> undoManager.addEdit(e.getEdit()));
+        getDocument().addUndoableEditListener(undoListener);
 
         setupDocumentListener();
-        setupAutocompleteTimer();
-        setupTypingListener();
+        addCaretListener(e -> caretDot = e.getDot());
         loadNumSuggestions();
         setupPasteAction();
         initializeJOrtho(); // Initialize JOrtho spellchecker
@@ -155,7 +209,7 @@ public class TextEditor extends JTextPane {
                     SwingUtilities.invokeLater(() -> {
                         if (isAutocompleteActive) {
                             System.out.println("Calling cancelAutoComplete from popupMenuCanceled event");
-                            cancelAutoComplete();
+                            dismissAutoComplete();
                         }
                     });
                 }
@@ -253,10 +307,22 @@ public class TextEditor extends JTextPane {
     }
 
     /**
-     * Override processKeyEvent to handle Enter/Backspace within lists.
+     * Records every key event for flight recordings; the handling is in {@link #handleKeyEvent}.
      */
     @Override
     protected void processKeyEvent(KeyEvent e) {
+        EditorEvents.Keystroke event = EditorEvents.begin(e);
+        try {
+            handleKeyEvent(e);
+        } finally {
+            event.commit();
+        }
+    }
+
+    /**
+     * Handles Escape for the popups and Enter/Backspace within lists.
+     */
+    private void handleKeyEvent(KeyEvent e) {
         // Add Escape key handling at the very beginning
         if (e.getID() == KeyEvent.KEY_PRESSED && e.getKeyCode() == KeyEvent.VK_ESCAPE) {
             System.out.println("Escape key pressed in processKeyEvent");
@@ -266,7 +332,7 @@ public class TextEditor extends JTextPane {
             if (isAutocompleteActive) {
                 System.out.println("Escape detected in processKeyEvent: Cancelling Autocomplete (active=" + isAutocompleteActive + 
                                   ", visible=" + (autoCompletePopup != null ? autoCompletePopup.isVisible() : "null") + ")");
-                cancelAutoComplete();
+                dismissAutoComplete();
                 e.consume(); // Consume the event to prevent other handlers from processing it
                 handled = true;
             }
@@ -561,6 +627,35 @@ public class TextEditor extends JTextPane {
         this.currentProvider = provider;
     }
 
+    /** Sets the low-priority provider view used to prefetch suggestions, or null to disable prefetching. */
+    public void setPrefetchProvider(APIProvider provider) {
+        this.prefetcher = provider != null ? new SpeculativePrefetcher(provider) : null;
+    }
+
+    /** Sets where suggestion acceptance is recorded; it decides which variants are requested. */
+    public void setSuggestionStats(SuggestionStats stats) {
+        this.suggestionStats = stats;
+    }
+
+    public SuggestionStats.Stats getSuggestionStats() {
+        return suggestionStats.getStats();
+    }
+
+    /** Prefetch counters, or null if prefetching is disabled. */
+    public SpeculativePrefetcher.Stats getPrefetchStats() {
+        return prefetcher != null ? prefetcher.getStats() : null;
+    }
+
+    /** Sets the budget that trims and finally stops suggestion requests, or null for none. */
+    public void setTokenBudget(TokenBudget budget) {
+        this.tokenBudget = budget;
+    }
+
+    /** Sets the local model shown as the first suggestion until the provider's arrives, or null for none. */
+    public void setOfflineModel(NGramModel model) {
+        this.offlineModel = model;
+    }
+
     /**
      * Returns true if the caret is inside <h1>...</h1> or <h2>...</h2>
      */
@@ -578,12 +673,18 @@ public class TextEditor extends JTextPane {
     }
 
     private void setupDocumentListener() {
-        getDocument().addDocumentListener(new DocumentListener() {
+        // Each callback is recorded for flight recordings; typing latency is mostly spent here
+        documentListener = EditorEvents.recorded(new DocumentListener() {
             @Override
             public void insertUpdate(DocumentEvent e) {
+                provenance.insert(e.getOffset(), e.getLength(), insertingAiText);
+                documentStats.update(e);
+                documentChanged();
                 boolean isSingleCharInsert = (e.getLength() == 1);
 
                 if (isSingleCharInsert) {
+                    lastKeystrokeNanos = System.nanoTime();
+                    autocompleteDebouncer.recordKeystroke();
                     long now = System.currentTimeMillis();
                     if (now - lastCharTypedTimestamp > TYPING_RESET_THRESHOLD_MS) {
                         consecutiveCharsTyped = 0; // Reset on pause
@@ -592,6 +693,12 @@ public class TextEditor extends JTextPane {
                     lastCharTypedTimestamp = now;
 
                     // --- Modified Autocomplete Logic --- 
+                    if (isAutocompleteActive && continueAutocomplete(e)) {
+                        // Typed character matches a shown suggestion: keep the popup, no new request
+                        isDirty = true;
+                        updateStatusBarInfo();
+                        return;
+                    }
                     if (isAutocompleteActive) {
                         // If popup is already active or being generated, cancel it because user continued typing
                         cancelAutoComplete(); 
@@ -601,6 +708,13 @@ public class TextEditor extends JTextPane {
                     // Schedule autocomplete if AI not disabled and >= 1 char typed recently
                     if (!prefs.isAiFeaturesDisabled() && consecutiveCharsTyped >= 1) { 
                 scheduleAutocomplete();
+                        if (endsSentence(e.getOffset())) {
+                            // Users tend to pause between sentences: fetch the next suggestion now
+                            long revision = documentRevision;
+                            SwingUtilities.invokeLater(() -> {
+                                if (documentRevision == revision) prefetchSuggestions();
+                            });
+                        }
                     } else {
                         // Explicitly cancel if conditions aren't met (e.g., AI disabled)
                         cancelAutoComplete();
@@ -620,6 +734,9 @@ public class TextEditor extends JTextPane {
 
             @Override
             public void removeUpdate(DocumentEvent e) {
+                provenance.remove(e.getOffset(), e.getLength());
+                documentStats.update(e);
+                documentChanged();
                 isDirty = true;
                 consecutiveCharsTyped = 0; // Reset trigger count on delete/backspace
                 cancelAutoComplete(); // Cancel autocomplete on backspace/delete
@@ -629,12 +746,120 @@ public class TextEditor extends JTextPane {
             @Override
             public void changedUpdate(DocumentEvent e) {
                 // Attribute changes (like formatting) - might want to cancel autocomplete?
+                documentStats.update(e);
+                documentChanged();
                 isDirty = true;
                 consecutiveCharsTyped = 0; // Reset trigger count
                 cancelAutoComplete(); // Cancel autocomplete on style changes
                 updateStatusBarInfo();
             }
         });
+        listenTo(getDocument());
+    }
+
+    /** Counts {@code doc} and follows its changes; all of its text counts as written by the user. */
+    private void listenTo(Document doc) {
+        documentStats = new DocumentStats(doc);
+        provenance.clear();
+        provenance.insert(0, doc.getLength(), false);
+        doc.addDocumentListener(documentListener);
+    }
+
+    /**
+     * Shows a document that is still being loaded in the background. The user cannot edit or
+     * undo it until {@link #finishLoading}; {@link #cancelLoading} puts the current one back.
+     */
+    public void beginLoading(Document loading) {
+        cancelAutoComplete();
+        Document previous = getDocument();
+        previous.removeDocumentListener(documentListener);
+        previous.removeUndoableEditListener(undoListener);
+        documentBeforeLoading = previous;
+        provenanceBeforeLoading = provenance.encode();
+        dirtyBeforeLoading = isDirty;
+        ((AbstractDocument) loading).setDocumentFilter(readOnly);
+        setDocument(loading);
+        listenTo(loading);
+        updateStatusBarInfo();
+    }
+
+    /** Makes the loaded document editable, starting a fresh undo history. */
+    public void finishLoading(String provenanceRuns) {
+        documentBeforeLoading = null;
+        provenanceBeforeLoading = null;
+        ((AbstractDocument) getDocument()).setDocumentFilter(null);
+        getDocument().addUndoableEditListener(undoListener);
+        undoManager.discardAllEdits();
+        restoreProvenance(provenanceRuns);
+        setCaretPosition(0);
+        markClean();
+        updateStatusBarInfo();
+    }
+
+    /** Puts back the document shown before loading began, with its undo history and authorship. */
+    public void cancelLoading() {
+        if (documentBeforeLoading == null) return;
+        getDocument().removeDocumentListener(documentListener);
+        Document previous = documentBeforeLoading;
+        setDocument(previous);
+        listenTo(previous);
+        restoreProvenance(provenanceBeforeLoading);
+        previous.addUndoableEditListener(undoListener);
+        isDirty = dirtyBeforeLoading;
+        documentBeforeLoading = null;
+        provenanceBeforeLoading = null;
+        updateStatusBarInfo();
+    }
+
+    public boolean isLoading() {
+        return documentBeforeLoading != null;
+    }
+
+    /** Advances the revision and aborts a pending rewrite, whose selection offsets no longer hold. */
+    private void documentChanged() {
+        documentRevision++;
+        if (prefetcher != null) {
+            prefetcher.documentChanged(documentRevision); // The user kept typing: the prefetch is wasted
+        }
+        if (rewriteRequest != null) {
+            rewriteRequest.cancel();
+            rewriteRequest = null;
+        }
+    }
+
+    /** Time from the last keystroke to the first suggestion of a round being shown. */
+    public LatencyHistogram getSuggestionLatency() {
+        return latency.get(AutocompleteLatency.Stage.TOTAL);
+    }
+
+    /** Where the time of autocomplete rounds goes, stage by stage. */
+    public AutocompleteLatency getAutocompleteLatency() {
+        return latency;
+    }
+
+    /** Scheduling activity of the autocomplete debouncer, with its current adaptive delay. */
+    public AutocompleteDebouncer.Stats getDebouncerStats() {
+        return autocompleteDebouncer.getStats(configuredAutocompleteDelay());
+    }
+
+    public long getDocumentRevision() {
+        return documentRevision;
+    }
+
+    /** Whether results of the given request were overtaken by edits or caret moves. */
+    public boolean isStale(RequestHandle handle) {
+        return handle.isStale(documentRevision, caretDot);
+    }
+
+    /**
+     * Registers the in-flight rewrite request, cancelling the previous one.
+     * It is also cancelled as soon as the document changes.
+     */
+    public void trackRewriteRequest(RequestHandle handle) {
+        if (rewriteRequest != null) {
+            rewriteRequest.cancel();
+        }
+        rewriteRequest = handle;
     }
 
     /** Updates the status bar with current info (word count, etc.) */
@@ -646,22 +871,6 @@ public class TextEditor extends JTextPane {
         statusBar.setText(String.format("Words: %d | AI Chars: %d | Human Chars: %d", words, ai, human));
     }
 
-    private void setupAutocompleteTimer() {
-        autocompleteTimer = new Timer("AutocompleteTimer", true);
-    }
-
-    private void setupTypingListener() {
-        addKeyListener(new KeyAdapter() {
-            @Override
-            public void keyTyped(KeyEvent e) {
-                char c = e.getKeyChar();
-                if (!Character.isISOControl(c)) {
-                    humanCharCount++;
-                }
-            }
-        });
-    }
-
     private void loadNumSuggestions() {
         int n = 3;
         try {
@@ -679,6 +888,16 @@ public class TextEditor extends JTextPane {
         if (isAnyDialogVisible() || isRewritePopupActive) return;
         if (isAutocompleteActive || currentProvider == null) return;
 
+        // The configured delay is the ceiling; the debouncer shortens it to the user's typing pauses
+        long delay = autocompleteDebouncer.delayMillis(configuredAutocompleteDelay());
+        autocompleteDebouncer.schedule(() -> SwingUtilities.invokeLater(() -> {
+            if (!isAnyDialogVisible() && !isRewritePopupActive) { // Double check popups
+                 triggerAutocomplete();
+            }
+        }), delay);
+    }
+
+    private int configuredAutocompleteDelay() {
         int delay = 1000; // Default delay updated
         try {
             // Update default value used in getPreference call
@@ -687,20 +906,7 @@ public class TextEditor extends JTextPane {
         } catch (Exception ex) {
             delay = 1000; // Use updated default on error
         }
-
-        autocompleteTimer.cancel();
-        autocompleteTimer = new Timer("AutocompleteTimer", true);
-
-        autocompleteTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                SwingUtilities.invokeLater(() -> {
-                    if (!isAnyDialogVisible() && !isRewritePopupActive) { // Double check popups
-                         triggerAutocomplete();
-                    }
-                });
-            }
-        }, delay);
+        return delay;
     }
 
     private String cleanupSuggestion(String contextText, String suggestion) {
@@ -722,16 +928,48 @@ public class TextEditor extends JTextPane {
         return suggestion;
     }
 
+    /** Closes the suggestions at the user's request, counting the round as dismissed. */
+    private void dismissAutoComplete() {
+        recordSuggestionOutcome(-1, true);
+        cancelAutoComplete();
+    }
+
+    /**
+     * Records how the shown round ended, once. Rounds that never showed a suggestion are not
+     * counted.
+     */
+    private void recordSuggestionOutcome(int acceptedSlot, boolean dismissed) {
+        int[] variants = roundVariants;
+        roundVariants = null;
+        if (variants == null || cleanedAutocompleteSuggestions == null) return;
+        boolean[] shown = new boolean[variants.length];
+        boolean anyShown = false;
+        for (int i = 0; i < shown.length && i < cleanedAutocompleteSuggestions.length; i++) {
+            shown[i] = cleanedAutocompleteSuggestions[i] != null && !(i == 0 && offlineSlot);
+            anyShown |= shown[i];
+        }
+        if (acceptedSlot == 0 && offlineSlot) {
+            acceptedSlot = -1; // The offline suggestion was taken over the variants shown with it
+        }
+        if (anyShown) {
+            suggestionStats.recordOutcome(variants, shown, acceptedSlot, dismissed);
+        }
+    }
+
     public void cancelAutoComplete() {
          System.out.println("cancelAutoComplete called, isAutocompleteActive=" + isAutocompleteActive + 
                            ", popup visible=" + (autoCompletePopup != null && autoCompletePopup.isVisible()));
          
-         // Always cancel pending timer
-         autocompleteTimer.cancel(); 
-         autocompleteTimer = new Timer("AutocompleteTimer", true); // Recreate timer
+         // Always cancel the pending suggestion
+         autocompleteDebouncer.cancel();
+         recordSuggestionOutcome(-1, false); // Typed on or moved away; no-op if already recorded
          
          // Set flag to false first
          isAutocompleteActive = false;
+         if (autocompleteRequest != null) {
+             autocompleteRequest.cancel(); // Abort the HTTP calls still streaming for this round
+             autocompleteRequest = null;
+         }
          
          // Then hide popup if visible
          if (autoCompletePopup != null && autoCompletePopup.isVisible()) {
@@ -740,31 +978,18 @@ public class TextEditor extends JTextPane {
              statusBar.setText("Autocomplete cancelled."); // Provide feedback
              currentAutocompleteSuggestions = null; // Clear the suggestions array
          }
+         cleanedAutocompleteSuggestions = null;
          
          // Restart the autocomplete timer after cancellation
          // This ensures pressing Escape won't permanently disable autocomplete
          if (!prefs.isAiFeaturesDisabled() && currentProvider != null && !isRewritePopupActive) {
-             int delay = 1000; // Default delay
-             try {
-                 delay = Integer.parseInt(prefs.getPreference("autocompleteDelay", "1000")); 
-                 if (delay < 0) delay = 1000;
-             } catch (Exception ex) {
-                 delay = 1000;
-             }
-             
-             final int finalDelay = delay;
              // Schedule with a small additional delay to prevent immediate reactivation
-             autocompleteTimer.schedule(new TimerTask() {
-                 @Override
-                 public void run() {
-                     SwingUtilities.invokeLater(() -> {
-                         if (!isAnyDialogVisible() && !isRewritePopupActive && !isAutocompleteActive) {
-                             System.out.println("Restarting autocomplete after cancellation");
-                             scheduleAutocomplete();
-                         }
-                     });
+             autocompleteDebouncer.schedule(() -> SwingUtilities.invokeLater(() -> {
+                 if (!isAnyDialogVisible() && !isRewritePopupActive && !isAutocompleteActive) {
+                     System.out.println("Restarting autocomplete after cancellation");
+                     scheduleAutocomplete();
                  }
-             }, finalDelay); // Use the same delay as normal autocomplete
+             }), configuredAutocompleteDelay()); // Use the same delay as normal autocomplete
          }
     }
 
@@ -774,7 +999,123 @@ public class TextEditor extends JTextPane {
         if (isAutocompleteActive || currentProvider == null || getDocument().getLength() == 0) {
             return;
         }
+        if (tokenBudget != null && tokenBudget.isExhausted()) {
+            statusBar.setText("Token budget reached; suggestions paused.");
+            return;
+        }
+
+        long startNanos = System.nanoTime();
+        if (lastKeystrokeNanos > 0) {
+            latency.record(AutocompleteLatency.Stage.DEBOUNCE, startNanos - lastKeystrokeNanos);
+        }
+        int[] variants = selectAutocompleteVariants(true);
+        int n = variants.length;
+
+        // Close to the token budget, the references and the far context are shed first
+        boolean shed = tokenBudget != null && tokenBudget.isNearLimit();
+        int caret = getCaretPosition();
+        AutocompleteContext context = captureAutocompleteContext(caret, shed);
+        String before = context.before();
+        APIProvider provider = currentProvider;
+        String modelId = provider.getModelId();
+        latency.record(AutocompleteLatency.Stage.CONTEXT, System.nanoTime() - startNanos);
+
+        if (autocompleteRequest != null) {
+            autocompleteRequest.cancel();
+        }
+        RequestHandle round = new RequestHandle(documentRevision, caret);
+        autocompleteRequest = round;
+        currentAutocompleteSuggestions = new String[n];
+        cleanedAutocompleteSuggestions = new String[n];
+        autocompleteMenuItems = new JMenuItem[n];
+        autocompleteTypedAhead.setLength(0);
+        autocompleteAnchor = caret;
+        // Only provider suggestions inform the acceptance estimates
+        roundVariants = provider instanceof NGramProvider ? null : variants;
+        offlineSlot = false;
+        pendingAutocompleteVariants = n;
+        autocompleteErrorMessage = null;
+        autoCompletePopup.removeAll();
+        isAutocompleteActive = true;
+        statusBar.setText("Generating suggestions...");
+
+        if (offlineModel != null) {
+            // Answered in well under a millisecond; the provider's first candidate replaces it
+            List<String> instant = offlineModel.complete(before, 1, 8);
+            if (!instant.isEmpty()) {
+                showAutoCompletePopup(round, 0, before, instant.get(0));
+                offlineSlot = cleanedAutocompleteSuggestions[0] != null;
+            }
+        }
+
+        CompletableFuture<List<String>> prefetched = prefetcher != null ? prefetcher.take(documentRevision, caret, n) : null;
+        if (prefetched != null) {
+            // Fetched for exactly this text and caret; shown as soon as it is (or already was) complete
+            int finalN = n;
+            pendingAutocompleteVariants = 1;
+            round.attach(prefetched);
+            prefetched.whenComplete((results, ex) -> SwingUtilities.invokeLater(() -> {
+                if (ex == null) {
+                    for (int i = 0; i < Math.min(finalN, results.size()); i++) {
+                        showAutoCompletePopup(round, i, before, results.get(i));
+                    }
+                }
+                finishAutocompleteVariant(round, ex == null ? null : autocompleteErrorStatus(ex));
+            }));
+            return;
+        }
+
+        if (provider.supportsMultipleCandidates() && n > 1) {
+            // One request carries the shared prompt and returns all n candidates
+            int finalN = n;
+            pendingAutocompleteVariants = 1;
+            CompletableFuture.supplyAsync(() -> timedPrompt(context, 1, shed))
+                    .thenAccept(prompt -> provider.streamCompletions(prompt, finalN)
+                            .subscribe(new CandidatesSubscriber(round, finalN, before, modelId)))
+                    .exceptionally(ex -> failAutocompleteStart(round, ex));
+            return;
+        }
 
+        // Fallback: one request per variation prompt, in parallel
+        for (int i = 0; i < n; i++) {
+            final int variation = variants[i];
+            final int index = i;
+            CompletableFuture.supplyAsync(() -> timedPrompt(context, variation, shed))
+                    .thenAccept(prompt -> provider.streamCompletion(prompt)
+                            .subscribe(new SuggestionSubscriber(round, index, before, modelId)))
+                    .exceptionally(ex -> failAutocompleteStart(round, ex));
+        }
+    }
+
+    /**
+     * The variants worth requesting this round, by their observed acceptance. With several
+     * candidates from one prompt, a variant is a candidate's position in the popup.
+     *
+     * @param explore Whether the round may request every variant to refresh the estimates.
+     */
+    private int[] selectAutocompleteVariants(boolean explore) {
+        int max = autocompleteSuggestionCount();
+        if (!Boolean.parseBoolean(prefs.getPreference("adaptiveSuggestions", "true"))) {
+            int[] all = new int[max];
+            for (int i = 0; i < max; i++) all[i] = i + 1;
+            return all;
+        }
+        int[] variants = suggestionStats.selectVariants(max, explore);
+        if (currentProvider != null && currentProvider.supportsMultipleCandidates()) {
+            // Candidates are interchangeable samples: only their number matters
+            for (int i = 0; i < variants.length; i++) variants[i] = i + 1;
+        }
+        return variants;
+    }
+
+    private String timedPrompt(AutocompleteContext context, int variation, boolean shed) {
+        long start = System.nanoTime();
+        String prompt = AutocompletePromptManager.getPrompt(context, variation, prefs, shed);
+        latency.record(AutocompleteLatency.Stage.PROMPT, System.nanoTime() - start);
+        return prompt;
+    }
+
+    private int autocompleteSuggestionCount() {
         int n = 3;
         try {
             n = Integer.parseInt(prefs.getPreference("numSuggestions", "3"));
@@ -783,108 +1124,276 @@ public class TextEditor extends JTextPane {
         } catch (Exception ex) {
             n = 3;
         }
+        return n;
+    }
 
-        currentAutocompleteSuggestions = new String[n];
-        isAutocompleteActive = true;
-        statusBar.setText("Generating suggestions...");
+    /**
+     * Captures the context on the EDT; the prompts are built off it. Only a token-budgeted
+     * window around the caret is read, not the whole document.
+     *
+     * @param shed Whether to halve the window because the token budget is running low.
+     */
+    private AutocompleteContext captureAutocompleteContext(int caret, boolean shed) {
+        int contextTokens = 1500;
+        try {
+            contextTokens = Integer.parseInt(prefs.getPreference("contextTokenBudget", "1500"));
+        } catch (NumberFormatException ex) { /* use default */ }
+        if (shed) {
+            contextTokens /= 2;
+        }
+        return AutocompleteContext.capture(getDocument(), caret, contextTokens);
+    }
 
-        @SuppressWarnings("unchecked")
-        CompletableFuture<String>[] futures = new CompletableFuture[n];
-        for (int i = 0; i < n; i++) {
-            final int variation = i + 1;
-            futures[i] = CompletableFuture.supplyAsync(() -> {
-                try {
-                    int caret = getCaretPosition();
-                    String full = getPlainText();
-                    String before = full.substring(0, caret);
-                    String after  = full.substring(caret);
-
-                    String prompt = AutocompletePromptManager.getPrompt(before, after, variation, prefs);
-                    return currentProvider.generateCompletion(prompt);
-                } catch (Exception ex) {
-                    ex.printStackTrace();
-                    return "";
-                }
-            });
+    /**
+     * Starts a speculative request for the text at the caret, for the next round to pick up.
+     * Skipped when it cannot be answered by that round or the token budget is running low.
+     */
+    private void prefetchSuggestions() {
+        if (prefetcher == null || currentProvider == null || prefs.isAiFeaturesDisabled()) return;
+        if (isAutocompleteActive || isRewritePopupActive) return;
+        if (!Boolean.parseBoolean(prefs.getPreference("speculativePrefetch", "true"))) return;
+        if (tokenBudget != null && tokenBudget.isNearLimit()) return; // Speculation is the first thing to go
+        int n = selectAutocompleteVariants(false).length;
+        if (n > 1 && !currentProvider.supportsMultipleCandidates()) return; // Rounds use one prompt per variant
+        int caret = getCaretPosition();
+        AutocompleteContext context = captureAutocompleteContext(caret, false);
+        prefetcher.prefetch(documentRevision, caret, n, AutocompletePromptManager.getPrompt(context, 1, prefs));
+    }
+
+    /** Whether the character inserted at {@code offset} is whitespace after a sentence end. */
+    private boolean endsSentence(int offset) {
+        if (offset < 1) return false;
+        try {
+            String text = getDocument().getText(offset - 1, 2);
+            return Character.isWhitespace(text.charAt(1)) && ".!?".indexOf(text.charAt(0)) >= 0;
+        } catch (BadLocationException ex) {
+            return false;
         }
+    }
 
-        int finalN = n;
-        CompletableFuture.allOf(futures).thenRun(() -> {
-            boolean errorOccurred = false;
-            String errorMessage = "Ready"; // Default status
-            try {
-                for (int i = 0; i < finalN; i++) {
-                    try {
-                        String raw = futures[i].get().trim(); // Get result for each future
-                         // Check for common API error messages (example for Gemini quota)
-                         if (raw.contains("exceeded your current quota")) {
-                             System.err.println("API Error detected: " + raw);
-                             errorMessage = "Autocomplete failed: API Quota Exceeded";
-                             errorOccurred = true;
-                             currentAutocompleteSuggestions[i] = null; // Clear potential error message suggestion
-                             continue; // Skip processing this suggestion
-                         }
-                         // Add checks for other known error patterns if necessary
-
-                         raw = cleanOverlap(getPlainText(), raw);
-                         raw = cleanupSuggestion(getPlainText(), raw);
-                    currentAutocompleteSuggestions[i] = raw;
-                    } catch (Exception futureEx) {
-                        // Handle exception fetching individual future result
-                        System.err.println("Error fetching suggestion future: " + futureEx.getMessage());
-                        futureEx.printStackTrace();
-                        errorMessage = "Autocomplete failed: Error fetching suggestion";
-                        errorOccurred = true;
-                        currentAutocompleteSuggestions[i] = null;
-                    }
-                }
-            } catch (Exception ex) {
-                 // Handle general exceptions during the completion phase
-                 System.err.println("Error processing suggestions: " + ex.getMessage());
-                ex.printStackTrace();
-                 errorMessage = "Autocomplete failed: Processing Error";
-                 errorOccurred = true;
+    private Void failAutocompleteStart(RequestHandle round, Throwable ex) {
+        if (round.isCancelled()) return null;
+        System.err.println("Error starting suggestion stream: " + ex.getMessage());
+        SwingUtilities.invokeLater(() -> finishAutocompleteVariant(round, "Autocomplete failed: Processing Error"));
+        return null;
+    }
+
+    /** Maps a stream error to the status bar message shown to the user. */
+    private static String autocompleteErrorStatus(Throwable ex) {
+        if (ex instanceof CancellationException) {
+            return "Autocomplete paused for a rewrite."; // Pre-empted by the rate limiter
+        }
+        return ProviderException.isQuotaError(ex)
+                ? "Autocomplete failed: API Quota Exceeded"
+                : "Autocomplete failed: Network/API Error";
+    }
+
+    /**
+     * Receives the token deltas of one suggestion variant and forwards the growing
+     * text to the popup on the EDT.
+     */
+    private class SuggestionSubscriber implements Flow.Subscriber<String> {
+        private final RequestHandle round;
+        private final int index;
+        private final String contextBefore;
+        private final String modelId;
+        private final StringBuilder raw = new StringBuilder();
+        private final long startNanos = System.nanoTime();
+
+        SuggestionSubscriber(RequestHandle round, int index, String contextBefore, String modelId) {
+            this.round = round;
+            this.index = index;
+            this.contextBefore = contextBefore;
+            this.modelId = modelId;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            round.attach(subscription);
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(String delta) {
+            // Only cancellation is checked here: the revision and caret are updated one after the
+            // other on the EDT, so they are compared there, in showAutoCompletePopup
+            if (round.isCancelled()) return;
+            if (raw.isEmpty()) {
+                long firstToken = System.nanoTime() - startNanos;
+                autocompleteDebouncer.recordProviderLatency(firstToken);
+                latency.record(AutocompleteLatency.Stage.FIRST_TOKEN, modelId, firstToken);
             }
+            raw.append(delta);
+            String text = raw.toString();
+            SwingUtilities.invokeLater(() -> showAutoCompletePopup(round, index, contextBefore, text));
+        }
 
-            String finalErrorMessage = errorMessage; // Effectively final for lambda
-            boolean finalErrorOccurred = errorOccurred; // Effectively final
+        @Override
+        public void onError(Throwable ex) {
+            System.err.println("Error streaming suggestion " + (index + 1) + ": " + ex.getMessage());
+            String status = autocompleteErrorStatus(ex);
+            SwingUtilities.invokeLater(() -> finishAutocompleteVariant(round, status));
+        }
 
-            SwingUtilities.invokeLater(() -> {
-                if (!finalErrorOccurred && !isRewritePopupActive) {
-                    // Only show popup if no errors occurred and we have valid suggestions
-                    boolean hasValidSuggestions = false;
-                    for(String s : currentAutocompleteSuggestions) {
-                        if (s != null && !s.trim().isEmpty()) {
-                            hasValidSuggestions = true;
-                            break;
-                        }
-                    }
-                    if (hasValidSuggestions) {
-                showAutoCompletePopup(currentAutocompleteSuggestions);
-                    }
-                }
-                isAutocompleteActive = false;
-                statusBar.setText(finalErrorMessage);
-            });
-        }).exceptionally(ex -> { // Catch exceptions from CompletableFuture.allOf itself
-            System.err.println("Error waiting for autocomplete futures: " + ex.getMessage());
-            ex.printStackTrace();
-            SwingUtilities.invokeLater(() -> {
-                statusBar.setText("Autocomplete failed: Network/API Error");
-                isAutocompleteActive = false;
-                cancelAutoComplete(); // Ensure popup is hidden etc.
-            });
-            return null;
-        });
+        @Override
+        public void onComplete() {
+            if (!raw.isEmpty()) latency.record(AutocompleteLatency.Stage.RESPONSE, modelId, System.nanoTime() - startNanos);
+            SwingUtilities.invokeLater(() -> finishAutocompleteVariant(round, null));
+        }
+    }
+
+    /**
+     * Receives the indexed deltas of a multi-candidate request and grows each
+     * candidate's entry in the popup.
+     */
+    private class CandidatesSubscriber implements Flow.Subscriber<CandidateDelta> {
+        private final RequestHandle round;
+        private final String contextBefore;
+        private final String modelId;
+        private final StringBuilder[] raw;
+        private final long startNanos = System.nanoTime();
+        private boolean received = false;
+
+        CandidatesSubscriber(RequestHandle round, int n, String contextBefore, String modelId) {
+            this.round = round;
+            this.contextBefore = contextBefore;
+            this.modelId = modelId;
+            this.raw = new StringBuilder[n];
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            round.attach(subscription);
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(CandidateDelta delta) {
+            if (round.isCancelled()) return; // Revision and caret are compared on the EDT
+            if (!received) {
+                received = true;
+                long firstToken = System.nanoTime() - startNanos;
+                autocompleteDebouncer.recordProviderLatency(firstToken);
+                latency.record(AutocompleteLatency.Stage.FIRST_TOKEN, modelId, firstToken);
+            }
+            int index = delta.index();
+            if (index < 0 || index >= raw.length) return;
+            if (raw[index] == null) raw[index] = new StringBuilder();
+            raw[index].append(delta.text());
+            String text = raw[index].toString();
+            SwingUtilities.invokeLater(() -> showAutoCompletePopup(round, index, contextBefore, text));
+        }
+
+        @Override
+        public void onError(Throwable ex) {
+            System.err.println("Error streaming suggestions: " + ex.getMessage());
+            String status = autocompleteErrorStatus(ex);
+            SwingUtilities.invokeLater(() -> finishAutocompleteVariant(round, status));
+        }
+
+        @Override
+        public void onComplete() {
+            if (received) latency.record(AutocompleteLatency.Stage.RESPONSE, modelId, System.nanoTime() - startNanos);
+            SwingUtilities.invokeLater(() -> finishAutocompleteVariant(round, null));
+        }
+    }
+
+    /**
+     * Called on the EDT when one variant's stream ends. Once all variants of the
+     * round are done, updates the status bar and releases the round if nothing was shown.
+     */
+    private void finishAutocompleteVariant(RequestHandle round, String errorMessage) {
+        if (round != autocompleteRequest) return; // Round was cancelled
+        if (errorMessage != null) {
+            autocompleteErrorMessage = errorMessage;
+        }
+        if (--pendingAutocompleteVariants > 0) return;
+        autocompleteRequest = null; // All streams have ended
+
+        if (autoCompletePopup.getComponentCount() == 0) {
+            isAutocompleteActive = false;
+            statusBar.setText(autocompleteErrorMessage != null ? autocompleteErrorMessage : "No valid suggestions received.");
+        } else {
+            statusBar.setText("Select suggestion with mouse or Ctrl+[1-" +
+                              Math.min(currentAutocompleteSuggestions.length, 9) + "] | Esc to cancel");
+        }
+    }
+
+    /**
+     * Refreshes one popup entry to the part of its suggestion not yet typed by the user.
+     *
+     * @return false if the suggestion diverges from the typed text or has nothing left.
+     */
+    private boolean updateAutocompleteItem(int index) {
+        String cleaned = cleanedAutocompleteSuggestions[index];
+        String typed = autocompleteTypedAhead.toString();
+        String remaining = (cleaned != null && cleaned.startsWith(typed)) ? cleaned.substring(typed.length()) : "";
+        JMenuItem item = autocompleteMenuItems[index];
+        if (remaining.trim().isEmpty()) {
+            currentAutocompleteSuggestions[index] = null;
+            if (item != null) item.setVisible(false);
+            return false;
+        }
+
+        // Store for later access by keyboard shortcuts
+        currentAutocompleteSuggestions[index] = remaining;
+
+        if (item == null) {
+            item = new JMenuItem();
+            item.setToolTipText("Press Ctrl+" + (index + 1) + " to select this option");
+            item.addActionListener(e -> insertSuggestionByIndex(index));
+            autocompleteMenuItems[index] = item;
+            // Keep the items ordered by variation even though they arrive in any order
+            int position = 0;
+            for (int i = 0; i < index; i++) {
+                if (autocompleteMenuItems[i] != null) position++;
+            }
+            autoCompletePopup.insert(item, position);
+        }
+        item.setText("<html><b>Ctrl+" + (index + 1) + ":</b> " +
+                     remaining.trim().replaceAll("\n", "<br/>") + "</html>");
+        item.setVisible(true);
+        return true;
     }
 
-    private String getPlainText() {
+    /**
+     * Called from insertUpdate while suggestions are shown. If the typed character continues
+     * at least one suggestion, the suggestions are trimmed and the round kept alive instead of
+     * being cancelled and refetched; diverging suggestions are hidden.
+     *
+     * @return true if the insert was absorbed by the visible suggestions.
+     */
+    private boolean continueAutocomplete(DocumentEvent e) {
+        if (!autoCompletePopup.isVisible() || cleanedAutocompleteSuggestions == null) return false;
+        if (e.getLength() != 1 || e.getOffset() != autocompleteAnchor + autocompleteTypedAhead.length()) return false;
+        String typed;
         try {
-            return getDocument().getText(0, getDocument().getLength());
+            typed = autocompleteTypedAhead + getDocument().getText(e.getOffset(), 1);
         } catch (BadLocationException ex) {
-            ex.printStackTrace();
-            return "";
+            return false;
+        }
+        boolean matches = false;
+        for (String cleaned : cleanedAutocompleteSuggestions) {
+            if (cleaned != null && cleaned.startsWith(typed) && !cleaned.substring(typed.length()).trim().isEmpty()) {
+                matches = true;
+                break;
+            }
+        }
+        if (!matches) return false;
+
+        autocompleteTypedAhead.setLength(0);
+        autocompleteTypedAhead.append(typed);
+        // The caret moves past the typed character right after this listener; re-stamp the round
+        // so tokens still streaming for it are not dropped as stale
+        caretDot = e.getOffset() + 1;
+        if (autocompleteRequest != null) {
+            autocompleteRequest.advance(documentRevision, caretDot);
         }
+        for (int i = 0; i < cleanedAutocompleteSuggestions.length; i++) {
+            updateAutocompleteItem(i);
+        }
+        autoCompletePopup.pack();
+        return true;
     }
 
     private String cleanOverlap(String existingText, String suggestion) {
@@ -915,61 +1424,86 @@ public class TextEditor extends JTextPane {
     }
 
     /**
-     * Displays the autocomplete suggestions in a popup menu.
+     * Adds or grows one suggestion in the autocomplete popup while its tokens stream in.
+     * The popup is shown as soon as the first variant has text.
      */
-    private void showAutoCompletePopup(String[] suggestions) {
-        if (prefs.isAiFeaturesDisabled() || suggestions == null || suggestions.length == 0) {
-            statusBar.setText("No suggestions available");
+    private void showAutoCompletePopup(RequestHandle round, int index, String contextBefore, String rawSuggestion) {
+        if (round != autocompleteRequest || !isAutocompleteActive) return; // Stale tokens
+        if (isStale(round)) {
+            cancelAutoComplete(); // Overtaken by an edit or caret move; aborts the rest of the round
             return;
         }
+        if (prefs.isAiFeaturesDisabled() || isRewritePopupActive) return;
 
-        // Store for later access by keyboard shortcuts
-        currentAutocompleteSuggestions = suggestions;
-        autoCompletePopup.removeAll();
+        long cleanupStart = System.nanoTime();
+        String cleanedSuggestion = cleanupSuggestion(contextBefore, cleanOverlap(contextBefore, rawSuggestion));
+        long popupStart = System.nanoTime();
+        latency.record(AutocompleteLatency.Stage.CLEANUP, popupStart - cleanupStart);
+        if (cleanedSuggestion.trim().isEmpty()) return;
 
-        for (int i = 0; i < suggestions.length; i++) {
-            if (suggestions[i] != null && !suggestions[i].trim().isEmpty()) {
-                final int index = i;
-                final String cleanedSuggestion = suggestions[i].trim();
-                final String displayText = "<html><b>Ctrl+" + (i + 1) + ":</b> " + 
-                                      cleanedSuggestion.replaceAll("\n", "<br/>") + "</html>";
-                
-                JMenuItem item = new JMenuItem(displayText);
-                item.setToolTipText("Press Ctrl+" + (i + 1) + " to select this option");
-                item.addActionListener(e -> insertAutocompleteSuggestion(cleanedSuggestion));
-                autoCompletePopup.add(item);
-            }
+        cleanedAutocompleteSuggestions[index] = cleanedSuggestion;
+        if (index == 0) offlineSlot = false; // Replaced by the provider's; set again by the offline caller
+        try {
+            presentAutocompleteItem(round, index);
+        } finally {
+            latency.record(AutocompleteLatency.Stage.POPUP, System.nanoTime() - popupStart);
         }
+    }
 
-        if (autoCompletePopup.getComponentCount() > 0) {
-            try {
-                Rectangle caretCoords = modelToView(getCaretPosition());
-                autoCompletePopup.show(this, caretCoords.x, caretCoords.y + caretCoords.height);
-                // Set flag before showing popup to ensure it's set when key is pressed
-                isAutocompleteActive = true;
-                
-                // Ensure popup maintains focus in the text editor
-                SwingUtilities.invokeLater(() -> {
-                    requestFocusInWindow();
-                    System.out.println("Autocomplete popup active: " + isAutocompleteActive + 
-                                      ", visible: " + autoCompletePopup.isVisible() + 
-                                      ", suggestions: " + (currentAutocompleteSuggestions != null ? 
-                                      currentAutocompleteSuggestions.length : "null"));
-                });
-                
-                statusBar.setText("Select suggestion with mouse or Ctrl+[1-" + 
-                                  Math.min(suggestions.length, 9) + "] | Esc to cancel");
-            } catch (BadLocationException e) {
-                e.printStackTrace();
-                statusBar.setText("Error showing suggestions.");
+    /** Builds or updates the popup entry for a cleaned suggestion and shows the popup if needed. */
+    private void presentAutocompleteItem(RequestHandle round, int index) {
+        if (!updateAutocompleteItem(index)) {
+            if (autoCompletePopup.isVisible()) autoCompletePopup.pack();
+            return; // Nothing left after the typed-ahead text yet
+        }
+
+        if (autoCompletePopup.isVisible()) {
+            autoCompletePopup.pack(); // Grow in place
+            return;
+        }
+        if (round != measuredRound) {
+            measuredRound = round;
+            if (lastKeystrokeNanos > 0) {
+                latency.record(AutocompleteLatency.Stage.TOTAL, System.nanoTime() - lastKeystrokeNanos);
             }
-        } else {
-            statusBar.setText("No valid suggestions received.");
+        }
+        if (!isShowing()) {
+            autoCompletePopup.pack(); // Off screen (e.g. the headless benchmark): lay out without showing
+            return;
+        }
+        try {
+            Rectangle caretCoords = modelToView(getCaretPosition());
+            autoCompletePopup.show(this, caretCoords.x, caretCoords.y + caretCoords.height);
+            // Set flag before showing popup to ensure it's set when key is pressed
+            isAutocompleteActive = true;
+
+            // Ensure popup maintains focus in the text editor
+            SwingUtilities.invokeLater(() -> {
+                requestFocusInWindow();
+                System.out.println("Autocomplete popup active: " + isAutocompleteActive +
+                                  ", visible: " + autoCompletePopup.isVisible() +
+                                  ", suggestions: " + (currentAutocompleteSuggestions != null ?
+                                  currentAutocompleteSuggestions.length : "null"));
+            });
+
+            statusBar.setText("Receiving suggestions... Ctrl+[1-" +
+                              Math.min(currentAutocompleteSuggestions.length, 9) + "] | Esc to cancel");
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+            statusBar.setText("Error showing suggestions.");
         }
     }
 
     public void insertAutocompleteSuggestion(String suggestion) {
         if (suggestion == null || suggestion.isEmpty()) return;
+        if (currentAutocompleteSuggestions != null) {
+            for (int i = 0; i < currentAutocompleteSuggestions.length; i++) {
+                if (currentAutocompleteSuggestions[i] == suggestion) {
+                    recordSuggestionOutcome(i, false);
+                    break;
+                }
+            }
+        }
 
         int caretPos = getCaretPosition();
         StyledDocument sdoc = (StyledDocument) getDocument();
@@ -985,16 +1519,21 @@ public class TextEditor extends JTextPane {
         SimpleAttributeSet attrs = new SimpleAttributeSet(insertionAttrs);
 
         try {
-            sdoc.insertString(caretPos, suggestion, attrs);
-            aiCharCount += suggestion.length();
+            insertingAiText = true;
+            try {
+                sdoc.insertString(caretPos, suggestion, attrs);
+            } finally {
+                insertingAiText = false;
+            }
             setCaretPosition(caretPos + suggestion.length());
 
             if (autoCompletePopup.isVisible()) {
                 autoCompletePopup.setVisible(false);
             }
-            statusBar.setText("Suggestion inserted. AI chars: " + aiCharCount
-                    + " / Human chars: " + humanCharCount);
+            statusBar.setText("Suggestion inserted. AI chars: " + getAICharCount()
+                    + " / Human chars: " + getHumanCharCount());
             isDirty = true;
+            SwingUtilities.invokeLater(this::prefetchSuggestions); // The next pause is likely right after accepting
         } catch (BadLocationException ex) {
             ex.printStackTrace();
             statusBar.setText("Error inserting suggestion.");
@@ -1020,7 +1559,6 @@ public class TextEditor extends JTextPane {
                 }
 
                 sdoc.insertString(caretPos, clipboardText, currentAttrs);
-                humanCharCount += clipboardText.length();
                 setCaretPosition(caretPos + clipboardText.length());
                 isDirty = true;
             }
@@ -1032,32 +1570,44 @@ public class TextEditor extends JTextPane {
 
     // --- Dirty-tracking and char counts ---
     public boolean isDirty() {
-        return isDirty;
+        return isDirty && !isLoading(); // The loading document replaces the previous one, so has nothing to save
     }
 
     public void markClean() {
         isDirty = false;
     }
 
+    /** Characters of the document inserted from accepted suggestions and rewrites. */
     public int getAICharCount() {
-        return aiCharCount;
+        return provenance.aiChars();
     }
 
+    /** Characters of the document written by the user, including line breaks. */
     public int getHumanCharCount() {
-        return humanCharCount;
-    }
-
-    public void setAICharCount(int n) {
-        aiCharCount = n;
+        return provenance.humanChars();
     }
 
-    public void setHumanCharCount(int n) {
-        humanCharCount = n;
+    /** The authorship runs of the document, encoded for saving with it. */
+    public String encodeProvenance() {
+        return provenance.encode();
     }
 
-    public void resetCharacterCounts() {
-        aiCharCount = 0;
-        humanCharCount = 0;
+    /**
+     * Restores authorship saved with the document, after its text has been loaded. Without
+     * saved runs, or if they cannot be read, the whole document counts as written by the user.
+     */
+    public void restoreProvenance(String encoded) {
+        int length = getDocument().getLength();
+        if (encoded != null) {
+            try {
+                provenance.decode(encoded, length);
+                return;
+            } catch (IllegalArgumentException ex) {
+                System.err.println(ex.getMessage());
+            }
+        }
+        provenance.clear();
+        provenance.insert(0, length, false);
     }
 
     // --- Formatting methods ---
@@ -1294,29 +1844,17 @@ public class TextEditor extends JTextPane {
 
     private void toggleOrApplyAttributeOnSelection(int start, int end, String attrType) {
         isDirty = true;
-        StyledDocument sdoc = (StyledDocument) getDocument();
-        boolean allSet = true;
-
-        // Check if the attribute is applied to all characters in selection
-        for (int pos = start; pos < end; pos++) {
-            Element el = sdoc.getCharacterElement(pos);
-            AttributeSet as = el.getAttributes();
-            switch (attrType) {
-                case "bold":
-                    if (!StyleConstants.isBold(as)) allSet = false;
-                    break;
-                case "italic":
-                    if (!StyleConstants.isItalic(as)) allSet = false;
-                    break;
-                case "underline":
-                    if (!StyleConstants.isUnderline(as)) allSet = false;
-                    break;
-                case "strikethrough":
-                    if (!StyleConstants.isStrikeThrough(as)) allSet = false;
-                    break;
-            }
-            if (!allSet) break;
-        }
+        EditorDocument sdoc = (EditorDocument) getDocument();
+        Predicate<AttributeSet> isSet = switch (attrType) {
+            case "bold" -> StyleConstants::isBold;
+            case "italic" -> StyleConstants::isItalic;
+            case "underline" -> StyleConstants::isUnderline;
+            case "strikethrough" -> StyleConstants::isStrikeThrough;
+            default -> throw new IllegalArgumentException("Unknown attribute " + attrType);
+        };
+
+        // Check if the attribute is applied to the whole selection, one run of text at a time
+        boolean allSet = sdoc.allRuns(start, end, isSet);
 
         // Toggle the attribute: remove if all set, apply if not all set
         MutableAttributeSet newAttr = new SimpleAttributeSet();
@@ -1459,18 +1997,14 @@ public class TextEditor extends JTextPane {
          return false;
     }
 
-    /** Calculates word count from the editor's HTML content */
+    /** Word count of the document, kept up to date by the document listener. */
     public int countWords() {
-         String htmlText = getText(); // Get current HTML text
-         // Regex to remove HTML tags
-         String textOnly = htmlText.replaceAll("<[^>]+>", " ");
-         // Replace non-breaking spaces and trim
-         textOnly = textOnly.replace("&nbsp;", " ").trim();
-         // Remove extra whitespace sequences
-         textOnly = textOnly.replaceAll("\\s+", " "); 
-         if (textOnly.isEmpty()) return 0;
-         // Split by whitespace to count words
-         return textOnly.split("\\s+").length;
+         return (int) documentStats.getWords();
+    }
+
+    /** Paragraph, word, character and sentence totals of the document. */
+    public DocumentStats getDocumentStats() {
+        return documentStats;
     }
 
     // --- Rewrite Methods (New) --- 
@@ -1494,7 +2028,7 @@ public class TextEditor extends JTextPane {
                 boolean popupCancelled = false;
                 if (isAutocompleteActive && autoCompletePopup.isVisible()) {
                     System.out.println("Global Escape: Cancelling Autocomplete");
-                    cancelAutoComplete();
+                    dismissAutoComplete();
                     popupCancelled = true;
                 }
                 // Check rewrite popup separately, ensuring it's visible
@@ -1629,7 +2163,7 @@ public class TextEditor extends JTextPane {
             public void actionPerformed(ActionEvent e) {
                 System.out.println("Autocomplete popup direct Escape handler triggered");
                 if (isAutocompleteActive) {
-                    cancelAutoComplete();
+                    dismissAutoComplete();
                 }
             }
         };
@@ -1673,7 +2207,7 @@ public class TextEditor extends JTextPane {
                     // Keep the ability for Esc to cancel autocomplete if needed
                     // but the primary binding for this action is on the rewrite popup
                     System.out.println("Calling cancelAutoComplete() from rewrite binding (fallback).");
-                    cancelAutoComplete(); 
+                    dismissAutoComplete();
                 }
             }
         };
@@ -1798,10 +2332,14 @@ public class TextEditor extends JTextPane {
             ReplaceEdit edit = new ReplaceEdit(sdoc, rewriteSelectionStart, originalLength, suggestion, attrs);
             
             sdoc.remove(rewriteSelectionStart, originalLength);
-            sdoc.insertString(rewriteSelectionStart, suggestion, attrs);
+            insertingAiText = true;
+            try {
+                sdoc.insertString(rewriteSelectionStart, suggestion, attrs);
+            } finally {
+                insertingAiText = false;
+            }
             undoManager.addEdit(edit);
 
-            aiCharCount += suggestion.length(); 
             isDirty = true;
             updateStatusBarInfo();
             statusBar.setText("Rewrite applied.");
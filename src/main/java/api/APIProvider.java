@@ -1,5 +1,9 @@
 package api;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
 /**
  * Common interface for language model providers.
  */
@@ -12,4 +16,78 @@ public interface APIProvider {
      * @throws Exception if the API call fails.
      */
     String generateCompletion(String prompt) throws Exception;
+
+    /**
+     * Streams a completion for the given prompt as text deltas, in order.
+     * The request starts when the subscriber first requests items; cancelling
+     * the subscription aborts it. Providers without a streaming endpoint
+     * emit the whole completion as a single item.
+     *
+     * @param prompt The prompt to send.
+     * @return A cold publisher of token deltas.
+     */
+    default Flow.Publisher<String> streamCompletion(String prompt) {
+        return new SingleCompletionPublisher(() -> generateCompletion(prompt));
+    }
+
+    /**
+     * Whether {@link #generateCompletions} and {@link #streamCompletions} can return
+     * several candidates from a single request.
+     */
+    default boolean supportsMultipleCandidates() {
+        return false;
+    }
+
+    /**
+     * Generate up to {@code n} alternative completions for the same prompt.
+     * Providers that support multiple candidates fetch them in one round trip;
+     * the default falls back to {@code n} parallel {@link #generateCompletion} calls.
+     *
+     * @param prompt The prompt to send.
+     * @param n      Number of candidates wanted.
+     * @return The candidates that were generated successfully, in order.
+     * @throws Exception if no candidate could be generated.
+     */
+    default List<String> generateCompletions(String prompt, int n) throws Exception {
+        return CompletionCollector.generateInParallel(this, prompt, n);
+    }
+
+    /**
+     * Streams {@code n} candidates for the same prompt as indexed deltas.
+     * Providers that support multiple candidates stream them from one request;
+     * the default falls back to {@code n} parallel {@link #streamCompletion} calls.
+     *
+     * @param prompt The prompt to send.
+     * @param n      Number of candidates wanted.
+     * @return A cold publisher of deltas tagged with their candidate index.
+     */
+    default Flow.Publisher<CandidateDelta> streamCompletions(String prompt, int n) {
+        return new ParallelCandidatesPublisher(this, prompt, n);
+    }
+
+    /**
+     * Requests up to {@code n} candidates without blocking. Cancelling the returned
+     * future aborts the in-flight HTTP calls.
+     *
+     * @param prompt The prompt to send.
+     * @param n      Number of candidates wanted.
+     * @return A future of the non-empty candidates, in order; fails if none could be generated.
+     */
+    default CompletableFuture<List<String>> requestCompletions(String prompt, int n) {
+        return CompletionCollector.collect(this, prompt, n);
+    }
+
+    /**
+     * Identifies the backend and model, e.g. "openai/gpt-4o". Used to key cached results.
+     */
+    default String getModelId() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * Opens a connection to the provider ahead of the first request.
+     * Providers without a pooled transport can ignore this.
+     */
+    default void warmUp() {
+    }
 }
@@ -0,0 +1,42 @@
+package api;
+
+import java.util.List;
+import java.util.concurrent.Flow;
+
+/**
+ * Replays a fixed list of items, honouring demand. Used to serve cached results
+ * through the streaming API.
+ */
+class CachedPublisher<T> implements Flow.Publisher<T> {
+
+    private final List<T> items;
+
+    CachedPublisher(List<T> items) {
+        this.items = items;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        subscriber.onSubscribe(new Flow.Subscription() {
+            private int next = 0;
+            private boolean done = false;
+
+            @Override
+            public synchronized void request(long n) {
+                if (done) return;
+                while (n-- > 0 && next < items.size()) {
+                    subscriber.onNext(items.get(next++));
+                }
+                if (next == items.size()) {
+                    done = true;
+                    subscriber.onComplete();
+                }
+            }
+
+            @Override
+            public synchronized void cancel() {
+                done = true;
+            }
+        });
+    }
+}
@@ -0,0 +1,97 @@
+package api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+/**
+ * Serves repeated prompts from a {@link CompletionCache} instead of the network.
+ * <p>
+ * Blocking and streaming calls share cache entries: a streamed completion is recorded
+ * once it finishes, and a hit is replayed as a single delta per candidate.
+ * Error texts and cancelled or failed streams are never cached.
+ */
+public class CachingProvider extends ForwardingProvider {
+
+    private final CompletionCache cache;
+
+    public CachingProvider(APIProvider delegate, CompletionCache cache) {
+        super(delegate);
+        this.cache = cache;
+    }
+
+    public CompletionCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public String generateCompletion(String prompt) throws Exception {
+        String key = CompletionCache.key(getModelId(), prompt, 1);
+        List<String> cached = cache.get(key);
+        if (cached != null) {
+            return cached.get(0);
+        }
+        String result = delegate.generateCompletion(prompt);
+        if (isCacheable(result)) {
+            cache.put(key, List.of(result));
+        }
+        return result;
+    }
+
+    @Override
+    public List<String> generateCompletions(String prompt, int n) throws Exception {
+        String key = CompletionCache.key(getModelId(), prompt, n);
+        List<String> cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        List<String> results = delegate.generateCompletions(prompt, n);
+        if (!results.isEmpty() && results.stream().allMatch(CachingProvider::isCacheable)) {
+            cache.put(key, results);
+        }
+        return results;
+    }
+
+    @Override
+    public Flow.Publisher<String> streamCompletion(String prompt) {
+        String key = CompletionCache.key(getModelId(), prompt, 1);
+        List<String> cached = cache.get(key);
+        if (cached != null) {
+            return new CachedPublisher<>(cached);
+        }
+        Flow.Publisher<String> upstream = delegate.streamCompletion(prompt);
+        return subscriber -> upstream.subscribe(new StreamRecorder<>(1, delta -> new CandidateDelta(0, delta),
+                subscriber, (texts, firstItemNanos, totalNanos) -> store(key, texts)));
+    }
+
+    @Override
+    public Flow.Publisher<CandidateDelta> streamCompletions(String prompt, int n) {
+        String key = CompletionCache.key(getModelId(), prompt, n);
+        List<String> cached = cache.get(key);
+        if (cached != null) {
+            List<CandidateDelta> deltas = new ArrayList<>();
+            for (int i = 0; i < cached.size(); i++) {
+                deltas.add(new CandidateDelta(i, cached.get(i)));
+            }
+            return new CachedPublisher<>(deltas);
+        }
+        Flow.Publisher<CandidateDelta> upstream = delegate.streamCompletions(prompt, n);
+        return subscriber -> upstream.subscribe(new StreamRecorder<>(n, delta -> delta,
+                subscriber, (texts, firstItemNanos, totalNanos) -> store(key, texts)));
+    }
+
+    private static boolean isCacheable(String result) {
+        return result != null && !result.isBlank();
+    }
+
+    /** Caches the texts of a finished stream, leaving out empty ones. */
+    private void store(String key, List<String> texts) {
+        List<String> results = new ArrayList<>();
+        for (String text : texts) {
+            if (isCacheable(text)) results.add(text);
+        }
+        if (!results.isEmpty()) {
+            cache.put(key, results);
+        }
+    }
+}
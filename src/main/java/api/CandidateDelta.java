@@ -0,0 +1,33 @@
+package api;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A text delta belonging to one of several candidates generated by a single request.
+ *
+ * @param index Zero-based candidate index.
+ * @param text  The text appended to that candidate.
+ */
+public record CandidateDelta(int index, String text) {
+
+    /**
+     * Concatenates deltas per candidate, in index order, dropping candidates without text.
+     */
+    static List<String> join(List<CandidateDelta> deltas) {
+        List<StringBuilder> texts = new ArrayList<>();
+        for (CandidateDelta delta : deltas) {
+            while (texts.size() <= delta.index()) {
+                texts.add(new StringBuilder());
+            }
+            texts.get(delta.index()).append(delta.text());
+        }
+        List<String> result = new ArrayList<>(texts.size());
+        for (StringBuilder text : texts) {
+            if (text.length() > 0) {
+                result.add(text.toString());
+            }
+        }
+        return result;
+    }
+}
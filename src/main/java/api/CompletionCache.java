@@ -0,0 +1,331 @@
+package api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Two-tier cache of completion results, keyed by a hash of model, candidate count and prompt.
+ * <p>
+ * The memory tier is an LRU map. The disk tier is an append-only log in a memory-mapped
+ * file whose size is capped; when it fills up, live entries are compacted to the front,
+ * newest first. Entries older than the TTL are treated as absent in both tiers.
+ * <p>
+ * Record layout: {@code int length | long createdMillis | byte[32] key | int count |
+ * count x (int length | UTF-8 bytes) | int RECORD_MAGIC}. The leading length is written last
+ * and must point at the magic, so a record torn by a crash is ignored on the next start.
+ */
+public final class CompletionCache implements Closeable {
+
+    private static final int FILE_MAGIC = 0x53474331; // "SGC1"
+    private static final int RECORD_MAGIC = 0x52454331; // "REC1"
+    private static final int HEADER_BYTES = 4;
+    private static final int KEY_BYTES = 32;
+
+    private final int maxMemoryEntries;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Entry> memory;
+
+    // Disk tier; null when the file could not be opened (e.g. locked by another instance)
+    private final RandomAccessFile file;
+    private final FileLock lock;
+    private final MappedByteBuffer buffer;
+    private final Map<String, Integer> diskIndex = new HashMap<>();
+    private int writePosition = HEADER_BYTES;
+
+    private long memoryHits = 0;
+    private long diskHits = 0;
+    private long misses = 0;
+
+    private record Entry(long createdMillis, List<String> values) {
+    }
+
+    /**
+     * @param diskFile         Log file; created if missing. Pass null for a memory-only cache.
+     * @param maxMemoryEntries Size cap of the LRU tier.
+     * @param maxDiskBytes     Size cap of the disk tier.
+     * @param ttl              How long results stay valid.
+     */
+    public CompletionCache(Path diskFile, int maxMemoryEntries, long maxDiskBytes, Duration ttl) {
+        this.maxMemoryEntries = Math.max(1, maxMemoryEntries);
+        this.ttlMillis = ttl.toMillis();
+        this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > CompletionCache.this.maxMemoryEntries;
+            }
+        };
+
+        RandomAccessFile raf = null;
+        FileLock fileLock = null;
+        MappedByteBuffer mapped = null;
+        if (diskFile != null) {
+            try {
+                raf = new RandomAccessFile(diskFile.toFile(), "rw");
+                FileChannel channel = raf.getChannel();
+                fileLock = channel.tryLock();
+                if (fileLock == null) {
+                    throw new IOException("locked by another process");
+                }
+                long capacity = Math.max(64 * 1024, Math.min(maxDiskBytes, Integer.MAX_VALUE));
+                boolean fresh = channel.size() < HEADER_BYTES;
+                mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+                if (fresh || mapped.getInt(0) != FILE_MAGIC) {
+                    mapped.putInt(0, FILE_MAGIC);
+                    mapped.putInt(HEADER_BYTES, 0);
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Completion cache disk tier disabled: " + e.getMessage());
+                closeQuietly(raf);
+                raf = null;
+                fileLock = null;
+                mapped = null;
+            }
+        }
+        this.file = raf;
+        this.lock = fileLock;
+        this.buffer = mapped;
+        if (buffer != null) {
+            scan();
+        }
+    }
+
+    /**
+     * Builds the cache key for a request. Line endings and trailing whitespace of the
+     * prompt are normalised so cosmetic differences still hit.
+     */
+    public static String key(String modelId, String prompt, int candidates) {
+        String normalized = prompt.replace("\r\n", "\n").stripTrailing();
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((modelId + '\u0000' + candidates + '\u0000').getBytes(StandardCharsets.UTF_8));
+            byte[] hash = digest.digest(normalized.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(KEY_BYTES * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * @return The cached values, or null on a miss or when the entry has expired.
+     */
+    public synchronized List<String> get(String key) {
+        long now = System.currentTimeMillis();
+        Entry entry = memory.get(key);
+        if (entry != null) {
+            if (!isExpired(entry, now)) {
+                memoryHits++;
+                return entry.values();
+            }
+            memory.remove(key);
+        }
+        Integer offset = diskIndex.get(key);
+        if (offset != null) {
+            entry = readRecord(offset);
+            if (entry != null && !isExpired(entry, now)) {
+                diskHits++;
+                memory.put(key, entry); // Promote
+                return entry.values();
+            }
+            diskIndex.remove(key);
+        }
+        misses++;
+        return null;
+    }
+
+    public synchronized void put(String key, List<String> values) {
+        if (values == null || values.isEmpty()) {
+            return;
+        }
+        Entry entry = new Entry(System.currentTimeMillis(), List.copyOf(values));
+        memory.put(key, entry);
+        if (buffer != null) {
+            append(key, entry);
+        }
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(memoryHits, diskHits, misses, memory.size(), diskIndex.size(), writePosition);
+    }
+
+    /** Flushes the disk tier and releases the file. */
+    @Override
+    public synchronized void close() {
+        if (buffer != null) {
+            buffer.force();
+        }
+        try {
+            if (lock != null) lock.release();
+        } catch (IOException ignored) {
+        }
+        closeQuietly(file);
+    }
+
+    /**
+     * Snapshot of the cache counters.
+     */
+    public record Stats(long memoryHits, long diskHits, long misses,
+                        int memoryEntries, int diskEntries, long diskBytes) {
+
+        public double hitRate() {
+            long total = memoryHits + diskHits + misses;
+            return total == 0 ? 0 : (double) (memoryHits + diskHits) / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("memoryHits=%d diskHits=%d misses=%d hitRate=%.1f%% memory=%d disk=%d (%d KB)",
+                    memoryHits, diskHits, misses, hitRate() * 100, memoryEntries, diskEntries, diskBytes / 1024);
+        }
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.createdMillis() > ttlMillis;
+    }
+
+    /** Rebuilds the disk index from the log; later records for a key win. */
+    private void scan() {
+        int position = HEADER_BYTES;
+        while (true) {
+            int length = recordLength(position);
+            if (length <= 0) break;
+            diskIndex.put(readKey(position), position);
+            position += length;
+        }
+        writePosition = position;
+    }
+
+    /** Length of the complete record at {@code position}, or 0 if there is none. */
+    private int recordLength(int position) {
+        if (position + 4 > buffer.capacity()) return 0;
+        int length = buffer.getInt(position);
+        if (length < 4 + 8 + KEY_BYTES + 4 + 4 || position + length > buffer.capacity()) return 0;
+        return buffer.getInt(position + length - 4) == RECORD_MAGIC ? length : 0;
+    }
+
+    private String readKey(int position) {
+        StringBuilder hex = new StringBuilder(KEY_BYTES * 2);
+        for (int i = 0; i < KEY_BYTES; i++) {
+            byte b = buffer.get(position + 12 + i);
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private Entry readRecord(int position) {
+        if (recordLength(position) == 0) return null;
+        try {
+            long created = buffer.getLong(position + 4);
+            int p = position + 12 + KEY_BYTES;
+            int count = buffer.getInt(p);
+            p += 4;
+            List<String> values = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int length = buffer.getInt(p);
+                byte[] bytes = new byte[length];
+                buffer.get(p + 4, bytes);
+                values.add(new String(bytes, StandardCharsets.UTF_8));
+                p += 4 + length;
+            }
+            return new Entry(created, values);
+        } catch (IndexOutOfBoundsException | BufferUnderflowException | NegativeArraySizeException e) {
+            return null; // Corrupt record
+        }
+    }
+
+    private byte[] encode(String key, Entry entry) {
+        List<byte[]> texts = new ArrayList<>();
+        int length = 4 + 8 + KEY_BYTES + 4 + 4;
+        for (String value : entry.values()) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            texts.add(bytes);
+            length += 4 + bytes.length;
+        }
+        ByteBuffer record = ByteBuffer.allocate(length);
+        record.putInt(length).putLong(entry.createdMillis());
+        for (int i = 0; i < KEY_BYTES; i++) {
+            record.put((byte) Integer.parseInt(key.substring(i * 2, i * 2 + 2), 16));
+        }
+        record.putInt(texts.size());
+        for (byte[] bytes : texts) {
+            record.putInt(bytes.length).put(bytes);
+        }
+        record.putInt(RECORD_MAGIC);
+        return record.array();
+    }
+
+    private void append(String key, Entry entry) {
+        byte[] record = encode(key, entry);
+        if (record.length > (buffer.capacity() - HEADER_BYTES) / 2) {
+            return; // Too large for the disk tier
+        }
+        if (writePosition + record.length + 4 > buffer.capacity()) {
+            compact();
+        }
+        write(record);
+        diskIndex.put(key, writePosition - record.length);
+    }
+
+    private void write(byte[] record) {
+        int start = writePosition;
+        // Body first, length last, so the record only becomes visible once complete
+        buffer.put(start + 4, record, 4, record.length - 4);
+        if (start + record.length + 4 <= buffer.capacity()) {
+            buffer.putInt(start + record.length, 0); // Terminator for the next scan
+        }
+        buffer.putInt(start, record.length);
+        writePosition = start + record.length;
+    }
+
+    /** Rewrites the live entries, newest first, until half the file is used. */
+    private void compact() {
+        long now = System.currentTimeMillis();
+        List<Map.Entry<String, Entry>> live = new ArrayList<>();
+        for (Map.Entry<String, Integer> indexed : diskIndex.entrySet()) {
+            Entry entry = readRecord(indexed.getValue());
+            if (entry != null && !isExpired(entry, now)) {
+                live.add(Map.entry(indexed.getKey(), entry));
+            }
+        }
+        live.sort(Comparator.comparingLong((Map.Entry<String, Entry> e) -> e.getValue().createdMillis()).reversed());
+
+        diskIndex.clear();
+        writePosition = HEADER_BYTES;
+        buffer.putInt(HEADER_BYTES, 0);
+        int budget = (buffer.capacity() - HEADER_BYTES) / 2;
+        for (Map.Entry<String, Entry> e : live) {
+            byte[] record = encode(e.getKey(), e.getValue());
+            if (writePosition - HEADER_BYTES + record.length > budget) break;
+            write(record);
+            diskIndex.put(e.getKey(), writePosition - record.length);
+        }
+    }
+
+    private static void closeQuietly(RandomAccessFile raf) {
+        if (raf == null) return;
+        try {
+            raf.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
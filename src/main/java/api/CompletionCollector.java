@@ -0,0 +1,152 @@
+package api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+
+/**
+ * Collects the streamed candidates of a provider into a list. Cancelling the returned
+ * future cancels the underlying streams, aborting their HTTP calls.
+ */
+final class CompletionCollector {
+
+    private final StringBuilder[] texts;
+    private final List<Flow.Subscription> subscriptions = new ArrayList<>();
+    private final CompletableFuture<List<String>> result = new CompletableFuture<>();
+    private int pendingStreams;
+    private Throwable lastError;
+
+    private CompletionCollector(int n, int streams) {
+        this.texts = new StringBuilder[n];
+        this.pendingStreams = streams;
+        result.whenComplete((r, ex) -> {
+            if (result.isCancelled()) {
+                cancelAll();
+            }
+        });
+    }
+
+    static CompletableFuture<List<String>> collect(APIProvider provider, String prompt, int n) {
+        int count = Math.max(1, n);
+        if (provider.supportsMultipleCandidates() && count > 1) {
+            CompletionCollector collector = new CompletionCollector(count, 1);
+            provider.streamCompletions(prompt, count).subscribe(collector.new Stream<>(-1));
+            return collector.result;
+        }
+        CompletionCollector collector = new CompletionCollector(count, count);
+        for (int i = 0; i < count; i++) {
+            provider.streamCompletion(prompt).subscribe(collector.new Stream<>(i));
+        }
+        return collector.result;
+    }
+
+    /**
+     * Runs {@code n} blocking {@link APIProvider#generateCompletion} calls in parallel and
+     * returns the ones that succeeded; rethrows the last error if none did.
+     */
+    static List<String> generateInParallel(APIProvider provider, String prompt, int n) throws Exception {
+        if (n <= 1) {
+            return List.of(provider.generateCompletion(prompt));
+        }
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return provider.generateCompletion(prompt);
+                } catch (Exception ex) {
+                    throw new CompletionException(ex);
+                }
+            }));
+        }
+        List<String> results = new ArrayList<>();
+        Exception lastError = null;
+        for (CompletableFuture<String> future : futures) {
+            try {
+                results.add(future.join());
+            } catch (CompletionException ex) {
+                lastError = ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+            }
+        }
+        if (results.isEmpty() && lastError != null) {
+            throw lastError;
+        }
+        return results;
+    }
+
+    private void cancelAll() {
+        List<Flow.Subscription> subs;
+        synchronized (this) {
+            subs = new ArrayList<>(subscriptions);
+        }
+        subs.forEach(Flow.Subscription::cancel);
+    }
+
+    private synchronized void append(int index, String text) {
+        if (index < 0 || index >= texts.length) return;
+        if (texts[index] == null) texts[index] = new StringBuilder();
+        texts[index].append(text);
+    }
+
+    private void finish(Throwable error) {
+        List<String> candidates = new ArrayList<>();
+        Throwable failure;
+        synchronized (this) {
+            if (error != null) lastError = error;
+            if (--pendingStreams > 0) return;
+            for (StringBuilder text : texts) {
+                if (text != null && text.length() > 0) candidates.add(text.toString());
+            }
+            failure = lastError;
+        }
+        if (candidates.isEmpty() && failure != null) {
+            result.completeExceptionally(failure);
+        } else {
+            result.complete(candidates);
+        }
+    }
+
+    /**
+     * Subscriber for one stream; a fixed index means every delta belongs to that candidate,
+     * -1 means the deltas carry their own index.
+     */
+    private class Stream<T> implements Flow.Subscriber<T> {
+        private final int index;
+
+        Stream(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            synchronized (CompletionCollector.this) {
+                subscriptions.add(subscription);
+            }
+            if (result.isCancelled()) {
+                subscription.cancel();
+                return;
+            }
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(T item) {
+            if (item instanceof CandidateDelta delta) {
+                append(delta.index(), delta.text());
+            } else {
+                append(index, String.valueOf(item));
+            }
+        }
+
+        @Override
+        public void onError(Throwable ex) {
+            finish(ex);
+        }
+
+        @Override
+        public void onComplete() {
+            finish(null);
+        }
+    }
+}
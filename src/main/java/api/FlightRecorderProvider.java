@@ -0,0 +1,159 @@
+package api;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Emits a {@link ProviderCallEvent} for every request to the delegate, so provider latency
+ * and payload sizes line up with UI and disk activity in a flight recording. When the event
+ * is disabled calls go straight to the delegate.
+ * <p>
+ * Sits directly on the backend, so each hedge and retry is its own event.
+ */
+public class FlightRecorderProvider extends ForwardingProvider {
+
+    private final String purpose;
+
+    public FlightRecorderProvider(APIProvider delegate, String purpose) {
+        super(delegate);
+        this.purpose = purpose;
+    }
+
+    @Override
+    public String generateCompletion(String prompt) throws Exception {
+        ProviderCallEvent event = begin("completion", prompt, 1);
+        if (event == null) return delegate.generateCompletion(prompt);
+        try {
+            String result = delegate.generateCompletion(prompt);
+            event.responseBytes = utf8Length(result);
+            event.outcome = "completed";
+            return result;
+        } catch (Exception e) {
+            event.outcome = "failed";
+            throw e;
+        } finally {
+            event.commit();
+        }
+    }
+
+    @Override
+    public List<String> generateCompletions(String prompt, int n) throws Exception {
+        ProviderCallEvent event = begin("completions", prompt, n);
+        if (event == null) return delegate.generateCompletions(prompt, n);
+        try {
+            List<String> results = delegate.generateCompletions(prompt, n);
+            for (String result : results) {
+                event.responseBytes += utf8Length(result);
+            }
+            event.outcome = "completed";
+            return results;
+        } catch (Exception e) {
+            event.outcome = "failed";
+            throw e;
+        } finally {
+            event.commit();
+        }
+    }
+
+    @Override
+    public Flow.Publisher<String> streamCompletion(String prompt) {
+        Flow.Publisher<String> upstream = delegate.streamCompletion(prompt);
+        return subscriber -> subscribe(upstream, "stream", prompt, 1, subscriber, delta -> delta);
+    }
+
+    @Override
+    public Flow.Publisher<CandidateDelta> streamCompletions(String prompt, int n) {
+        Flow.Publisher<CandidateDelta> upstream = delegate.streamCompletions(prompt, n);
+        return subscriber -> subscribe(upstream, "stream candidates", prompt, n, subscriber, CandidateDelta::text);
+    }
+
+    private <T> void subscribe(Flow.Publisher<T> upstream, String operation, String prompt, int n,
+                               Flow.Subscriber<? super T> subscriber, Function<T, String> text) {
+        ProviderCallEvent event = begin(operation, prompt, n);
+        if (event == null) {
+            upstream.subscribe(subscriber);
+            return;
+        }
+        upstream.subscribe(new RecordingSubscriber<>(event, subscriber, text));
+    }
+
+    /** Starts an event for the call, or returns null if nobody is recording it. */
+    private ProviderCallEvent begin(String operation, String prompt, int n) {
+        ProviderCallEvent event = new ProviderCallEvent();
+        if (!event.isEnabled()) return null;
+        event.begin();
+        event.modelId = getModelId();
+        event.purpose = purpose;
+        event.operation = operation;
+        event.candidates = n;
+        event.promptBytes = utf8Length(prompt);
+        return event;
+    }
+
+    private static long utf8Length(String text) {
+        return text == null ? 0 : text.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * Adds up the streamed bytes and commits the event once, however the stream ends.
+     */
+    private static class RecordingSubscriber<T> implements Flow.Subscriber<T> {
+        private final ProviderCallEvent event;
+        private final Flow.Subscriber<? super T> downstream;
+        private final Function<T, String> text;
+        private final AtomicBoolean committed = new AtomicBoolean();
+        private volatile long responseBytes = 0;
+
+        RecordingSubscriber(ProviderCallEvent event, Flow.Subscriber<? super T> downstream, Function<T, String> text) {
+            this.event = event;
+            this.downstream = downstream;
+            this.text = text;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            downstream.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    subscription.request(n);
+                }
+
+                @Override
+                public void cancel() {
+                    subscription.cancel();
+                    commit("cancelled");
+                }
+            });
+        }
+
+        @Override
+        public void onNext(T item) {
+            // Items arrive one at a time, so the unsynchronized increment is safe
+            responseBytes += utf8Length(text.apply(item));
+            downstream.onNext(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            commit("failed");
+            downstream.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            commit("completed");
+            downstream.onComplete();
+        }
+
+        private void commit(String outcome) {
+            if (committed.compareAndSet(false, true)) {
+                event.responseBytes = responseBytes;
+                event.outcome = outcome;
+                event.commit();
+            }
+        }
+    }
+}
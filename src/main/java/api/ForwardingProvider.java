@@ -0,0 +1,59 @@
+package api;
+
+import java.util.List;
+import java.util.concurrent.Flow;
+
+/**
+ * Base class for providers that decorate another provider. Every call is passed
+ * to the delegate; subclasses override the calls they intercept.
+ * <p>
+ * {@link #requestCompletions} is deliberately not forwarded: its default collects
+ * from this provider's streams, so it goes through the decorator as well.
+ */
+public abstract class ForwardingProvider implements APIProvider {
+
+    protected final APIProvider delegate;
+
+    protected ForwardingProvider(APIProvider delegate) {
+        this.delegate = delegate;
+    }
+
+    public APIProvider getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public String generateCompletion(String prompt) throws Exception {
+        return delegate.generateCompletion(prompt);
+    }
+
+    @Override
+    public Flow.Publisher<String> streamCompletion(String prompt) {
+        return delegate.streamCompletion(prompt);
+    }
+
+    @Override
+    public boolean supportsMultipleCandidates() {
+        return delegate.supportsMultipleCandidates();
+    }
+
+    @Override
+    public List<String> generateCompletions(String prompt, int n) throws Exception {
+        return delegate.generateCompletions(prompt, n);
+    }
+
+    @Override
+    public Flow.Publisher<CandidateDelta> streamCompletions(String prompt, int n) {
+        return delegate.streamCompletions(prompt, n);
+    }
+
+    @Override
+    public String getModelId() {
+        return delegate.getModelId();
+    }
+
+    @Override
+    public void warmUp() {
+        delegate.warmUp();
+    }
+}
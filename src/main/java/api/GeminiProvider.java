@@ -1,87 +1,186 @@
 package api;
 
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.time.Duration;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
 
 public class GeminiProvider implements APIProvider {
+    private static final String DEFAULT_BASE_URL = "https://generativelanguage.googleapis.com";
+    private static final int MAX_CANDIDATES = 8; // API limit for candidateCount
+
     private final String apiKey;
     private final String model; // e.g., "gemini-2.0-flash" or "gemini-pro"
+    private final String baseUrl;
+    private final ProviderTransport transport;
 
     public GeminiProvider(String apiKey, String model) {
+        this(apiKey, model, DEFAULT_BASE_URL);
+    }
+
+    public GeminiProvider(String apiKey, String model, String baseUrl) {
         this.apiKey = apiKey;
         this.model = model;
+        this.baseUrl = baseUrl;
+        this.transport = ProviderTransport.forProvider("gemini", baseUrl);
+    }
+
+    @Override
+    public String getModelId() {
+        return "gemini/" + model;
+    }
+
+    @Override
+    public void warmUp() {
+        transport.warmUp();
     }
 
     @Override
     public String generateCompletion(String prompt) throws Exception {
-        HttpClient client = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofSeconds(10))
-                .build();
+        // Return the first candidate's text
+        List<String> candidates = post(prompt, 1);
+        return candidates.isEmpty() ? "" : candidates.get(0);
+    }
+
+    @Override
+    public boolean supportsMultipleCandidates() {
+        return true;
+    }
+
+    /**
+     * Requests all candidates in one call using {@code generationConfig.candidateCount}.
+     */
+    @Override
+    public List<String> generateCompletions(String prompt, int n) throws Exception {
+        return post(prompt, Math.max(1, Math.min(n, MAX_CANDIDATES)));
+    }
+
+    /**
+     * Streams the completion through the {@code streamGenerateContent} SSE endpoint.
+     */
+    @Override
+    public Flow.Publisher<String> streamCompletion(String prompt) {
+        return new SsePublisher<>(transport, buildRequest(prompt, 1, true), chunk -> {
+            // With one candidate, every part belongs to it
+            StringBuilder delta = new StringBuilder();
+            for (CandidateDelta part : readResponse(JsonReader.of(chunk))) {
+                delta.append(part.text());
+            }
+            return delta.length() == 0 ? List.of() : List.of(delta.toString());
+        });
+    }
+
+    @Override
+    public Flow.Publisher<CandidateDelta> streamCompletions(String prompt, int n) {
+        return new SsePublisher<>(transport, buildRequest(prompt, Math.min(n, MAX_CANDIDATES), true),
+                chunk -> readResponse(JsonReader.of(chunk)));
+    }
+
+    /**
+     * Sends a blocking request and reads the candidates straight from the response stream.
+     */
+    private List<String> post(String prompt, int candidateCount) throws IOException {
+        try (Response response = transport.newCall(buildRequest(prompt, candidateCount, false)).execute()) {
+            ResponseBody body = response.body();
+            if (!response.isSuccessful() || body == null) {
+                throw ProviderException.fromResponse(response);
+            }
+            return CandidateDelta.join(readResponse(new JsonReader(body.source())));
+        }
+    }
 
+    private Request buildRequest(String prompt, int candidateCount, boolean stream) {
         // Build the endpoint URL using the chosen Gemini model.
-        String endpoint = "https://generativelanguage.googleapis.com/v1beta/models/" 
-                + model + ":generateContent?key=" + apiKey;
-
-        // Construct the JSON payload.
-        String jsonPayload = "{"
-                + "\"contents\": [ { \"parts\": [ { \"text\": \"" + 
-                prompt.replace("\"", "\\\"").replace("\n", "\\n") + "\" } ] } ],"
-                + "\"generationConfig\": {"
-                + "\"temperature\": 0.4,"
-                + "\"maxOutputTokens\": 150,"
-                + "\"topP\": 0.95"
-                + "}"
-                + "}";
-                
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(new URI(endpoint))
-                .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(jsonPayload))
+        String endpoint = baseUrl + "/v1beta/models/" + model
+                + (stream ? ":streamGenerateContent?alt=sse&key=" : ":generateContent?key=") + apiKey;
+        return new Request.Builder()
+                .url(endpoint)
+                .post(new JsonBody(json -> json.beginObject()
+                        .name("contents").beginArray()
+                        .beginObject().name("parts").beginArray()
+                        .beginObject().name("text").value(prompt).endObject()
+                        .endArray().endObject()
+                        .endArray()
+                        .name("generationConfig").beginObject()
+                        .name("temperature").value(0.4)
+                        .name("maxOutputTokens").value(150)
+                        .name("topP").value(0.95)
+                        .name("candidateCount").value(candidateCount)
+                        .endObject()
+                        .endObject()))
                 .build();
-
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-        String responseBody = response.body();
-        
-        // Extract the text from the response
-        return extractTextFromResponse(responseBody);
     }
-    
+
     /**
-     * Extracts the actual text content from the Gemini API response
+     * Reads a response, or one streamed chunk (which has the same shape), into the text of
+     * each candidate. A candidate's index is taken from its "index" field, or from its
+     * position when the field is omitted.
+     *
+     * @throws ProviderException if the document is an error report.
      */
-    private String extractTextFromResponse(String responseBody) {
-        // First check for error
-        if (responseBody.contains("error")) {
-            Pattern errorPattern = Pattern.compile("\"message\":\\s*\"([^\"]+)\"");
-            Matcher errorMatcher = errorPattern.matcher(responseBody);
-            if (errorMatcher.find()) {
-                return "API Error: " + errorMatcher.group(1);
+    private static List<CandidateDelta> readResponse(JsonReader reader) throws IOException {
+        List<CandidateDelta> result = new ArrayList<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "candidates" -> {
+                    reader.beginArray();
+                    for (int position = 0; reader.hasNext(); position++) {
+                        readCandidate(reader, position, result);
+                    }
+                    reader.endArray();
+                }
+                case "error" -> throw new ProviderException(0, ProviderException.readErrorObject(reader), 0);
+                default -> reader.skipValue();
             }
-            return "Unknown API Error";
         }
-        
-        // Try to extract text using regex
-        Pattern textPattern = Pattern.compile("\"text\":\\s*\"([^\"]+)\"");
-        Matcher textMatcher = textPattern.matcher(responseBody);
-        if (textMatcher.find()) {
-            return textMatcher.group(1).replace("\\n", "\n").replace("\\\"", "\"");
+        reader.endObject();
+        return result;
+    }
+
+    /** Reads {@code {"content": {"parts": [{"text": ...}]}, "index": n}}. */
+    private static void readCandidate(JsonReader reader, int position, List<CandidateDelta> result) throws IOException {
+        int index = position;
+        StringBuilder text = new StringBuilder();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "index" -> index = reader.nextInt();
+                case "content" -> readContent(reader, text);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (text.length() > 0) {
+            result.add(new CandidateDelta(index, text.toString()));
         }
-        
-        // If we can't find with regex, look for specific markers in the JSON
-        int textIndex = responseBody.indexOf("\"text\":");
-        if (textIndex >= 0) {
-            int startQuote = responseBody.indexOf("\"", textIndex + 7);
-            int endQuote = responseBody.indexOf("\"", startQuote + 1);
-            if (startQuote >= 0 && endQuote > startQuote) {
-                return responseBody.substring(startQuote + 1, endQuote).replace("\\n", "\n").replace("\\\"", "\"");
+    }
+
+    private static void readContent(JsonReader reader, StringBuilder text) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("parts")) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            while (reader.hasNext()) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (reader.nextName().equals("text") && reader.peek() == JsonReader.Token.STRING) {
+                        text.append(reader.nextString());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
             }
+            reader.endArray();
         }
-        // If all else fails, return the raw response
-        return responseBody;
+        reader.endObject();
     }
 }
@@ -0,0 +1,210 @@
+package api;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+
+/**
+ * A provider view whose requests pass through a {@link ProviderGovernor} at a fixed priority.
+ * Blocking calls wait for admission on the calling thread; streams are admitted when first
+ * requested and can be pre-empted, in which case the subscriber receives a
+ * {@link CancellationException}.
+ */
+class GovernedProvider extends ForwardingProvider {
+
+    private final ProviderGovernor governor;
+    private final RequestPriority priority;
+
+    GovernedProvider(APIProvider delegate, ProviderGovernor governor, RequestPriority priority) {
+        super(delegate);
+        this.governor = governor;
+        this.priority = priority;
+    }
+
+    @Override
+    public String generateCompletion(String prompt) throws Exception {
+        ProviderGovernor.Ticket ticket = admit(prompt, 1);
+        try {
+            String result = delegate.generateCompletion(prompt);
+            governor.reportSuccess();
+            return result;
+        } catch (Exception ex) {
+            governor.reportFailure(ex);
+            throw ex;
+        } finally {
+            ticket.release();
+        }
+    }
+
+    @Override
+    public List<String> generateCompletions(String prompt, int n) throws Exception {
+        if (!delegate.supportsMultipleCandidates()) {
+            return CompletionCollector.generateInParallel(this, prompt, n); // Each call is admitted separately
+        }
+        ProviderGovernor.Ticket ticket = admit(prompt, n);
+        try {
+            List<String> results = delegate.generateCompletions(prompt, n);
+            governor.reportSuccess();
+            return results;
+        } catch (Exception ex) {
+            governor.reportFailure(ex);
+            throw ex;
+        } finally {
+            ticket.release();
+        }
+    }
+
+    @Override
+    public Flow.Publisher<String> streamCompletion(String prompt) {
+        return subscriber -> new GatedSubscription<>(delegate.streamCompletion(prompt),
+                ProviderGovernor.estimateTokens(prompt, 1), subscriber).start();
+    }
+
+    @Override
+    public Flow.Publisher<CandidateDelta> streamCompletions(String prompt, int n) {
+        return subscriber -> new GatedSubscription<>(delegate.streamCompletions(prompt, n),
+                ProviderGovernor.estimateTokens(prompt, n), subscriber).start();
+    }
+
+    private ProviderGovernor.Ticket admit(String prompt, int candidates) throws Exception {
+        ProviderGovernor.Ticket ticket = governor.enqueue(priority, ProviderGovernor.estimateTokens(prompt, candidates));
+        try {
+            ticket.admission().get();
+            return ticket;
+        } catch (InterruptedException ex) {
+            ticket.release();
+            Thread.currentThread().interrupt();
+            throw ex;
+        } catch (ExecutionException | CancellationException ex) {
+            ticket.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Holds a stream back until the governor admits it, then relays it to the subscriber.
+     * Cancelling before admission just leaves the queue.
+     */
+    private class GatedSubscription<T> implements Flow.Subscription, Flow.Subscriber<T> {
+        private final Flow.Publisher<T> upstream;
+        private final int tokens;
+        private final Flow.Subscriber<? super T> downstream;
+        private final Object lock = new Object();
+        private ProviderGovernor.Ticket ticket;
+        private Flow.Subscription upstreamSubscription;
+        private long pendingDemand = 0;
+        private boolean requested = false;
+        private boolean done = false;
+
+        GatedSubscription(Flow.Publisher<T> upstream, int tokens, Flow.Subscriber<? super T> downstream) {
+            this.upstream = upstream;
+            this.tokens = tokens;
+            this.downstream = downstream;
+        }
+
+        void start() {
+            downstream.onSubscribe(this);
+        }
+
+        @Override
+        public void request(long n) {
+            Flow.Subscription forward;
+            boolean enqueue = false;
+            synchronized (lock) {
+                if (done) return;
+                forward = upstreamSubscription;
+                if (forward == null) {
+                    pendingDemand = (pendingDemand + n < 0) ? Long.MAX_VALUE : pendingDemand + n;
+                    enqueue = !requested;
+                    requested = true;
+                }
+            }
+            if (forward != null) {
+                forward.request(n);
+                return;
+            }
+            if (enqueue) {
+                ProviderGovernor.Ticket t = governor.enqueue(priority, tokens);
+                t.onPreempt(this::preempt);
+                boolean cancelled;
+                synchronized (lock) {
+                    ticket = t;
+                    cancelled = done;
+                }
+                if (cancelled) {
+                    t.release(); // Cancelled while being queued
+                    return;
+                }
+                t.admission().thenRun(() -> upstream.subscribe(this));
+            }
+        }
+
+        @Override
+        public void cancel() {
+            Flow.Subscription upstreamSub;
+            ProviderGovernor.Ticket t;
+            synchronized (lock) {
+                if (done) return;
+                done = true;
+                upstreamSub = upstreamSubscription;
+                t = ticket;
+            }
+            if (upstreamSub != null) upstreamSub.cancel();
+            if (t != null) t.release();
+        }
+
+        private void preempt() {
+            cancel();
+            downstream.onError(new CancellationException("Pre-empted by a higher-priority request"));
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            long demand;
+            synchronized (lock) {
+                if (done) {
+                    subscription.cancel();
+                    return;
+                }
+                upstreamSubscription = subscription;
+                demand = pendingDemand;
+                pendingDemand = 0;
+            }
+            if (demand > 0) subscription.request(demand);
+        }
+
+        @Override
+        public void onNext(T item) {
+            downstream.onNext(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            if (!finish()) return;
+            Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                    ? throwable.getCause() : throwable;
+            governor.reportFailure(cause);
+            downstream.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            if (!finish()) return;
+            governor.reportSuccess();
+            downstream.onComplete();
+        }
+
+        private boolean finish() {
+            ProviderGovernor.Ticket t;
+            synchronized (lock) {
+                if (done) return false;
+                done = true;
+                t = ticket;
+            }
+            if (t != null) t.release();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package api;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Cuts the latency tail of a provider.
+ * <p>
+ * A stream that has not produced its first token by the observed p90 time-to-first-token
+ * gets a duplicate (hedge) request; whichever attempt answers first is relayed and the other
+ * is cancelled. Transient failures (5xx, timeouts) that happen before any token arrived are
+ * retried with full-jitter exponential backoff until a total deadline. Blocking calls are
+ * retried but not hedged, since a blocking call cannot be cancelled.
+ */
+public class HedgingProvider extends ForwardingProvider {
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "HedgingProvider");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final int MIN_SAMPLES = 20; // Before this, the default threshold is used
+    private static final long DEFAULT_HEDGE_MILLIS = 2000;
+    private static final long MIN_HEDGE_MILLIS = 200;
+    private static final long RETRY_BASE_MILLIS = 250;
+
+    private final String label;
+    private final long deadlineMillis;
+    // Of primary attempts only: a primary that loses to its hedge counts with the time it had run,
+    // so slow primaries keep the threshold up instead of being replaced by the faster hedges
+    private final LatencyHistogram firstTokenLatency = new LatencyHistogram();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedgesIssued = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+
+    /**
+     * @param delegate       Provider to hedge; hedges and retries go through it, so they are rate limited too.
+     * @param label          Name used in the stats, e.g. "autocomplete".
+     * @param deadlineMillis Total time budget for retries of one request.
+     */
+    public HedgingProvider(APIProvider delegate, String label, long deadlineMillis) {
+        super(delegate);
+        this.label = label;
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    @Override
+    public String generateCompletion(String prompt) throws Exception {
+        return retryBlocking(() -> delegate.generateCompletion(prompt));
+    }
+
+    @Override
+    public List<String> generateCompletions(String prompt, int n) throws Exception {
+        return retryBlocking(() -> delegate.generateCompletions(prompt, n));
+    }
+
+    @Override
+    public Flow.Publisher<String> streamCompletion(String prompt) {
+        return subscriber -> new HedgedStream<>(() -> delegate.streamCompletion(prompt), subscriber).start();
+    }
+
+    @Override
+    public Flow.Publisher<CandidateDelta> streamCompletions(String prompt, int n) {
+        return subscriber -> new HedgedStream<>(() -> delegate.streamCompletions(prompt, n), subscriber).start();
+    }
+
+    /** Current hedge threshold: the observed p90 time to first token of primary attempts. */
+    public long getHedgeThresholdMillis() {
+        if (firstTokenLatency.count() < MIN_SAMPLES) {
+            return DEFAULT_HEDGE_MILLIS;
+        }
+        return Math.max(MIN_HEDGE_MILLIS, (long) firstTokenLatency.percentileMillis(90));
+    }
+
+    public LatencyHistogram getFirstTokenLatency() {
+        return firstTokenLatency;
+    }
+
+    public Stats getStats() {
+        return new Stats(label, requests.get(), hedgesIssued.get(), hedgesWon.get(), retries.get(),
+                firstTokenLatency.percentileMillis(50), firstTokenLatency.percentileMillis(90));
+    }
+
+    /**
+     * Snapshot of the hedging counters.
+     */
+    public record Stats(String label, long requests, long hedgesIssued, long hedgesWon, long retries,
+                        double p50Millis, double p90Millis) {
+        @Override
+        public String toString() {
+            return String.format("%s: requests=%d hedges=%d won=%d retries=%d ttft p50=%.0fms p90=%.0fms",
+                    label, requests, hedgesIssued, hedgesWon, retries, p50Millis, p90Millis);
+        }
+    }
+
+    /** Failures worth another attempt: server errors and timeouts, not client errors or quota. */
+    static boolean isTransient(Throwable error) {
+        if (error instanceof CancellationException) return false;
+        if (error instanceof ProviderException pe) {
+            return pe.getStatusCode() >= 500;
+        }
+        return error instanceof InterruptedIOException; // Includes SocketTimeoutException
+    }
+
+    /** Full-jitter exponential backoff for the given attempt (1-based). */
+    private static long backoffMillis(int attempt) {
+        long ceiling = RETRY_BASE_MILLIS << Math.min(6, attempt - 1);
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private interface BlockingCall<T> {
+        T call() throws Exception;
+    }
+
+    private <T> T retryBlocking(BlockingCall<T> call) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        requests.incrementAndGet();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return call.call();
+            } catch (Exception ex) {
+                long delay = backoffMillis(attempt);
+                if (!isTransient(ex) || System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay) > deadline) {
+                    throw ex;
+                }
+                retries.incrementAndGet();
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+    /**
+     * One logical stream backed by up to two concurrent attempts (primary and hedge) and
+     * any number of sequential retries. Items are relayed only from the winning attempt,
+     * the first to produce an item.
+     */
+    private class HedgedStream<T> implements Flow.Subscription {
+        private final Supplier<Flow.Publisher<T>> source;
+        private final Flow.Subscriber<? super T> downstream;
+        private final long deadlineNanos;
+        private final List<Attempt> live = new ArrayList<>();
+        private long demand = 0;
+        private int attempts = 0;
+        private boolean started = false;
+        private boolean hedged = false;
+        private boolean done = false;
+        private Attempt winner;
+        private ScheduledFuture<?> timer;
+
+        HedgedStream(Supplier<Flow.Publisher<T>> source, Flow.Subscriber<? super T> downstream) {
+            this.source = source;
+            this.downstream = downstream;
+            this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        }
+
+        void start() {
+            downstream.onSubscribe(this);
+        }
+
+        @Override
+        public void request(long n) {
+            List<Attempt> targets;
+            boolean first;
+            synchronized (this) {
+                if (done) return;
+                demand = (demand + n < 0) ? Long.MAX_VALUE : demand + n;
+                first = !started;
+                started = true;
+                targets = new ArrayList<>(live);
+            }
+            if (first) {
+                requests.incrementAndGet();
+                launch(false);
+                return;
+            }
+            for (Attempt attempt : targets) {
+                attempt.request(n);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            List<Attempt> toCancel;
+            synchronized (this) {
+                if (done) return;
+                done = true;
+                toCancel = new ArrayList<>(live);
+                live.clear();
+                if (timer != null) timer.cancel(false);
+            }
+            toCancel.forEach(Attempt::cancel);
+        }
+
+        private void launch(boolean hedge) {
+            Attempt attempt = new Attempt(hedge);
+            synchronized (this) {
+                if (done || winner != null) return;
+                attempts++;
+                live.add(attempt);
+                if (!hedged) {
+                    long threshold = getHedgeThresholdMillis();
+                    if (timer != null) timer.cancel(false);
+                    timer = SCHEDULER.schedule(this::hedge, threshold, TimeUnit.MILLISECONDS);
+                }
+            }
+            source.get().subscribe(attempt);
+        }
+
+        private void hedge() {
+            synchronized (this) {
+                if (done || winner != null || hedged || live.size() != 1) return;
+                hedged = true;
+            }
+            hedgesIssued.incrementAndGet();
+            launch(true);
+        }
+
+        private void retryLater() {
+            SCHEDULER.schedule(() -> launch(false), backoffMillis(attempts), TimeUnit.MILLISECONDS);
+        }
+
+        /** Makes {@code attempt} the winner if there is none yet; returns the attempts to cancel. */
+        private synchronized List<Attempt> claim(Attempt attempt) {
+            if (done || (winner != null && winner != attempt)) return null;
+            List<Attempt> losers = new ArrayList<>();
+            if (winner == null) {
+                winner = attempt;
+                if (timer != null) timer.cancel(false);
+                for (Attempt other : live) {
+                    if (other != attempt) losers.add(other);
+                }
+                live.clear();
+                live.add(attempt);
+            }
+            return losers;
+        }
+
+        private class Attempt implements Flow.Subscriber<T> {
+            private final boolean hedge;
+            private final long startNanos = System.nanoTime();
+            private Flow.Subscription subscription;
+            private boolean cancelled = false;
+            private boolean sawItem = false;
+            private boolean recorded = false;
+
+            Attempt(boolean hedge) {
+                this.hedge = hedge;
+            }
+
+            /** Records a primary's time to first token; for a primary that lost, a lower bound of it. */
+            synchronized void recordFirstToken() {
+                if (hedge || recorded) return;
+                recorded = true;
+                firstTokenLatency.record(System.nanoTime() - startNanos);
+            }
+
+            synchronized void request(long n) {
+                if (subscription != null && !cancelled) subscription.request(n);
+            }
+
+            void cancel() {
+                Flow.Subscription sub;
+                synchronized (this) {
+                    cancelled = true;
+                    sub = subscription;
+                }
+                if (sub != null) sub.cancel();
+            }
+
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                long n;
+                synchronized (this) {
+                    subscription = s;
+                    if (cancelled) {
+                        s.cancel();
+                        return;
+                    }
+                }
+                synchronized (HedgedStream.this) {
+                    n = demand;
+                }
+                if (n > 0) s.request(n);
+            }
+
+            @Override
+            public void onNext(T item) {
+                List<Attempt> losers = claim(this);
+                if (losers == null) return; // Lost the race
+                if (!sawItem) {
+                    sawItem = true;
+                    recordFirstToken();
+                    if (hedge) hedgesWon.incrementAndGet();
+                }
+                for (Attempt loser : losers) {
+                    loser.recordFirstToken();
+                    loser.cancel();
+                }
+                downstream.onNext(item);
+            }
+
+            @Override
+            public void onComplete() {
+                List<Attempt> losers = claim(this);
+                if (losers == null) return;
+                losers.forEach(Attempt::cancel);
+                synchronized (HedgedStream.this) {
+                    done = true;
+                }
+                downstream.onComplete();
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                boolean fail;
+                boolean retry = false;
+                synchronized (HedgedStream.this) {
+                    if (done || (winner != null && winner != this)) return;
+                    live.remove(this);
+                    if (winner == this || sawItem) {
+                        fail = true; // Tokens already relayed; cannot switch attempts
+                    } else if (!live.isEmpty()) {
+                        fail = false; // The other attempt may still answer
+                    } else {
+                        long delay = TimeUnit.MILLISECONDS.toNanos(backoffMillis(attempts));
+                        retry = isTransient(error) && System.nanoTime() + delay < deadlineNanos;
+                        fail = !retry;
+                    }
+                    if (fail) {
+                        done = true;
+                        if (timer != null) timer.cancel(false);
+                    }
+                }
+                if (retry) {
+                    retries.incrementAndGet();
+                    retryLater();
+                } else if (fail) {
+                    downstream.onError(error);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package api;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+import java.io.IOException;
+
+/**
+ * Request body that writes its JSON straight into the connection's sink. The content is
+ * regenerated on every write, so OkHttp can still replay the body on a retry.
+ */
+final class JsonBody extends RequestBody {
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    /**
+     * Writes the document through the given writer.
+     */
+    interface Content {
+        void writeTo(JsonWriter writer) throws IOException;
+    }
+
+    private final Content content;
+
+    JsonBody(Content content) {
+        this.content = content;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return JSON;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        content.writeTo(new JsonWriter(sink));
+    }
+}
@@ -0,0 +1,312 @@
+package api;
+
+import okio.Buffer;
+import okio.BufferedSource;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Minimal streaming JSON pull parser. Bytes are consumed from an okio source (for a
+ * response, the HTTP body) as tokens are requested, so a response is never held as
+ * one string; only the values the caller asks for are decoded.
+ */
+public final class JsonReader {
+
+    /** Kinds of token returned by {@link #peek()}. */
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_OBJECT = 2;
+    private static final int NONEMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int EMPTY_ARRAY = 5;
+    private static final int NONEMPTY_ARRAY = 6;
+
+    private final BufferedSource source;
+    private int[] stack = new int[16];
+    private int depth = 0;
+
+    private Token peeked;
+    private int numberStart; // First character of a peeked number
+    private boolean peekedBoolean;
+
+    public JsonReader(BufferedSource source) {
+        this.source = source;
+        stack[depth++] = EMPTY_DOCUMENT;
+    }
+
+    /** Convenience for parsing a small document that is already in memory, e.g. an SSE event. */
+    public static JsonReader of(String json) {
+        return new JsonReader(new Buffer().writeUtf8(json));
+    }
+
+    public Token peek() throws IOException {
+        if (peeked != null) {
+            return peeked;
+        }
+        int scope = stack[depth - 1];
+        int c;
+        switch (scope) {
+            case EMPTY_ARRAY, NONEMPTY_ARRAY -> {
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return peeked = Token.END_ARRAY;
+                }
+                if (scope == NONEMPTY_ARRAY) {
+                    expect(c, ',');
+                    c = nextNonWhitespace();
+                }
+                stack[depth - 1] = NONEMPTY_ARRAY;
+            }
+            case EMPTY_OBJECT, NONEMPTY_OBJECT -> {
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    return peeked = Token.END_OBJECT;
+                }
+                if (scope == NONEMPTY_OBJECT) {
+                    expect(c, ',');
+                    c = nextNonWhitespace();
+                }
+                expect(c, '"');
+                stack[depth - 1] = DANGLING_NAME;
+                return peeked = Token.NAME;
+            }
+            case DANGLING_NAME -> {
+                expect(nextNonWhitespace(), ':');
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                c = nextNonWhitespace();
+            }
+            case EMPTY_DOCUMENT -> {
+                stack[depth - 1] = NONEMPTY_DOCUMENT;
+                c = nextNonWhitespace();
+            }
+            default -> {
+                skipWhitespace();
+                if (source.exhausted()) {
+                    return peeked = Token.END_DOCUMENT;
+                }
+                throw syntaxError("Trailing data after document");
+            }
+        }
+        return peeked = valueToken(c);
+    }
+
+    public void beginObject() throws IOException {
+        consume(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        consume(Token.END_OBJECT);
+        depth--;
+    }
+
+    public void beginArray() throws IOException {
+        consume(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        consume(Token.END_ARRAY);
+        depth--;
+    }
+
+    /** Whether the current object or array has another element. */
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public String nextName() throws IOException {
+        consume(Token.NAME);
+        return readString();
+    }
+
+    /** Returns a string value; numbers are returned as their literal text. */
+    public String nextString() throws IOException {
+        Token token = peek();
+        if (token == Token.STRING) {
+            peeked = null;
+            return readString();
+        }
+        if (token == Token.NUMBER) {
+            peeked = null;
+            return readNumber();
+        }
+        throw syntaxError("Expected a string but was " + token);
+    }
+
+    public long nextLong() throws IOException {
+        String text = nextString();
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            return (long) Double.parseDouble(text);
+        }
+    }
+
+    public int nextInt() throws IOException {
+        return (int) nextLong();
+    }
+
+    public boolean nextBoolean() throws IOException {
+        consume(Token.BOOLEAN);
+        return peekedBoolean;
+    }
+
+    public void nextNull() throws IOException {
+        consume(Token.NULL);
+    }
+
+    /** Skips the next value, including everything nested in it. */
+    public void skipValue() throws IOException {
+        int nesting = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT -> { beginObject(); nesting++; }
+                case BEGIN_ARRAY -> { beginArray(); nesting++; }
+                case END_OBJECT -> { endObject(); nesting--; }
+                case END_ARRAY -> { endArray(); nesting--; }
+                case NAME -> nextName();
+                case STRING, NUMBER -> nextString();
+                case BOOLEAN -> nextBoolean();
+                case NULL -> nextNull();
+                case END_DOCUMENT -> throw syntaxError("Unexpected end of document");
+            }
+        } while (nesting > 0);
+    }
+
+    private void consume(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+        peeked = null;
+    }
+
+    private Token valueToken(int c) throws IOException {
+        switch (c) {
+            case '{': return Token.BEGIN_OBJECT;
+            case '[': return Token.BEGIN_ARRAY;
+            case '"': return Token.STRING;
+            case 't': expectLiteral("rue"); peekedBoolean = true; return Token.BOOLEAN;
+            case 'f': expectLiteral("alse"); peekedBoolean = false; return Token.BOOLEAN;
+            case 'n': expectLiteral("ull"); return Token.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    numberStart = c;
+                    return Token.NUMBER;
+                }
+                throw syntaxError("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    /** Reads the rest of a string whose opening quote was consumed, decoding escapes and UTF-8. */
+    private String readString() throws IOException {
+        StringBuilder out = new StringBuilder();
+        while (true) {
+            int b = source.readByte() & 0xFF;
+            if (b == '"') {
+                return out.toString();
+            }
+            if (b == '\\') {
+                int e = source.readByte();
+                switch (e) {
+                    case 'n' -> out.append('\n');
+                    case 't' -> out.append('\t');
+                    case 'r' -> out.append('\r');
+                    case 'b' -> out.append('\b');
+                    case 'f' -> out.append('\f');
+                    case 'u' -> out.append((char) Integer.parseInt(source.readUtf8(4), 16));
+                    case '"', '\\', '/' -> out.append((char) e);
+                    default -> throw syntaxError("Invalid escape \\" + (char) e);
+                }
+            } else if (b < 0x80) {
+                out.append((char) b);
+            } else {
+                out.appendCodePoint(decodeUtf8(b));
+            }
+        }
+    }
+
+    private int decodeUtf8(int lead) throws IOException {
+        int extra;
+        int codePoint;
+        if ((lead & 0xE0) == 0xC0) {
+            extra = 1;
+            codePoint = lead & 0x1F;
+        } else if ((lead & 0xF0) == 0xE0) {
+            extra = 2;
+            codePoint = lead & 0x0F;
+        } else if ((lead & 0xF8) == 0xF0) {
+            extra = 3;
+            codePoint = lead & 0x07;
+        } else {
+            return 0xFFFD;
+        }
+        for (int i = 0; i < extra; i++) {
+            codePoint = (codePoint << 6) | (source.readByte() & 0x3F);
+        }
+        return Character.isValidCodePoint(codePoint) ? codePoint : 0xFFFD;
+    }
+
+    private String readNumber() throws IOException {
+        StringBuilder number = new StringBuilder().append((char) numberStart);
+        while (source.request(1)) {
+            byte b = source.getBuffer().getByte(0);
+            if ((b >= '0' && b <= '9') || b == '.' || b == 'e' || b == 'E' || b == '+' || b == '-') {
+                number.append((char) source.readByte());
+            } else {
+                break;
+            }
+        }
+        return number.toString();
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        skipWhitespace();
+        if (source.exhausted()) {
+            throw syntaxError("Unexpected end of input");
+        }
+        return source.readByte() & 0xFF;
+    }
+
+    private void skipWhitespace() throws IOException {
+        while (source.request(1)) {
+            byte b = source.getBuffer().getByte(0);
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                return;
+            }
+            source.skip(1);
+        }
+    }
+
+    private void expectLiteral(String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (source.readByte() != rest.charAt(i)) {
+                throw syntaxError("Invalid literal");
+            }
+        }
+    }
+
+    private void expect(int actual, char expected) throws IOException {
+        if (actual != expected) {
+            throw syntaxError("Expected '" + expected + "' but was '" + (char) actual + "'");
+        }
+    }
+
+    private void push(int scope) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        stack[depth++] = scope;
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException("Malformed JSON: " + message);
+    }
+}
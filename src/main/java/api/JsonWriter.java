@@ -0,0 +1,167 @@
+package api;
+
+import okio.BufferedSink;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Minimal streaming JSON writer. Tokens are written straight to an okio sink (for a
+ * request, the HTTP body), so no payload string is ever built. Strings are escaped per
+ * RFC 8259, including backslashes, control characters and U+2028/U+2029.
+ */
+public final class JsonWriter {
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_OBJECT = 2;
+    private static final int NONEMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int EMPTY_ARRAY = 5;
+    private static final int NONEMPTY_ARRAY = 6;
+
+    private final BufferedSink sink;
+    private int[] stack = new int[16];
+    private int depth = 0;
+
+    public JsonWriter(BufferedSink sink) {
+        this.sink = sink;
+        push(EMPTY_DOCUMENT);
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        beforeValue();
+        push(EMPTY_OBJECT);
+        sink.writeByte('{');
+        return this;
+    }
+
+    public JsonWriter endObject() throws IOException {
+        int scope = pop();
+        if (scope != EMPTY_OBJECT && scope != NONEMPTY_OBJECT) {
+            throw new IllegalStateException("Not in an object");
+        }
+        sink.writeByte('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        beforeValue();
+        push(EMPTY_ARRAY);
+        sink.writeByte('[');
+        return this;
+    }
+
+    public JsonWriter endArray() throws IOException {
+        int scope = pop();
+        if (scope != EMPTY_ARRAY && scope != NONEMPTY_ARRAY) {
+            throw new IllegalStateException("Not in an array");
+        }
+        sink.writeByte(']');
+        return this;
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        int scope = stack[depth - 1];
+        if (scope == NONEMPTY_OBJECT) {
+            sink.writeByte(',');
+        } else if (scope != EMPTY_OBJECT) {
+            throw new IllegalStateException("Names are only allowed in objects");
+        }
+        stack[depth - 1] = DANGLING_NAME;
+        string(name);
+        sink.writeByte(':');
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        beforeValue();
+        if (value == null) {
+            sink.writeUtf8("null");
+        } else {
+            string(value);
+        }
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        sink.writeDecimalLong(value);
+        return this;
+    }
+
+    public JsonWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("JSON has no " + value);
+        }
+        beforeValue();
+        sink.writeUtf8(Double.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        sink.writeUtf8(value ? "true" : "false");
+        return this;
+    }
+
+    private void beforeValue() throws IOException {
+        switch (stack[depth - 1]) {
+            case EMPTY_DOCUMENT -> stack[depth - 1] = NONEMPTY_DOCUMENT;
+            case EMPTY_ARRAY -> stack[depth - 1] = NONEMPTY_ARRAY;
+            case NONEMPTY_ARRAY -> sink.writeByte(',');
+            case DANGLING_NAME -> stack[depth - 1] = NONEMPTY_OBJECT;
+            default -> throw new IllegalStateException("A value is not allowed here; call name() first");
+        }
+    }
+
+    /** Writes a quoted string, copying runs of safe characters to the sink in one call. */
+    private void string(String value) throws IOException {
+        sink.writeByte('"');
+        int runStart = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String escape;
+            if (c == '"') {
+                escape = "\\\"";
+            } else if (c == '\\') {
+                escape = "\\\\";
+            } else if (c >= 0x20 && c != '\u2028' && c != '\u2029') {
+                continue;
+            } else {
+                escape = switch (c) {
+                    case '\n' -> "\\n";
+                    case '\r' -> "\\r";
+                    case '\t' -> "\\t";
+                    case '\b' -> "\\b";
+                    case '\f' -> "\\f";
+                    default -> String.format("\\u%04x", (int) c);
+                };
+            }
+            if (runStart < i) {
+                sink.writeUtf8(value, runStart, i);
+            }
+            sink.writeUtf8(escape);
+            runStart = i + 1;
+        }
+        if (runStart < length) {
+            sink.writeUtf8(value, runStart, length);
+        }
+        sink.writeByte('"');
+    }
+
+    private void push(int scope) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        stack[depth++] = scope;
+    }
+
+    private int pop() {
+        if (depth <= 1) {
+            throw new IllegalStateException("Nesting problem");
+        }
+        return stack[--depth];
+    }
+}
@@ -0,0 +1,70 @@
+package api;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with logarithmic buckets (about 10% apart, 1 µs to ~3 min).
+ * Percentiles are accurate to the bucket width, which is plenty for thresholds and reports.
+ */
+public final class LatencyHistogram {
+
+    private static final double GROWTH = 1.1;
+    private static final double MIN_MICROS = 1;
+    private static final int BUCKETS = 200;
+    private static final double LOG_GROWTH = Math.log(GROWTH);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    public void record(long nanos) {
+        counts.incrementAndGet(bucketOf(nanos / 1000.0));
+    }
+
+    public long count() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * @param percentile Between 0 and 100.
+     * @return Upper bound of the bucket holding the percentile, in milliseconds; 0 if empty.
+     */
+    public double percentileMillis(double percentile) {
+        long total = count();
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= Math.max(1, rank)) {
+                return upperBoundMicros(i) / 1000.0;
+            }
+        }
+        return upperBoundMicros(BUCKETS - 1) / 1000.0;
+    }
+
+    /** Adds the samples of another histogram to this one. */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.addAndGet(i, other.counts.get(i));
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    private static int bucketOf(double micros) {
+        if (micros <= MIN_MICROS) return 0;
+        int bucket = (int) Math.ceil(Math.log(micros / MIN_MICROS) / LOG_GROWTH);
+        return Math.min(BUCKETS - 1, bucket);
+    }
+
+    private static double upperBoundMicros(int bucket) {
+        return MIN_MICROS * Math.pow(GROWTH, bucket);
+    }
+}
@@ -0,0 +1,156 @@
+package api;
+
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Counts the estimated tokens of every request to the delegate and charges them to a
+ * {@link TokenBudget}. Streams are charged when they complete or are cancelled, with whatever
+ * text arrived by then; failed requests are only charged if text had arrived, as providers
+ * do not bill rejected ones. Once the budget is exhausted requests fail immediately.
+ * <p>
+ * Sits directly on the backend, below caching and hedging, so cache hits cost nothing and
+ * every hedge is charged.
+ */
+public class MeteredProvider extends ForwardingProvider {
+
+    private final TokenBudget budget;
+    private final String purpose;
+
+    public MeteredProvider(APIProvider delegate, TokenBudget budget, String purpose) {
+        super(delegate);
+        this.budget = budget;
+        this.purpose = purpose;
+    }
+
+    @Override
+    public String generateCompletion(String prompt) throws Exception {
+        checkBudget();
+        long start = System.nanoTime();
+        String result = delegate.generateCompletion(prompt);
+        charge(prompt, TokenEstimator.count(result), start);
+        return result;
+    }
+
+    @Override
+    public List<String> generateCompletions(String prompt, int n) throws Exception {
+        checkBudget();
+        long start = System.nanoTime();
+        List<String> results = delegate.generateCompletions(prompt, n);
+        int completionTokens = 0;
+        for (String result : results) {
+            completionTokens += TokenEstimator.count(result);
+        }
+        charge(prompt, completionTokens, start);
+        return results;
+    }
+
+    @Override
+    public Flow.Publisher<String> streamCompletion(String prompt) {
+        Flow.Publisher<String> upstream = delegate.streamCompletion(prompt);
+        return subscriber -> subscribe(upstream, prompt, subscriber, delta -> delta);
+    }
+
+    @Override
+    public Flow.Publisher<CandidateDelta> streamCompletions(String prompt, int n) {
+        Flow.Publisher<CandidateDelta> upstream = delegate.streamCompletions(prompt, n);
+        return subscriber -> subscribe(upstream, prompt, subscriber, CandidateDelta::text);
+    }
+
+    private <T> void subscribe(Flow.Publisher<T> upstream, String prompt, Flow.Subscriber<? super T> subscriber,
+                               Function<T, String> text) {
+        if (budget.isExhausted()) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(budgetExhausted());
+            return;
+        }
+        upstream.subscribe(new MeteredSubscriber<>(prompt, subscriber, text));
+    }
+
+    private void checkBudget() throws ProviderException {
+        if (budget.isExhausted()) {
+            throw budgetExhausted();
+        }
+    }
+
+    private static ProviderException budgetExhausted() {
+        return new ProviderException(0, "Token budget exhausted", 0);
+    }
+
+    private void charge(String prompt, int completionTokens, long startNanos) {
+        budget.record(new TokenUsage(getModelId(), purpose, TokenEstimator.count(prompt), completionTokens,
+                (System.nanoTime() - startNanos) / 1_000_000, System.currentTimeMillis()));
+    }
+
+    /**
+     * Counts the streamed text and charges the request once, however the stream ends.
+     */
+    private class MeteredSubscriber<T> implements Flow.Subscriber<T> {
+        private final String prompt;
+        private final Flow.Subscriber<? super T> downstream;
+        private final Function<T, String> text;
+        private final AtomicBoolean charged = new AtomicBoolean();
+        private volatile int completionTokens = 0;
+        private volatile boolean started = false;
+        private long startNanos;
+
+        MeteredSubscriber(String prompt, Flow.Subscriber<? super T> downstream, Function<T, String> text) {
+            this.prompt = prompt;
+            this.downstream = downstream;
+            this.text = text;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            startNanos = System.nanoTime();
+            downstream.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    started = true;
+                    subscription.request(n);
+                }
+
+                @Override
+                public void cancel() {
+                    subscription.cancel();
+                    if (started) finish(); // The prompt was sent and is billed
+                }
+            });
+        }
+
+        @Override
+        public void onNext(T item) {
+            // Items arrive one at a time, so the unsynchronized increment is safe
+            completionTokens += TokenEstimator.count(text.apply(item));
+            downstream.onNext(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            if (completionTokens > 0) finish();
+            downstream.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            finish();
+            downstream.onComplete();
+        }
+
+        private void finish() {
+            if (charged.compareAndSet(false, true)) {
+                charge(prompt, completionTokens, startNanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package api;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import okio.BufferedSink;
+import okio.Okio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for the provider APIs, for load tests and benchmarks without a network.
+ * <p>
+ * Speaks the Gemini {@code generateContent} / {@code streamGenerateContent?alt=sse} and the
+ * OpenAI {@code /v1/chat/completions} wire formats, so the real providers can be pointed at it
+ * through their base URL constructor. Every request waits for a time-to-first-token drawn from
+ * a log-normal distribution, fails with a configurable probability, and otherwise answers with
+ * deterministic text derived from the prompt, streamed token by token when asked to.
+ * <p>
+ * Run standalone with {@code java api.MockLLMServer [--port 8089] [--latency 300] [--spread 0.5]
+ * [--interval 20] [--tokens 12] [--error-rate 0] [--error-status 503]}.
+ */
+public class MockLLMServer implements Closeable {
+
+    private static final String[] WORDS = {
+            "the", "story", "continued", "as", "she", "walked", "through", "quiet", "streets", "and",
+            "remembered", "every", "word", "he", "had", "said", "before", "morning", "light", "returned",
+            "slowly", "into", "an", "old", "room", "where", "nothing", "seemed", "changed", "yet"
+    };
+
+    /**
+     * Behaviour of the server.
+     *
+     * @param latencyMedianMillis Median time to first token.
+     * @param latencySpread       Sigma of the log-normal latency; 0 gives a constant latency.
+     * @param tokenIntervalMillis Pause between streamed tokens.
+     * @param tokensPerCandidate  Length of every generated text, in words.
+     * @param errorRate           Fraction of requests that fail, between 0 and 1.
+     * @param errorStatus         HTTP status of failed requests, e.g. 429 or 503.
+     */
+    public record Settings(long latencyMedianMillis, double latencySpread, long tokenIntervalMillis,
+                           int tokensPerCandidate, double errorRate, int errorStatus) {
+
+        public static Settings defaults() {
+            return new Settings(300, 0.5, 20, 12, 0, 503);
+        }
+
+        long sampleLatencyMillis() {
+            double factor = Math.exp(latencySpread * ThreadLocalRandom.current().nextGaussian());
+            return Math.max(0, Math.round(latencyMedianMillis * factor));
+        }
+    }
+
+    /**
+     * Snapshot of the server counters.
+     */
+    public record Stats(long requests, long streamed, long failed) {
+        @Override
+        public String toString() {
+            return String.format("requests=%d streamed=%d failed=%d", requests, streamed, failed);
+        }
+    }
+
+    private record ParsedRequest(String prompt, int candidates, boolean stream) {
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private volatile Settings settings;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong streamed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Binds to the loopback interface; call {@link #start()} to serve.
+     *
+     * @param port Port to listen on, or 0 for any free port.
+     */
+    public MockLLMServer(int port, Settings settings) throws IOException {
+        this.settings = settings;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /** Base URL to pass to the provider constructors. */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public Settings getSettings() {
+        return settings;
+    }
+
+    /** Changes the behaviour for requests that arrive from now on. */
+    public void setSettings(Settings settings) {
+        this.settings = settings;
+    }
+
+    public Stats getStats() {
+        return new Stats(requests.get(), streamed.get(), failed.get());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1); // Connection warm-up
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            boolean gemini = path.startsWith("/v1beta/models/")
+                    && (path.endsWith(":generateContent") || path.endsWith(":streamGenerateContent"));
+            boolean openai = path.equals("/v1/chat/completions");
+            if (!"POST".equals(exchange.getRequestMethod()) || (!gemini && !openai)) {
+                sendError(exchange, 404, "Unknown endpoint " + path);
+                return;
+            }
+            requests.incrementAndGet();
+            ParsedRequest request = parseRequest(exchange, gemini, path.endsWith(":streamGenerateContent"));
+            Settings current = settings;
+
+            Thread.sleep(current.sampleLatencyMillis()); // Time to first token
+            if (ThreadLocalRandom.current().nextDouble() < current.errorRate()) {
+                failed.incrementAndGet();
+                if (current.errorStatus() == 429) {
+                    exchange.getResponseHeaders().add("Retry-After", "1");
+                }
+                sendError(exchange, current.errorStatus(), "Simulated failure");
+                return;
+            }
+
+            List<List<String>> candidates = new ArrayList<>();
+            for (int i = 0; i < request.candidates(); i++) {
+                candidates.add(generate(request.prompt(), i, current.tokensPerCandidate()));
+            }
+            if (request.stream()) {
+                streamed.incrementAndGet();
+                stream(exchange, gemini, candidates, current.tokenIntervalMillis());
+            } else {
+                respond(exchange, gemini, candidates);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // Client went away, e.g. a cancelled stream
+        }
+    }
+
+    /** Reads the prompt, candidate count and stream flag of either wire format. */
+    private static ParsedRequest parseRequest(HttpExchange exchange, boolean gemini, boolean geminiStream)
+            throws IOException {
+        JsonReader reader = new JsonReader(Okio.buffer(Okio.source(exchange.getRequestBody())));
+        StringBuilder prompt = new StringBuilder();
+        int candidates = 1;
+        boolean stream = geminiStream;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (gemini && name.equals("contents")) {
+                readTexts(reader, prompt);
+            } else if (gemini && name.equals("generationConfig")) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (reader.nextName().equals("candidateCount")) {
+                        candidates = reader.nextInt();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (!gemini && name.equals("messages")) {
+                readTexts(reader, prompt);
+            } else if (!gemini && name.equals("n")) {
+                candidates = reader.nextInt();
+            } else if (!gemini && name.equals("stream")) {
+                stream = reader.nextBoolean();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new ParsedRequest(prompt.toString(), Math.max(1, Math.min(candidates, 8)), stream);
+    }
+
+    /** Collects every "text" or "content" string nested in the value. */
+    private static void readTexts(JsonReader reader, StringBuilder out) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_ARRAY -> {
+                reader.beginArray();
+                while (reader.hasNext()) readTexts(reader, out);
+                reader.endArray();
+            }
+            case BEGIN_OBJECT -> {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if ((name.equals("text") || name.equals("content")) && reader.peek() == JsonReader.Token.STRING) {
+                        out.append(reader.nextString());
+                    } else {
+                        readTexts(reader, out);
+                    }
+                }
+                reader.endObject();
+            }
+            default -> reader.skipValue();
+        }
+    }
+
+    /** Deterministic text for a prompt, so recorded and replayed runs see the same answers. */
+    private static List<String> generate(String prompt, int candidate, int tokens) {
+        Random random = new Random(prompt.hashCode() * 31L + candidate);
+        List<String> result = new ArrayList<>(tokens);
+        for (int i = 0; i < tokens; i++) {
+            result.add(" " + WORDS[random.nextInt(WORDS.length)]);
+        }
+        return result;
+    }
+
+    private static void respond(HttpExchange exchange, boolean gemini, List<List<String>> candidates) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, 0);
+        try (BufferedSink sink = Okio.buffer(Okio.sink(exchange.getResponseBody()))) {
+            List<String> texts = new ArrayList<>();
+            for (List<String> tokens : candidates) {
+                texts.add(String.join("", tokens));
+            }
+            writeChunk(new JsonWriter(sink), gemini, texts, false);
+        }
+    }
+
+    /** Sends one SSE event per token, each carrying that token for every candidate. */
+    private static void stream(HttpExchange exchange, boolean gemini, List<List<String>> candidates,
+                               long intervalMillis) throws IOException, InterruptedException {
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (BufferedSink sink = Okio.buffer(Okio.sink(exchange.getResponseBody()))) {
+            int length = candidates.get(0).size();
+            for (int t = 0; t < length; t++) {
+                if (t > 0) Thread.sleep(intervalMillis);
+                List<String> tokens = new ArrayList<>();
+                for (List<String> candidate : candidates) {
+                    tokens.add(candidate.get(t));
+                }
+                sink.writeUtf8("data: ");
+                writeChunk(new JsonWriter(sink), gemini, tokens, true);
+                sink.writeUtf8("\n\n");
+                sink.flush();
+            }
+            if (!gemini) {
+                sink.writeUtf8("data: [DONE]\n\n");
+            }
+        }
+    }
+
+    /** Writes a response or stream chunk in the provider's shape, one entry per text. */
+    private static void writeChunk(JsonWriter json, boolean gemini, List<String> texts, boolean delta)
+            throws IOException {
+        json.beginObject().name(gemini ? "candidates" : "choices").beginArray();
+        for (int i = 0; i < texts.size(); i++) {
+            json.beginObject();
+            if (gemini) {
+                json.name("content").beginObject()
+                        .name("parts").beginArray().beginObject().name("text").value(texts.get(i)).endObject().endArray()
+                        .name("role").value("model")
+                        .endObject();
+                json.name("index").value(i);
+            } else {
+                json.name("index").value(i);
+                json.name(delta ? "delta" : "message").beginObject()
+                        .name("role").value("assistant")
+                        .name("content").value(texts.get(i))
+                        .endObject();
+            }
+            json.endObject();
+        }
+        json.endArray().endObject();
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, 0);
+        try (BufferedSink sink = Okio.buffer(Okio.sink(exchange.getResponseBody()))) {
+            new JsonWriter(sink).beginObject()
+                    .name("error").beginObject()
+                    .name("code").value(status)
+                    .name("message").value(message)
+                    .endObject()
+                    .endObject();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = 8089;
+        Settings defaults = Settings.defaults();
+        long latency = defaults.latencyMedianMillis();
+        double spread = defaults.latencySpread();
+        long interval = defaults.tokenIntervalMillis();
+        int tokens = defaults.tokensPerCandidate();
+        double errorRate = defaults.errorRate();
+        int errorStatus = defaults.errorStatus();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--port" -> port = Integer.parseInt(value);
+                case "--latency" -> latency = Long.parseLong(value);
+                case "--spread" -> spread = Double.parseDouble(value);
+                case "--interval" -> interval = Long.parseLong(value);
+                case "--tokens" -> tokens = Integer.parseInt(value);
+                case "--error-rate" -> errorRate = Double.parseDouble(value);
+                case "--error-status" -> errorStatus = Integer.parseInt(value);
+                default -> System.err.println("Unknown option " + args[i]);
+            }
+        }
+        MockLLMServer server = new MockLLMServer(port,
+                new Settings(latency, spread, interval, tokens, errorRate, errorStatus));
+        server.start();
+        System.out.println("Mock LLM server listening on " + server.getBaseUrl());
+    }
+}
@@ -0,0 +1,333 @@
+package api;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Word trigram model of the user's own writing, used for offline and instant suggestions.
+ * <p>
+ * Trigram and bigram counts live in an off-heap {@link OffHeapLongTable} keyed by three packed
+ * 21-bit word ids. A second table keeps, per one- or two-word context, the {@link #TOP_K} most
+ * frequent followers, so a continuation is a handful of hash lookups rather than a scan.
+ * Only the vocabulary is on the heap.
+ * <p>
+ * Documents can be added and removed at any time, e.g. the old and new text of a saved file.
+ * When a follower loses counts on removal, words outside the top list are not re-examined
+ * until they are seen again, which is a good enough approximation for suggestions.
+ * <p>
+ * Thread-safe. Lookups never block: while the model is being updated they return nothing.
+ */
+public final class NGramModel {
+
+    private static final int TOP_K = 4;
+    private static final int ID_BITS = 21;
+    private static final int MAX_WORDS = (1 << ID_BITS) - 1;
+    private static final int NONE = 0;
+    private static final int SENTENCE_START = 1;
+    private static final int CONTEXT_CHARS = 200; // Enough text before the caret for two words
+
+    private final OffHeapLongTable counts = new OffHeapLongTable(1, 1 << 16);
+    private final OffHeapLongTable followers = new OffHeapLongTable(2 * TOP_K, 1 << 14);
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> words = new ArrayList<>(List.of("", "<s>"));
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private long tokens = 0;
+
+    /** Learns the word sequences of a text. */
+    public void add(String text) {
+        update(text, 1);
+    }
+
+    /** Forgets a text added earlier, e.g. the previous version of a saved document. */
+    public void remove(String text) {
+        update(text, -1);
+    }
+
+    /**
+     * Continues the text before the caret with the most likely phrases. If the text ends in
+     * the middle of a word, only continuations of that word are returned, without its typed part.
+     *
+     * @param before   Text before the caret; only its end is looked at.
+     * @param n        Maximum number of distinct continuations.
+     * @param maxWords Maximum length of each continuation.
+     * @return Up to {@code n} continuations, most likely first; empty if nothing matches
+     *         or the model is being updated.
+     */
+    public List<String> complete(String before, int n, int maxWords) {
+        if (!lock.readLock().tryLock()) {
+            return List.of();
+        }
+        try {
+            return completeLocked(before.substring(Math.max(0, before.length() - CONTEXT_CHARS)), n, maxWords);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Number of words the model has learned from, net of removals. */
+    public long tokenCount() {
+        lock.readLock().lock();
+        try {
+            return tokens;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Snapshot of the model size.
+     */
+    public record Stats(long tokens, int vocabulary, int ngrams, int contexts, long offHeapBytes) {
+        @Override
+        public String toString() {
+            return String.format("tokens=%d vocabulary=%d ngrams=%d contexts=%d offHeap=%d KB",
+                    tokens, vocabulary, ngrams, contexts, offHeapBytes / 1024);
+        }
+    }
+
+    public Stats getStats() {
+        lock.readLock().lock();
+        try {
+            return new Stats(tokens, words.size() - 2, counts.size(), followers.size(),
+                    counts.memoryBytes() + followers.memoryBytes());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void update(String text, int delta) {
+        List<String> tokenList = tokenize(text);
+        lock.writeLock().lock();
+        try {
+            int a = SENTENCE_START;
+            int b = SENTENCE_START;
+            for (String token : tokenList) {
+                int c = delta > 0 ? idOf(token, true) : idOf(token, false);
+                if (c == NONE) {
+                    // Unknown word on removal: it was never counted, so neither were its n-grams
+                    a = SENTENCE_START;
+                    b = SENTENCE_START;
+                    continue;
+                }
+                count(a, b, c, delta);
+                count(NONE, b, c, delta);
+                tokens += delta;
+                if (isSentenceEnd(token)) {
+                    a = SENTENCE_START;
+                    b = SENTENCE_START;
+                } else {
+                    a = b;
+                    b = c;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void count(int a, int b, int c, int delta) {
+        long key = pack(a, b, c);
+        int slot = delta > 0 ? counts.insert(key) : counts.find(key);
+        if (slot < 0) return;
+        int count = Math.max(0, counts.get(slot, 0) + delta);
+        counts.set(slot, 0, count);
+        updateFollowers(pack(a, b, NONE), c, count);
+    }
+
+    /** Keeps the follower list of a context sorted by count after {@code word} changed to {@code count}. */
+    private void updateFollowers(long context, int word, int count) {
+        int slot = count > 0 ? followers.insert(context) : followers.find(context);
+        if (slot < 0) return;
+        int position = -1;
+        for (int i = 0; i < TOP_K; i++) {
+            if (followers.get(slot, 2 * i) == word) {
+                position = i;
+                break;
+            }
+        }
+        if (position < 0) {
+            // Not listed: replace the weakest entry if this word now beats it
+            int last = TOP_K - 1;
+            if (count <= followers.get(slot, 2 * last + 1) && followers.get(slot, 2 * last) != NONE) return;
+            position = last;
+            followers.set(slot, 2 * position, word);
+        }
+        followers.set(slot, 2 * position + 1, count);
+        if (count == 0) {
+            followers.set(slot, 2 * position, NONE);
+        }
+        // Bubble the changed entry into place
+        while (position > 0 && followers.get(slot, 2 * position + 1) > followers.get(slot, 2 * position - 1)) {
+            swap(slot, position, position - 1);
+            position--;
+        }
+        while (position < TOP_K - 1 && followers.get(slot, 2 * position + 1) < followers.get(slot, 2 * position + 3)) {
+            swap(slot, position, position + 1);
+            position++;
+        }
+    }
+
+    private void swap(int slot, int i, int j) {
+        int word = followers.get(slot, 2 * i);
+        int count = followers.get(slot, 2 * i + 1);
+        followers.set(slot, 2 * i, followers.get(slot, 2 * j));
+        followers.set(slot, 2 * i + 1, followers.get(slot, 2 * j + 1));
+        followers.set(slot, 2 * j, word);
+        followers.set(slot, 2 * j + 1, count);
+    }
+
+    private List<String> completeLocked(String before, int n, int maxWords) {
+        List<String> tokenList = tokenize(before);
+        String partial = "";
+        if (!before.isEmpty() && isWordChar(before.charAt(before.length() - 1)) && !tokenList.isEmpty()) {
+            partial = tokenList.remove(tokenList.size() - 1).toLowerCase();
+        }
+        int a = SENTENCE_START;
+        int b = SENTENCE_START;
+        int start = tokenList.size() - Math.min(2, tokenList.size());
+        for (int i = start; i < tokenList.size(); i++) {
+            String token = tokenList.get(i);
+            int id = idOf(token, false);
+            if (isSentenceEnd(token)) {
+                a = SENTENCE_START;
+                b = SENTENCE_START;
+            } else {
+                a = b;
+                b = id;
+            }
+        }
+        if (b == NONE) return List.of(); // Last word never seen
+
+        List<String> result = new ArrayList<>();
+        List<Integer> firstWords = new ArrayList<>();
+        collectFollowers(pack(a, b, NONE), partial, firstWords);
+        collectFollowers(pack(NONE, b, NONE), partial, firstWords);
+        boolean atWordStart = before.isEmpty() || Character.isWhitespace(before.charAt(before.length() - 1));
+        for (int first : firstWords) {
+            if (result.size() >= n) break;
+            StringBuilder phrase = new StringBuilder();
+            if (!partial.isEmpty()) {
+                phrase.append(words.get(first).substring(partial.length()));
+            } else {
+                appendToken(phrase, words.get(first), atWordStart);
+            }
+            addPhrase(phrase, b, first, maxWords, result);
+        }
+
+        // The "partial" word may already be complete: continue after it as well
+        int typed = partial.isEmpty() ? NONE : idOf(partial, false);
+        if (typed != NONE && result.size() < n) {
+            List<Integer> nextWords = new ArrayList<>();
+            collectFollowers(pack(b, typed, NONE), "", nextWords);
+            collectFollowers(pack(NONE, typed, NONE), "", nextWords);
+            for (int next : nextWords) {
+                if (result.size() >= n) break;
+                StringBuilder phrase = new StringBuilder();
+                appendToken(phrase, words.get(next), false);
+                addPhrase(phrase, typed, next, maxWords, result);
+            }
+        }
+        return result;
+    }
+
+    /** Extends the phrase ending in words x y greedily and adds it to the result if new. */
+    private void addPhrase(StringBuilder phrase, int x, int y, int maxWords, List<String> result) {
+        for (int i = 1; i < maxWords && !isSentenceEnd(words.get(y)); i++) {
+            int next = bestFollower(x, y);
+            if (next == NONE) break;
+            appendToken(phrase, words.get(next), false);
+            x = y;
+            y = next;
+        }
+        String text = phrase.toString();
+        if (!text.isBlank() && !result.contains(text)) {
+            result.add(text);
+        }
+    }
+
+    private void collectFollowers(long context, String prefix, List<Integer> out) {
+        int slot = followers.find(context);
+        if (slot < 0) return;
+        for (int i = 0; i < TOP_K; i++) {
+            int word = followers.get(slot, 2 * i);
+            if (word == NONE || out.contains(word)) continue;
+            if (prefix.isEmpty() || (words.get(word).toLowerCase().startsWith(prefix) && words.get(word).length() > prefix.length())) {
+                out.add(word);
+            }
+        }
+    }
+
+    /** Most frequent follower of the two-word context, backing off to the last word alone. */
+    private int bestFollower(int a, int b) {
+        int slot = followers.find(pack(a, b, NONE));
+        if (slot >= 0 && followers.get(slot, 0) != NONE) {
+            return followers.get(slot, 0);
+        }
+        slot = followers.find(pack(NONE, b, NONE));
+        return slot >= 0 ? followers.get(slot, 0) : NONE;
+    }
+
+    private static void appendToken(StringBuilder phrase, String token, boolean atWordStart) {
+        boolean punctuation = token.length() == 1 && !isWordChar(token.charAt(0));
+        if (!punctuation && !atWordStart) {
+            phrase.append(' ');
+        }
+        phrase.append(token);
+    }
+
+    /** Returns the id of a word, adding it if asked to; NONE if unknown or the vocabulary is full. */
+    private int idOf(String token, boolean add) {
+        String key = token.toLowerCase();
+        Integer id = ids.get(key);
+        if (id != null) {
+            if (add && token.equals(key)) {
+                words.set(id, token); // Prefer the lowercase spelling over a sentence-initial capital
+            }
+            return id;
+        }
+        if (!add || words.size() > MAX_WORDS) return NONE;
+        int newId = words.size();
+        ids.put(key, newId);
+        words.add(token);
+        return newId;
+    }
+
+    private static long pack(int a, int b, int c) {
+        return ((long) a << (2 * ID_BITS)) | ((long) b << ID_BITS) | c;
+    }
+
+    private static boolean isSentenceEnd(String token) {
+        return token.equals(".") || token.equals("!") || token.equals("?");
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '\'' || c == '’';
+    }
+
+    /** Splits text into words and the punctuation marks . , ; : ! ? */
+    static List<String> tokenize(String text) {
+        List<String> result = new ArrayList<>();
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                int start = i;
+                while (i < length && (isWordChar(text.charAt(i))
+                        || (text.charAt(i) == '-' && i + 1 < length && Character.isLetter(text.charAt(i + 1))))) {
+                    i++;
+                }
+                result.add(text.substring(start, i));
+                continue;
+            }
+            if (".,;:!?".indexOf(c) >= 0) {
+                result.add(String.valueOf(c));
+            }
+            i++;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,77 @@
+package api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+/**
+ * Offline provider answering autocomplete prompts from a local {@link NGramModel}.
+ * <p>
+ * The model only needs the text before the caret, which is taken from the fenced
+ * "Text before cursor" block of the autocomplete prompt. Prompts without that block,
+ * such as rewrites, get no suggestions.
+ */
+public class NGramProvider implements APIProvider {
+
+    private static final String BEFORE_MARKER = "Text before cursor";
+    private static final String FENCE = "```\n";
+    private static final int MAX_WORDS = 8;
+
+    private final NGramModel model;
+
+    public NGramProvider(NGramModel model) {
+        this.model = model;
+    }
+
+    public NGramModel getModel() {
+        return model;
+    }
+
+    @Override
+    public String getModelId() {
+        return "ngram/local";
+    }
+
+    @Override
+    public String generateCompletion(String prompt) {
+        List<String> completions = generateCompletions(prompt, 1);
+        return completions.isEmpty() ? "" : completions.get(0);
+    }
+
+    @Override
+    public boolean supportsMultipleCandidates() {
+        return true;
+    }
+
+    @Override
+    public List<String> generateCompletions(String prompt, int n) {
+        String before = textBeforeCursor(prompt);
+        return before == null ? List.of() : model.complete(before, n, MAX_WORDS);
+    }
+
+    @Override
+    public Flow.Publisher<String> streamCompletion(String prompt) {
+        return new CachedPublisher<>(generateCompletions(prompt, 1));
+    }
+
+    @Override
+    public Flow.Publisher<CandidateDelta> streamCompletions(String prompt, int n) {
+        List<String> completions = generateCompletions(prompt, n);
+        List<CandidateDelta> deltas = new ArrayList<>();
+        for (int i = 0; i < completions.size(); i++) {
+            deltas.add(new CandidateDelta(i, completions.get(i)));
+        }
+        return new CachedPublisher<>(deltas);
+    }
+
+    /** Extracts the text between the fences after the "Text before cursor" heading, or null. */
+    static String textBeforeCursor(String prompt) {
+        int marker = prompt.indexOf(BEFORE_MARKER);
+        if (marker < 0) return null;
+        int open = prompt.indexOf(FENCE, marker);
+        if (open < 0) return null;
+        int start = open + FENCE.length();
+        int close = prompt.indexOf("\n```", start);
+        return close < 0 ? prompt.substring(start) : prompt.substring(start, close);
+    }
+}
@@ -0,0 +1,106 @@
+package api;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Open-addressing hash table from non-zero {@code long} keys to a fixed number of {@code int}
+ * values, stored in a direct buffer so large tables stay off the Java heap. Slots are
+ * {@code long key | valueInts x int}; key 0 marks an empty slot. Entries are never removed.
+ * Not thread-safe.
+ */
+final class OffHeapLongTable {
+
+    private static final double MAX_LOAD = 0.6;
+
+    private final int slotBytes;
+    private final int maxCapacity; // A direct buffer holds at most 2 GB
+    private ByteBuffer buffer;
+    private int capacity;
+    private int size = 0;
+
+    OffHeapLongTable(int valueInts, int initialCapacity) {
+        this.slotBytes = 8 + 4 * valueInts;
+        this.maxCapacity = Integer.highestOneBit(Integer.MAX_VALUE / slotBytes);
+        this.capacity = Integer.highestOneBit(Math.max(16, initialCapacity - 1) << 1);
+        this.buffer = ByteBuffer.allocateDirect(capacity * slotBytes);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** Bytes of off-heap memory held by the table. */
+    long memoryBytes() {
+        return (long) capacity * slotBytes;
+    }
+
+    /** @return The slot holding {@code key}, or -1 if absent. */
+    int find(long key) {
+        int mask = capacity - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            long current = buffer.getLong(slot * slotBytes);
+            if (current == key) return slot;
+            if (current == 0) return -1;
+        }
+    }
+
+    /**
+     * Returns the slot of {@code key}, adding it with all values 0 if absent.
+     *
+     * @return The slot, or -1 if the table is full and cannot grow any further.
+     */
+    int insert(long key) {
+        if (size + 1 > capacity * MAX_LOAD) {
+            if (capacity >= maxCapacity) {
+                return find(key);
+            }
+            grow();
+        }
+        int mask = capacity - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            long current = buffer.getLong(slot * slotBytes);
+            if (current == key) return slot;
+            if (current == 0) {
+                buffer.putLong(slot * slotBytes, key);
+                size++;
+                return slot;
+            }
+        }
+    }
+
+    int get(int slot, int index) {
+        return buffer.getInt(slot * slotBytes + 8 + 4 * index);
+    }
+
+    void set(int slot, int index, int value) {
+        buffer.putInt(slot * slotBytes + 8 + 4 * index, value);
+    }
+
+    private void grow() {
+        ByteBuffer old = buffer;
+        int oldCapacity = capacity;
+        capacity <<= 1;
+        buffer = ByteBuffer.allocateDirect(capacity * slotBytes);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldCapacity; i++) {
+            long key = old.getLong(i * slotBytes);
+            if (key == 0) continue;
+            int slot = hash(key) & mask;
+            while (buffer.getLong(slot * slotBytes) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            for (int b = 0; b < slotBytes; b += 4) {
+                buffer.putInt(slot * slotBytes + b, old.getInt(i * slotBytes + b));
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
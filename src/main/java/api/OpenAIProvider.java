@@ -1,44 +1,168 @@
 package api;
 
-import com.openai.client.OpenAIClient;
-import com.openai.client.okhttp.OpenAIOkHttpClient;
-import com.openai.models.ChatModel;
-import com.openai.models.chat.completions.ChatCompletion;
-import com.openai.models.chat.completions.ChatCompletionCreateParams;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+/**
+ * Chat completions provider. Calls the REST endpoint directly through the shared
+ * {@link ProviderTransport} so all requests reuse one pooled client.
+ */
 public class OpenAIProvider implements APIProvider {
+    private static final String DEFAULT_BASE_URL = "https://api.openai.com";
+
     private final String apiKey;
     private final String model;
+    private final String baseUrl;
+    private final ProviderTransport transport;
 
     public OpenAIProvider(String apiKey, String model) {
+        this(apiKey, model, DEFAULT_BASE_URL);
+    }
+
+    public OpenAIProvider(String apiKey, String model, String baseUrl) {
         this.apiKey = apiKey;
         this.model = model;
+        this.baseUrl = baseUrl;
+        this.transport = ProviderTransport.forProvider("openai", baseUrl);
+    }
+
+    @Override
+    public String getModelId() {
+        return "openai/" + model;
+    }
+
+    @Override
+    public void warmUp() {
+        transport.warmUp();
     }
 
     @Override
     public String generateCompletion(String prompt) throws Exception {
-        // Initialize the OpenAI client using the provided API key.
-        OpenAIClient client = OpenAIOkHttpClient.builder()
-                .apiKey(apiKey)
-                .build();
+        // Return the first choice's content.
+        List<String> choices = post(prompt, 1);
+        return choices.isEmpty() ? "" : choices.get(0);
+    }
+
+    @Override
+    public boolean supportsMultipleCandidates() {
+        return true;
+    }
+
+    /**
+     * Requests all candidates in one call using the {@code n} parameter.
+     */
+    @Override
+    public List<String> generateCompletions(String prompt, int n) throws Exception {
+        return post(prompt, Math.max(1, n));
+    }
 
-        // Map the model string to the appropriate ChatModel enum.
-        ChatModel chosenModel;
-        if (model.equalsIgnoreCase("gpt-4o")) {
-            chosenModel = ChatModel.GPT_4O;
-        } else {
-            chosenModel = ChatModel.GPT_3_5_TURBO; // fallback option
+    /**
+     * Streams the completion using {@code stream=true} chat completions.
+     */
+    @Override
+    public Flow.Publisher<String> streamCompletion(String prompt) {
+        return new SsePublisher<>(transport, buildRequest(prompt, 1, true), chunk -> {
+            List<CandidateDelta> choices = readResponse(JsonReader.of(chunk));
+            return choices.isEmpty() ? List.of() : List.of(choices.get(0).text());
+        });
+    }
+
+    @Override
+    public Flow.Publisher<CandidateDelta> streamCompletions(String prompt, int n) {
+        return new SsePublisher<>(transport, buildRequest(prompt, n, true), chunk -> readResponse(JsonReader.of(chunk)));
+    }
+
+    /**
+     * Sends a blocking request and reads the choices straight from the response stream.
+     */
+    private List<String> post(String prompt, int n) throws IOException {
+        try (Response response = transport.newCall(buildRequest(prompt, n, false)).execute()) {
+            ResponseBody body = response.body();
+            if (!response.isSuccessful() || body == null) {
+                throw ProviderException.fromResponse(response);
+            }
+            return CandidateDelta.join(readResponse(new JsonReader(body.source())));
         }
+    }
 
-        ChatCompletionCreateParams params = ChatCompletionCreateParams.builder()
-                .model(chosenModel)
-                .addUserMessage(prompt)
-                .maxTokens(50)
-                .temperature(0.7)
+    private Request buildRequest(String prompt, int n, boolean stream) {
+        return new Request.Builder()
+                .url(baseUrl + "/v1/chat/completions")
+                .header("Authorization", "Bearer " + apiKey)
+                .post(new JsonBody(json -> json.beginObject()
+                        .name("model").value(model)
+                        .name("messages").beginArray()
+                        .beginObject().name("role").value("user").name("content").value(prompt).endObject()
+                        .endArray()
+                        .name("max_tokens").value(50)
+                        .name("temperature").value(0.7)
+                        .name("n").value(n)
+                        .name("stream").value(stream)
+                        .endObject()))
                 .build();
+    }
 
-        ChatCompletion completion = client.chat().completions().create(params);
-        // Return the first choice's content.
-        return completion.toString();
+    /**
+     * Reads a response or streamed chunk into the content of every choice, tagged with its
+     * index. Full responses carry it in {@code message}, streamed chunks in {@code delta}.
+     *
+     * @throws ProviderException if the document is an error report.
+     */
+    private static List<CandidateDelta> readResponse(JsonReader reader) throws IOException {
+        List<CandidateDelta> result = new ArrayList<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "choices" -> {
+                    reader.beginArray();
+                    for (int position = 0; reader.hasNext(); position++) {
+                        readChoice(reader, position, result);
+                    }
+                    reader.endArray();
+                }
+                case "error" -> throw new ProviderException(0, ProviderException.readErrorObject(reader), 0);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return result;
+    }
+
+    /** Reads {@code {"index": n, "message"|"delta": {"content": ...}}}. */
+    private static void readChoice(JsonReader reader, int position, List<CandidateDelta> result) throws IOException {
+        int index = position;
+        String content = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "index" -> index = reader.nextInt();
+                case "message", "delta" -> content = readContent(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (content != null && !content.isEmpty()) {
+            result.add(new CandidateDelta(index, content));
+        }
+    }
+
+    private static String readContent(JsonReader reader) throws IOException {
+        String content = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("content") && reader.peek() == JsonReader.Token.STRING) {
+                content = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return content;
     }
 }
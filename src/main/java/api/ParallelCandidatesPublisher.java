@@ -0,0 +1,124 @@
+package api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+/**
+ * Streams {@code n} candidates as {@code n} parallel {@link APIProvider#streamCompletion} calls,
+ * tagging each delta with the index of its stream. Used by providers that cannot return several
+ * candidates from one request.
+ * <p>
+ * The streams start on the first request and are merged as their deltas arrive. The merged
+ * stream fails only if no candidate produced any text; cancelling it cancels every stream.
+ */
+final class ParallelCandidatesPublisher implements Flow.Publisher<CandidateDelta> {
+
+    private final APIProvider provider;
+    private final String prompt;
+    private final int n;
+
+    ParallelCandidatesPublisher(APIProvider provider, String prompt, int n) {
+        this.provider = provider;
+        this.prompt = prompt;
+        this.n = Math.max(1, n);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super CandidateDelta> subscriber) {
+        subscriber.onSubscribe(new Merge(subscriber));
+    }
+
+    /** Signals to the subscriber are made under the lock, so the streams never overlap them. */
+    private final class Merge implements Flow.Subscription {
+        private final Flow.Subscriber<? super CandidateDelta> subscriber;
+        private final List<Flow.Subscription> subscriptions = new ArrayList<>();
+        private int pendingStreams = n;
+        private boolean started = false;
+        private boolean done = false;
+        private boolean received = false;
+        private Throwable lastError;
+
+        Merge(Flow.Subscriber<? super CandidateDelta> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long demand) {
+            synchronized (this) {
+                if (started || done) return;
+                started = true;
+            }
+            for (int i = 0; i < n; i++) {
+                provider.streamCompletion(prompt).subscribe(new Stream(i));
+            }
+        }
+
+        @Override
+        public void cancel() {
+            List<Flow.Subscription> subs;
+            synchronized (this) {
+                done = true;
+                subs = new ArrayList<>(subscriptions);
+                subscriptions.clear();
+            }
+            subs.forEach(Flow.Subscription::cancel);
+        }
+
+        private synchronized void next(int index, String text) {
+            if (done || text == null || text.isEmpty()) return;
+            received = true;
+            subscriber.onNext(new CandidateDelta(index, text));
+        }
+
+        private synchronized void finish(Throwable error) {
+            if (done) return;
+            if (error != null) lastError = error;
+            if (--pendingStreams > 0) return;
+            done = true;
+            if (!received && lastError != null) {
+                subscriber.onError(lastError);
+            } else {
+                subscriber.onComplete();
+            }
+        }
+
+        /** Subscriber for the stream of one candidate. */
+        private final class Stream implements Flow.Subscriber<String> {
+            private final int index;
+
+            Stream(int index) {
+                this.index = index;
+            }
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                boolean cancelled;
+                synchronized (Merge.this) {
+                    cancelled = done;
+                    if (!cancelled) subscriptions.add(subscription);
+                }
+                if (cancelled) {
+                    subscription.cancel();
+                } else {
+                    subscription.request(Long.MAX_VALUE);
+                }
+            }
+
+            @Override
+            public void onNext(String text) {
+                next(index, text);
+            }
+
+            @Override
+            public void onError(Throwable ex) {
+                finish(ex);
+            }
+
+            @Override
+            public void onComplete() {
+                finish(null);
+            }
+        }
+    }
+}
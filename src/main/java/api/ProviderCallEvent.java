@@ -0,0 +1,42 @@
+package api;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for one request to a provider backend, from the call (or the
+ * subscription of its stream) until the last byte or the failure.
+ */
+@Name("syngrafi.ProviderCall")
+@Label("Provider Call")
+@Category({"Syngrafi", "Provider"})
+@Description("A completion request to an AI provider")
+public class ProviderCallEvent extends jdk.jfr.Event {
+
+    @Label("Model")
+    public String modelId;
+
+    @Label("Purpose")
+    public String purpose;
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Candidates")
+    public int candidates;
+
+    @Label("Prompt Size")
+    @DataAmount
+    public long promptBytes;
+
+    @Label("Response Size")
+    @DataAmount
+    public long responseBytes;
+
+    @Label("Outcome")
+    @Description("completed, failed or cancelled")
+    public String outcome;
+}
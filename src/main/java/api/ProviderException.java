@@ -0,0 +1,120 @@
+package api;
+
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.IOException;
+
+/**
+ * Error response from a provider API, with the HTTP status and any Retry-After hint.
+ */
+public class ProviderException extends IOException {
+
+    private final int statusCode;
+    private final long retryAfterSeconds;
+
+    /**
+     * @param statusCode        HTTP status, or 0 for an error reported inside a 200 response.
+     * @param message           Error message from the response body.
+     * @param retryAfterSeconds Value of the Retry-After header, or 0 if absent.
+     */
+    public ProviderException(int statusCode, String message, long retryAfterSeconds) {
+        super(statusCode > 0 ? "HTTP " + statusCode + ": " + message : message);
+        this.statusCode = statusCode;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    /** Whether the provider rejected the request because of a rate or quota limit. */
+    public boolean isQuotaError() {
+        return isQuotaError(this);
+    }
+
+    /** Quota detection for any failure, including errors only reported as text. */
+    public static boolean isQuotaError(Throwable error) {
+        if (error instanceof ProviderException pe && pe.statusCode == 429) {
+            return true;
+        }
+        String message = String.valueOf(error.getMessage()).toLowerCase();
+        return message.contains("exceeded your current quota") || message.contains("rate limit")
+                || message.contains("resource_exhausted");
+    }
+
+    /**
+     * Builds the exception for a non-2xx response, taking the message from the
+     * {@code error.message} field of a JSON error body when there is one.
+     */
+    static ProviderException fromResponse(Response response) throws IOException {
+        ResponseBody body = response.body();
+        String detail = body != null ? body.string() : "";
+        String message = detail;
+        try {
+            String parsed = readErrorMessage(JsonReader.of(detail));
+            if (parsed != null) {
+                message = parsed;
+            }
+        } catch (IOException notJson) {
+            // Proxies and gateways answer with HTML or plain text; keep it as is
+        }
+        return new ProviderException(response.code(), message, parseRetryAfter(response.header("Retry-After")));
+    }
+
+    /**
+     * Reads {@code {"error": {"message": ...}}} and returns the message, or null if the
+     * document has no error object.
+     */
+    static String readErrorMessage(JsonReader reader) throws IOException {
+        String message = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("error")) {
+                message = readErrorObject(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return message;
+    }
+
+    /**
+     * Reads the value of an {@code "error"} field: an object with a message, or a bare string.
+     */
+    static String readErrorObject(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonReader.Token.BEGIN_OBJECT) {
+            if (reader.peek() == JsonReader.Token.STRING) {
+                return reader.nextString();
+            }
+            reader.skipValue();
+            return "Unknown API Error";
+        }
+        String message = "Unknown API Error";
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("message") && reader.peek() == JsonReader.Token.STRING) {
+                message = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return message;
+    }
+
+    /** Parses a Retry-After header given in seconds; HTTP dates are ignored. */
+    static long parseRetryAfter(String header) {
+        if (header == null) return 0;
+        try {
+            return Math.max(0, Long.parseLong(header.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
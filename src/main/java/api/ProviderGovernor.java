@@ -0,0 +1,282 @@
+package api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client-side admission control for one provider account.
+ * <p>
+ * A request is admitted when both token buckets (requests per minute and estimated tokens
+ * per minute) have capacity and fewer than the in-flight cap are running. Waiting requests
+ * are queued by {@link RequestPriority}, then arrival order; a request that finds every slot
+ * taken pre-empts the newest request of a lower priority, speculative ones first. Quota errors halve the
+ * allowed rate and pause admission (honouring Retry-After); successes slowly restore it.
+ */
+public final class ProviderGovernor {
+
+    private static final Map<String, ProviderGovernor> GOVERNORS = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ProviderGovernor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final double MIN_RATE_FACTOR = 0.1;
+    private static final double RECOVERY_STEP = 0.05;
+    private static final long MAX_BACKOFF_MILLIS = 60_000;
+    private static final int EXPECTED_OUTPUT_TOKENS = 150; // Per candidate, matches the providers' max output
+
+    private final String name;
+    private final PriorityQueue<Ticket> queue = new PriorityQueue<>(
+            Comparator.comparing((Ticket t) -> t.priority).thenComparingLong(t -> t.sequence));
+    private final List<Ticket> inFlight = new ArrayList<>();
+    private long nextSequence = 0;
+
+    // Limits
+    private int requestsPerMinute = 60;
+    private int tokensPerMinute = 90_000;
+    private int maxInFlight = 4;
+
+    // Buckets, refilled lazily
+    private double requestBucket;
+    private double tokenBucket;
+    private long lastRefillNanos = System.nanoTime();
+
+    // Adaptive backoff
+    private double rateFactor = 1.0;
+    private int consecutiveQuotaErrors = 0;
+    private long pausedUntilNanos = 0;
+    private ScheduledFuture<?> scheduledDispatch;
+
+    // Counters
+    private long admitted = 0;
+    private long preempted = 0;
+    private long quotaErrors = 0;
+
+    private ProviderGovernor(String name) {
+        this.name = name;
+        this.requestBucket = requestCapacity();
+        this.tokenBucket = tokenCapacity();
+    }
+
+    /** Returns the governor shared by all requests to the named provider. */
+    public static ProviderGovernor forProvider(String name) {
+        return GOVERNORS.computeIfAbsent(name, ProviderGovernor::new);
+    }
+
+    /** All governors created so far. */
+    public static Collection<ProviderGovernor> all() {
+        return new ArrayList<>(GOVERNORS.values());
+    }
+
+    public synchronized void configure(int requestsPerMinute, int tokensPerMinute, int maxInFlight) {
+        this.requestsPerMinute = Math.max(1, requestsPerMinute);
+        this.tokensPerMinute = Math.max(1, tokensPerMinute);
+        this.maxInFlight = Math.max(1, maxInFlight);
+        requestBucket = Math.min(requestBucket, requestCapacity());
+        tokenBucket = Math.min(tokenBucket, tokenCapacity());
+    }
+
+    /** A view of {@code provider} whose requests are admitted by this governor at the given priority. */
+    public APIProvider wrap(APIProvider provider, RequestPriority priority) {
+        return new GovernedProvider(provider, this, priority);
+    }
+
+    /** Rough size of a request for the tokens-per-minute bucket. */
+    public static int estimateTokens(String prompt, int candidates) {
+        return TokenEstimator.count(prompt) + EXPECTED_OUTPUT_TOKENS * Math.max(1, candidates);
+    }
+
+    /**
+     * Queues a request. Its {@link Ticket#admission()} completes once it may start;
+     * the ticket must be released when the request ends.
+     */
+    Ticket enqueue(RequestPriority priority, int tokens) {
+        Ticket ticket;
+        synchronized (this) {
+            ticket = new Ticket(priority, tokens, nextSequence++);
+            queue.add(ticket);
+        }
+        dispatch();
+        return ticket;
+    }
+
+    /** Records a successful response; the allowed rate recovers gradually. */
+    synchronized void reportSuccess() {
+        consecutiveQuotaErrors = 0;
+        rateFactor = Math.min(1.0, rateFactor + RECOVERY_STEP);
+    }
+
+    /** Records a failed request; quota errors back off the rate and pause admission. */
+    void reportFailure(Throwable error) {
+        if (!ProviderException.isQuotaError(error)) return;
+        synchronized (this) {
+            quotaErrors++;
+            consecutiveQuotaErrors++;
+            rateFactor = Math.max(MIN_RATE_FACTOR, rateFactor / 2);
+            long retryAfter = error instanceof ProviderException pe ? pe.getRetryAfterSeconds() * 1000 : 0;
+            long backoff = retryAfter > 0 ? retryAfter
+                    : Math.min(MAX_BACKOFF_MILLIS, 1000L << Math.min(6, consecutiveQuotaErrors - 1));
+            pausedUntilNanos = Math.max(pausedUntilNanos, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff));
+            requestBucket = 0;
+            tokenBucket = 0;
+            System.err.println("Provider " + name + " quota error, backing off " + backoff + "ms, rate factor " + rateFactor);
+        }
+        dispatch();
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(name, admitted, preempted, quotaErrors, queue.size(), inFlight.size(), rateFactor);
+    }
+
+    /**
+     * Snapshot of a governor's counters.
+     */
+    public record Stats(String provider, long admitted, long preempted, long quotaErrors,
+                        int queued, int inFlight, double rateFactor) {
+        @Override
+        public String toString() {
+            return String.format("%s: admitted=%d preempted=%d quotaErrors=%d queued=%d inFlight=%d rate=%.0f%%",
+                    provider, admitted, preempted, quotaErrors, queued, inFlight, rateFactor * 100);
+        }
+    }
+
+    private double requestCapacity() {
+        // Allow a burst of ten seconds' worth of requests
+        return Math.max(1, requestsPerMinute * rateFactor / 6);
+    }
+
+    private double tokenCapacity() {
+        return Math.max(1, tokensPerMinute * rateFactor / 6);
+    }
+
+    private void refill(long now) {
+        double minutes = (now - lastRefillNanos) / 60e9;
+        lastRefillNanos = now;
+        requestBucket = Math.min(requestCapacity(), requestBucket + minutes * requestsPerMinute * rateFactor);
+        tokenBucket = Math.min(tokenCapacity(), tokenBucket + minutes * tokensPerMinute * rateFactor);
+    }
+
+    /** Admits as many queued requests as the limits allow and schedules a retry for the rest. */
+    private void dispatch() {
+        List<Ticket> toAdmit = new ArrayList<>();
+        List<Ticket> toPreempt = new ArrayList<>();
+        synchronized (this) {
+            long now = System.nanoTime();
+            refill(now);
+            long waitNanos = 0;
+            while (!queue.isEmpty()) {
+                Ticket head = queue.peek();
+                if (head.admission.isDone()) { // Cancelled while waiting
+                    queue.poll();
+                    continue;
+                }
+                if (now < pausedUntilNanos) {
+                    waitNanos = pausedUntilNanos - now;
+                    break;
+                }
+                // A request larger than the bucket may run once the bucket is full
+                double tokensNeeded = Math.min(head.tokens, tokenCapacity());
+                if (requestBucket < 1 || tokenBucket < tokensNeeded) {
+                    double requestWait = (1 - requestBucket) / (requestsPerMinute * rateFactor);
+                    double tokenWait = (tokensNeeded - tokenBucket) / (tokensPerMinute * rateFactor);
+                    waitNanos = (long) (Math.max(requestWait, tokenWait) * 60e9) + 1;
+                    break;
+                }
+                // Pre-empt only once the limits admit the head, so a victim is never stopped for nothing
+                if (inFlight.size() >= maxInFlight) {
+                    Ticket victim = preemptionVictim(head.priority);
+                    if (victim == null) break; // A release will dispatch again
+                    inFlight.remove(victim);
+                    preempted++;
+                    toPreempt.add(victim);
+                }
+                requestBucket -= 1;
+                tokenBucket -= head.tokens;
+                queue.poll();
+                inFlight.add(head);
+                admitted++;
+                toAdmit.add(head);
+            }
+            if (waitNanos > 0 && (scheduledDispatch == null || scheduledDispatch.isDone())) {
+                scheduledDispatch = SCHEDULER.schedule(this::dispatch, waitNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        for (Ticket victim : toPreempt) {
+            Runnable handler = victim.preemptHandler;
+            if (handler != null) handler.run();
+        }
+        for (Ticket ticket : toAdmit) {
+            if (!ticket.admission.complete(null)) {
+                release(ticket); // Cancelled just before admission
+            }
+        }
+    }
+
+    /** The newest pre-emptible request of the lowest priority below {@code priority}, or null. */
+    private Ticket preemptionVictim(RequestPriority priority) {
+        Ticket victim = null;
+        for (int i = inFlight.size() - 1; i >= 0; i--) {
+            Ticket ticket = inFlight.get(i);
+            if (ticket.priority.compareTo(priority) > 0 && ticket.preemptHandler != null
+                    && (victim == null || ticket.priority.compareTo(victim.priority) > 0)) {
+                victim = ticket;
+            }
+        }
+        return victim;
+    }
+
+    private void release(Ticket ticket) {
+        boolean removed;
+        synchronized (this) {
+            removed = inFlight.remove(ticket);
+            queue.remove(ticket);
+        }
+        if (removed) {
+            dispatch();
+        }
+    }
+
+    /**
+     * One queued or running request.
+     */
+    final class Ticket {
+        private final RequestPriority priority;
+        private final int tokens;
+        private final long sequence;
+        private final CompletableFuture<Void> admission = new CompletableFuture<>();
+        private volatile Runnable preemptHandler;
+
+        private Ticket(RequestPriority priority, int tokens, long sequence) {
+            this.priority = priority;
+            this.tokens = tokens;
+            this.sequence = sequence;
+        }
+
+        /** Completes when the request may start. */
+        CompletableFuture<Void> admission() {
+            return admission;
+        }
+
+        /** Called if the running request is pre-empted; only streaming requests can be. */
+        void onPreempt(Runnable handler) {
+            this.preemptHandler = handler;
+        }
+
+        /** Frees the slot, or leaves the queue if not admitted yet. Safe to call more than once. */
+        void release() {
+            admission.cancel(false);
+            ProviderGovernor.this.release(this);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package api;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-lived HTTP transport shared by every provider instance that talks to the same backend.
+ * <p>
+ * One client is kept per provider name for the lifetime of the application, so repeated
+ * autocomplete rounds reuse pooled (and, where the server supports it, HTTP/2 multiplexed)
+ * connections instead of paying a TLS handshake per request. Connection events are counted
+ * so reuse can be verified at runtime.
+ */
+public final class ProviderTransport {
+
+    private static final Map<String, ProviderTransport> TRANSPORTS = new ConcurrentHashMap<>();
+
+    // Pool settings applied to transports created after the last call to configure()
+    private static volatile int maxIdleConnections = 5;
+    private static volatile long keepAliveSeconds = 300;
+
+    private final String name;
+    private final String baseUrl;
+    private final OkHttpClient client;
+
+    // Connection counters
+    private final AtomicLong connectionsOpened = new AtomicLong();
+    private final AtomicLong connectionsReused = new AtomicLong();
+    private final AtomicLong handshakes = new AtomicLong();
+    private final AtomicLong handshakeNanos = new AtomicLong();
+
+    private ProviderTransport(String name, String baseUrl) {
+        this.name = name;
+        this.baseUrl = baseUrl;
+
+        Dispatcher dispatcher = new Dispatcher();
+        // All requests of a provider go to one host; allow enough streams for N variants plus rewrites.
+        dispatcher.setMaxRequestsPerHost(16);
+
+        this.client = new OkHttpClient.Builder()
+                .protocols(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveSeconds, TimeUnit.SECONDS))
+                .dispatcher(dispatcher)
+                .connectTimeout(10, TimeUnit.SECONDS)
+                .readTimeout(60, TimeUnit.SECONDS)
+                .pingInterval(30, TimeUnit.SECONDS) // Keeps idle HTTP/2 connections alive
+                .retryOnConnectionFailure(true)
+                .eventListenerFactory(call -> new CountingListener())
+                .build();
+    }
+
+    /**
+     * Returns the shared transport for the given provider, creating it on first use.
+     *
+     * @param name    Provider name, e.g. "gemini" or "openai".
+     * @param baseUrl Scheme and host of the provider API, used for warm-up.
+     */
+    public static ProviderTransport forProvider(String name, String baseUrl) {
+        return TRANSPORTS.computeIfAbsent(name + "@" + baseUrl, k -> new ProviderTransport(name, baseUrl));
+    }
+
+    /**
+     * Changes the connection pool settings. Existing transports are dropped so the
+     * next request builds a client with the new pool; their idle connections are closed.
+     */
+    public static void configure(int maxIdle, long keepAliveSecs) {
+        int newMaxIdle = Math.max(1, maxIdle);
+        long newKeepAlive = Math.max(1, keepAliveSecs);
+        if (newMaxIdle == maxIdleConnections && newKeepAlive == keepAliveSeconds) {
+            return;
+        }
+        maxIdleConnections = newMaxIdle;
+        keepAliveSeconds = newKeepAlive;
+        for (ProviderTransport transport : TRANSPORTS.values()) {
+            transport.client.connectionPool().evictAll();
+        }
+        TRANSPORTS.clear();
+    }
+
+    /** All transports created so far. */
+    public static Collection<ProviderTransport> all() {
+        return new ArrayList<>(TRANSPORTS.values());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public OkHttpClient client() {
+        return client;
+    }
+
+    public Call newCall(Request request) {
+        return client.newCall(request);
+    }
+
+    /**
+     * Opens a connection to the provider host in the background so the first
+     * real request finds a warm, already-handshaken connection in the pool.
+     */
+    public void warmUp() {
+        if (client.connectionPool().connectionCount() > 0) {
+            return;
+        }
+        Request request = new Request.Builder()
+                .url(baseUrl)
+                .head()
+                .build();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                System.err.println("Warm-up for " + name + " failed: " + e.getMessage());
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                response.close(); // Status doesn't matter, the connection stays pooled
+            }
+        });
+    }
+
+    public Stats getStats() {
+        return new Stats(name,
+                connectionsOpened.get(),
+                connectionsReused.get(),
+                handshakes.get(),
+                handshakeNanos.get(),
+                client.connectionPool().connectionCount(),
+                client.connectionPool().idleConnectionCount());
+    }
+
+    /**
+     * Snapshot of a transport's connection counters.
+     */
+    public record Stats(String provider, long connectionsOpened, long connectionsReused,
+                        long handshakes, long totalHandshakeNanos, int pooledConnections, int idleConnections) {
+
+        public double averageHandshakeMillis() {
+            return handshakes == 0 ? 0 : totalHandshakeNanos / 1_000_000.0 / handshakes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: opened=%d reused=%d handshakes=%d avgHandshake=%.1fms pooled=%d idle=%d",
+                    provider, connectionsOpened, connectionsReused, handshakes,
+                    averageHandshakeMillis(), pooledConnections, idleConnections);
+        }
+    }
+
+    /**
+     * Per-call listener; a call that acquires a connection without connecting first reused a pooled one.
+     */
+    private class CountingListener extends EventListener {
+        private boolean connected = false;
+        private long handshakeStart = 0;
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            connected = true;
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            handshakeStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            if (handshakeStart != 0) {
+                handshakes.incrementAndGet();
+                handshakeNanos.addAndGet(System.nanoTime() - handshakeStart);
+                handshakeStart = 0;
+            }
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+            connectionsOpened.incrementAndGet();
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            if (!connected) {
+                connectionsReused.incrementAndGet();
+            }
+        }
+    }
+}
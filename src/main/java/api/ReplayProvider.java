@@ -0,0 +1,215 @@
+package api;
+
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the completions of a provider to a file, or serves them back from it.
+ * <p>
+ * In {@link Mode#RECORD} every call goes to the delegate and each successful result is
+ * appended as one JSON line: {@code {"key": ..., "firstTokenMillis": ..., "totalMillis": ...,
+ * "candidates": [...]}}. In {@link Mode#REPLAY} the file is loaded once and calls are answered
+ * from it, optionally after the recorded delay; the delegate is only asked for its model id,
+ * which is part of the key. A prompt without a recording fails with a 404 ProviderException.
+ */
+public class ReplayProvider extends ForwardingProvider {
+
+    public enum Mode { RECORD, REPLAY }
+
+    private record Recording(long firstTokenMillis, long totalMillis, List<String> candidates) {
+    }
+
+    private final Path file;
+    private final Mode mode;
+    private final boolean replayTiming;
+    private final Map<String, Recording> recordings = new HashMap<>();
+
+    /**
+     * @param delegate     Provider to record from; in replay mode only its model id is used.
+     * @param file         Recording file, appended to when recording.
+     * @param replayTiming Whether replayed answers wait for the recorded latency.
+     */
+    public ReplayProvider(APIProvider delegate, Path file, Mode mode, boolean replayTiming) throws IOException {
+        super(delegate);
+        this.file = file;
+        this.mode = mode;
+        this.replayTiming = replayTiming;
+        if (mode == Mode.REPLAY) {
+            load();
+        }
+    }
+
+    /** Number of recordings available for replay. */
+    public synchronized int size() {
+        return recordings.size();
+    }
+
+    @Override
+    public String generateCompletion(String prompt) throws Exception {
+        return generateCompletions(prompt, 1).get(0);
+    }
+
+    @Override
+    public List<String> generateCompletions(String prompt, int n) throws Exception {
+        String key = CompletionCache.key(getModelId(), prompt, n);
+        if (mode == Mode.REPLAY) {
+            Recording recording = lookup(key);
+            if (replayTiming) {
+                Thread.sleep(recording.totalMillis());
+            }
+            return recording.candidates();
+        }
+        long start = System.nanoTime();
+        List<String> results = n == 1 ? List.of(delegate.generateCompletion(prompt)) : delegate.generateCompletions(prompt, n);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        append(key, new Recording(millis, millis, results));
+        return results;
+    }
+
+    @Override
+    public Flow.Publisher<String> streamCompletion(String prompt) {
+        String key = CompletionCache.key(getModelId(), prompt, 1);
+        if (mode == Mode.REPLAY) {
+            return replay(key, recording -> List.of(recording.candidates().get(0)));
+        }
+        Flow.Publisher<String> upstream = delegate.streamCompletion(prompt);
+        return subscriber -> upstream.subscribe(new StreamRecorder<>(1, delta -> new CandidateDelta(0, delta),
+                subscriber, (texts, firstItemNanos, totalNanos) -> record(key, texts, firstItemNanos, totalNanos)));
+    }
+
+    @Override
+    public Flow.Publisher<CandidateDelta> streamCompletions(String prompt, int n) {
+        String key = CompletionCache.key(getModelId(), prompt, n);
+        if (mode == Mode.REPLAY) {
+            return replay(key, recording -> {
+                List<CandidateDelta> deltas = new ArrayList<>();
+                for (int i = 0; i < recording.candidates().size(); i++) {
+                    deltas.add(new CandidateDelta(i, recording.candidates().get(i)));
+                }
+                return deltas;
+            });
+        }
+        Flow.Publisher<CandidateDelta> upstream = delegate.streamCompletions(prompt, n);
+        return subscriber -> upstream.subscribe(new StreamRecorder<>(n, delta -> delta,
+                subscriber, (texts, firstItemNanos, totalNanos) -> record(key, texts, firstItemNanos, totalNanos)));
+    }
+
+    private interface ItemsOf<T> {
+        List<T> items(Recording recording);
+    }
+
+    /** Serves a recording through the streaming API, each candidate as one delta. */
+    private <T> Flow.Publisher<T> replay(String key, ItemsOf<T> items) {
+        return subscriber -> {
+            Recording recording;
+            try {
+                recording = lookup(key);
+            } catch (ProviderException e) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(e);
+                return;
+            }
+            Flow.Publisher<T> publisher = new CachedPublisher<>(items.items(recording));
+            if (!replayTiming || recording.firstTokenMillis() <= 0) {
+                publisher.subscribe(subscriber);
+                return;
+            }
+            CompletableFuture.delayedExecutor(recording.firstTokenMillis(), TimeUnit.MILLISECONDS)
+                    .execute(() -> publisher.subscribe(subscriber));
+        };
+    }
+
+    private synchronized Recording lookup(String key) throws ProviderException {
+        Recording recording = recordings.get(key);
+        if (recording == null) {
+            throw new ProviderException(404, "No recording for this prompt", 0);
+        }
+        return recording;
+    }
+
+    private void record(String key, List<String> texts, long firstItemNanos, long totalNanos) {
+        List<String> results = new ArrayList<>();
+        for (String text : texts) {
+            if (!text.isEmpty()) results.add(text);
+        }
+        if (!results.isEmpty()) {
+            append(key, new Recording(TimeUnit.NANOSECONDS.toMillis(Math.max(0, firstItemNanos)),
+                    TimeUnit.NANOSECONDS.toMillis(totalNanos), results));
+        }
+    }
+
+    private synchronized void append(String key, Recording recording) {
+        recordings.put(key, recording);
+        try (BufferedSink sink = Okio.buffer(Okio.appendingSink(file.toFile()))) {
+            JsonWriter json = new JsonWriter(sink);
+            json.beginObject()
+                    .name("key").value(key)
+                    .name("firstTokenMillis").value(recording.firstTokenMillis())
+                    .name("totalMillis").value(recording.totalMillis())
+                    .name("candidates").beginArray();
+            for (String candidate : recording.candidates()) {
+                json.value(candidate);
+            }
+            json.endArray().endObject();
+            sink.writeByte('\n');
+        } catch (IOException e) {
+            System.err.println("Could not write recording to " + file + ": " + e.getMessage());
+        }
+    }
+
+    /** Reads the recording file; later lines for a key win. */
+    private void load() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (BufferedSource source = Okio.buffer(Okio.source(file))) {
+            String line;
+            while ((line = source.readUtf8Line()) != null) {
+                if (line.isBlank()) continue;
+                JsonReader reader = JsonReader.of(line);
+                String key = null;
+                long firstToken = 0;
+                long total = 0;
+                List<String> candidates = new ArrayList<>();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "key" -> key = reader.nextString();
+                        case "firstTokenMillis" -> firstToken = reader.nextLong();
+                        case "totalMillis" -> total = reader.nextLong();
+                        case "candidates" -> {
+                            reader.beginArray();
+                            while (reader.hasNext()) candidates.add(reader.nextString());
+                            reader.endArray();
+                        }
+                        default -> reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (key != null && !candidates.isEmpty()) {
+                    recordings.put(key, new Recording(firstToken, total, candidates));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+
+/**
+ * Cancellable handle for one round of AI requests (an autocomplete round or a rewrite).
+ * <p>
+ * The round is stamped with the document revision and caret position it was issued
+ * against, so late results can be recognised as stale and dropped. Subscriptions and
+ * futures attached to the handle are cancelled together, which aborts their HTTP calls.
+ */
+public final class RequestHandle {
+
+    private volatile long revision;
+    private volatile int caret;
+    private final List<Flow.Subscription> subscriptions = new ArrayList<>();
+    private final List<Future<?>> futures = new ArrayList<>();
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param revision Document revision the request is based on.
+     * @param caret    Caret position the request is based on.
+     */
+    public RequestHandle(long revision, int caret) {
+        this.revision = revision;
+        this.caret = caret;
+    }
+
+    public long getRevision() {
+        return revision;
+    }
+
+    public int getCaret() {
+        return caret;
+    }
+
+    /**
+     * Moves the stamp forward after an edit that keeps the round's results valid,
+     * such as typing the next characters of a suggestion.
+     */
+    public void advance(long newRevision, int newCaret) {
+        this.caret = newCaret;
+        this.revision = newRevision;
+    }
+
+    /** Ties a stream to this round; it is cancelled at once if the round already was. */
+    public void attach(Flow.Subscription subscription) {
+        synchronized (this) {
+            if (!cancelled) {
+                subscriptions.add(subscription);
+                return;
+            }
+        }
+        subscription.cancel();
+    }
+
+    /** Ties a pending result to this round; it is cancelled at once if the round already was. */
+    public void attach(Future<?> future) {
+        synchronized (this) {
+            if (!cancelled) {
+                futures.add(future);
+                return;
+            }
+        }
+        future.cancel(true);
+    }
+
+    /** Aborts every request of the round. Safe to call more than once. */
+    public void cancel() {
+        List<Flow.Subscription> subs;
+        List<Future<?>> pending;
+        synchronized (this) {
+            if (cancelled) return;
+            cancelled = true;
+            subs = new ArrayList<>(subscriptions);
+            pending = new ArrayList<>(futures);
+            subscriptions.clear();
+            futures.clear();
+        }
+        subs.forEach(Flow.Subscription::cancel);
+        pending.forEach(future -> future.cancel(true));
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Whether results of this round no longer apply: it was cancelled, or the
+     * document or caret has moved on since it was issued.
+     */
+    public boolean isStale(long currentRevision, int currentCaret) {
+        return cancelled || currentRevision != revision || currentCaret != caret;
+    }
+}
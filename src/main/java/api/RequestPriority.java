@@ -0,0 +1,13 @@
+package api;
+
+/**
+ * Admission priority of a request. Lower ordinals are admitted first.
+ */
+public enum RequestPriority {
+    /** Started explicitly by the user, e.g. a rewrite. Pre-empts background work. */
+    INTERACTIVE,
+    /** Issued on the user's behalf while typing, e.g. autocomplete. Pre-empts speculative work. */
+    BACKGROUND,
+    /** Started ahead of need and possibly thrown away, e.g. a prefetched suggestion. */
+    SPECULATIVE
+}
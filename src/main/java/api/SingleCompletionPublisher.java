@@ -0,0 +1,49 @@
+package api;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+/**
+ * Adapts a blocking completion call to a {@link Flow.Publisher} that emits the whole
+ * text as a single item. Used by providers that have no streaming endpoint.
+ */
+class SingleCompletionPublisher implements Flow.Publisher<String> {
+
+    private final Callable<String> completion;
+
+    SingleCompletionPublisher(Callable<String> completion) {
+        this.completion = completion;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super String> subscriber) {
+        subscriber.onSubscribe(new Flow.Subscription() {
+            private boolean started = false;
+            private volatile boolean cancelled = false;
+
+            @Override
+            public synchronized void request(long n) {
+                if (started || cancelled) return;
+                started = true;
+                CompletableFuture.runAsync(() -> {
+                    try {
+                        String text = completion.call();
+                        if (cancelled) return;
+                        if (text != null && !text.isEmpty()) {
+                            subscriber.onNext(text);
+                        }
+                        subscriber.onComplete();
+                    } catch (Exception ex) {
+                        if (!cancelled) subscriber.onError(ex);
+                    }
+                });
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+            }
+        });
+    }
+}
@@ -0,0 +1,154 @@
+package api;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+/**
+ * Publishes the deltas of a server-sent-events response.
+ * <p>
+ * Each subscriber gets its own HTTP call, started on the first {@code request(n)}.
+ * Every {@code data:} line is handed to an {@link EventParser} and the items it returns
+ * are emitted in order. Cancelling the subscription cancels the underlying call.
+ *
+ * @param <T> Item type, e.g. a text delta or a {@link CandidateDelta}.
+ */
+class SsePublisher<T> implements Flow.Publisher<T> {
+
+    /**
+     * Extracts the deltas from one SSE data payload.
+     */
+    interface EventParser<T> {
+        /**
+         * @param data The payload after {@code data:}.
+         * @return The deltas carried by the event, empty if it carries no text.
+         * @throws IOException if the event reports an API error.
+         */
+        List<T> parse(String data) throws IOException;
+    }
+
+    private final ProviderTransport transport;
+    private final Request request;
+    private final EventParser<T> parser;
+
+    SsePublisher(ProviderTransport transport, Request request, EventParser<T> parser) {
+        this.transport = transport;
+        this.request = request;
+        this.parser = parser;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        StreamSubscription subscription = new StreamSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    private class StreamSubscription implements Flow.Subscription, Callback {
+        private final Flow.Subscriber<? super T> subscriber;
+        private final Object lock = new Object();
+        private long demand = 0;
+        private boolean started = false;
+        private volatile boolean cancelled = false;
+        private volatile Call call;
+
+        StreamSubscription(Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("Demand must be positive: " + n));
+                return;
+            }
+            boolean start;
+            synchronized (lock) {
+                demand = (demand + n < 0) ? Long.MAX_VALUE : demand + n; // Cap on overflow
+                start = !started && !cancelled;
+                started = true;
+                lock.notifyAll();
+            }
+            if (start) {
+                call = transport.newCall(request);
+                call.enqueue(this);
+                if (cancelled) {
+                    call.cancel(); // Cancelled while the call was being created
+                }
+            }
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+            if (call != null) {
+                call.cancel();
+            }
+        }
+
+        @Override
+        public void onFailure(Call c, IOException e) {
+            if (!cancelled) {
+                subscriber.onError(e);
+            }
+        }
+
+        @Override
+        public void onResponse(Call c, Response response) {
+            try (response) {
+                ResponseBody body = response.body();
+                if (!response.isSuccessful() || body == null) {
+                    throw ProviderException.fromResponse(response);
+                }
+                BufferedSource source = body.source();
+                String line;
+                while (!cancelled && (line = source.readUtf8Line()) != null) {
+                    if (!line.startsWith("data:")) {
+                        continue; // Comments, event names and blank separators
+                    }
+                    String data = line.substring(5).trim();
+                    if (data.equals("[DONE]")) {
+                        break;
+                    }
+                    for (T delta : parser.parse(data)) {
+                        if (!awaitDemand()) break;
+                        subscriber.onNext(delta);
+                    }
+                }
+                if (!cancelled) {
+                    subscriber.onComplete();
+                }
+            } catch (IOException | InterruptedException e) {
+                if (!cancelled) {
+                    subscriber.onError(e);
+                }
+            }
+        }
+
+        /** Blocks the reader until the subscriber has asked for another item. */
+        private boolean awaitDemand() throws InterruptedException {
+            synchronized (lock) {
+                while (demand == 0 && !cancelled) {
+                    lock.wait();
+                }
+                if (cancelled) {
+                    return false;
+                }
+                if (demand != Long.MAX_VALUE) {
+                    demand--;
+                }
+                return true;
+            }
+        }
+    }
+}
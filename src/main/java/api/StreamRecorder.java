@@ -0,0 +1,76 @@
+package api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.function.Function;
+
+/**
+ * Passes a stream through unchanged while accumulating the text of each candidate.
+ * When the stream finishes normally the complete texts are handed to a listener;
+ * cancelled or failed streams are not reported.
+ */
+class StreamRecorder<T> implements Flow.Subscriber<T> {
+
+    /**
+     * Receives the result of a completed stream.
+     */
+    interface Listener {
+        /**
+         * @param texts          Text of every candidate that produced any, in index order.
+         * @param firstItemNanos Time from subscription to the first item, or -1 if there was none.
+         * @param totalNanos     Time from subscription to completion.
+         */
+        void completed(List<String> texts, long firstItemNanos, long totalNanos);
+    }
+
+    private final StringBuilder[] texts;
+    private final Function<? super T, CandidateDelta> toDelta;
+    private final Flow.Subscriber<? super T> downstream;
+    private final Listener listener;
+    private long startNanos;
+    private long firstItemNanos = -1;
+
+    StreamRecorder(int n, Function<? super T, CandidateDelta> toDelta,
+                   Flow.Subscriber<? super T> downstream, Listener listener) {
+        this.texts = new StringBuilder[Math.max(1, n)];
+        this.toDelta = toDelta;
+        this.downstream = downstream;
+        this.listener = listener;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        startNanos = System.nanoTime();
+        downstream.onSubscribe(subscription);
+    }
+
+    @Override
+    public void onNext(T item) {
+        if (firstItemNanos < 0) {
+            firstItemNanos = System.nanoTime() - startNanos;
+        }
+        CandidateDelta delta = toDelta.apply(item);
+        int index = delta.index();
+        if (index >= 0 && index < texts.length) {
+            if (texts[index] == null) texts[index] = new StringBuilder();
+            texts[index].append(delta.text());
+        }
+        downstream.onNext(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        downstream.onError(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        List<String> results = new ArrayList<>();
+        for (StringBuilder text : texts) {
+            if (text != null) results.add(text.toString());
+        }
+        listener.completed(results, firstItemNanos, System.nanoTime() - startNanos);
+        downstream.onComplete();
+    }
+}
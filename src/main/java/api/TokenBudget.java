@@ -0,0 +1,170 @@
+package api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks estimated token spend against a per-session and a per-day limit.
+ * <p>
+ * Every request reports a {@link TokenUsage}. The day total is kept in a small file so it
+ * survives restarts and starts over at midnight; it is written a few seconds after a change,
+ * once for all the requests in between, and on {@link #close()}. Callers look at {@link #isNearLimit()} to
+ * shed optional prompt parts and at {@link #isExhausted()} to stop sending requests.
+ * A limit of 0 means unlimited. Thread-safe.
+ */
+public final class TokenBudget {
+
+    /** Share of a limit from which optional prompt parts are dropped. */
+    public static final double NEAR_LIMIT = 0.8;
+    private static final int RECENT_REQUESTS = 100;
+    private static final long SAVE_DELAY_SECONDS = 5;
+    private static final ScheduledExecutorService SAVER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "TokenBudget");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path file;
+    private final Deque<TokenUsage> recent = new ArrayDeque<>();
+    private long sessionLimit = 0;
+    private long dailyLimit = 0;
+    private long sessionTokens = 0;
+    private long requests = 0;
+    private LocalDate day = LocalDate.now();
+    private long dayTokens = 0;
+    private boolean saveScheduled = false;
+    private final Object saveLock = new Object();
+    private LocalDate lastSavedDay; // Guarded by saveLock
+    private long lastSavedTokens;
+
+    /**
+     * @param file Where the day total is kept, or null to keep it in memory only.
+     */
+    public TokenBudget(Path file) {
+        this.file = file;
+        load();
+    }
+
+    /** Sets the limits in estimated tokens; 0 disables a limit. */
+    public synchronized void configure(long sessionLimit, long dailyLimit) {
+        this.sessionLimit = Math.max(0, sessionLimit);
+        this.dailyLimit = Math.max(0, dailyLimit);
+    }
+
+    /** Adds a finished request to the session and day totals. */
+    public synchronized void record(TokenUsage usage) {
+        rollOver();
+        sessionTokens += usage.totalTokens();
+        dayTokens += usage.totalTokens();
+        requests++;
+        recent.addLast(usage);
+        if (recent.size() > RECENT_REQUESTS) {
+            recent.removeFirst();
+        }
+        if (file != null && !saveScheduled) {
+            saveScheduled = true; // Cancellations are charged on the EDT, which must not wait for the disk
+            SAVER.schedule(this::save, SAVE_DELAY_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /** Writes the day total now if it changed since the last save; call on exit. */
+    public void close() {
+        save();
+    }
+
+    /** Fraction of the tighter limit used so far; 0 when there are no limits. */
+    public synchronized double pressure() {
+        rollOver();
+        double session = sessionLimit > 0 ? (double) sessionTokens / sessionLimit : 0;
+        double daily = dailyLimit > 0 ? (double) dayTokens / dailyLimit : 0;
+        return Math.max(session, daily);
+    }
+
+    public boolean isNearLimit() {
+        return pressure() >= NEAR_LIMIT;
+    }
+
+    public boolean isExhausted() {
+        return pressure() >= 1.0;
+    }
+
+    /** The most recent requests, oldest first. */
+    public synchronized List<TokenUsage> getRecentUsage() {
+        return new ArrayList<>(recent);
+    }
+
+    /**
+     * Snapshot of the spend.
+     */
+    public record Stats(long requests, long sessionTokens, long sessionLimit, long dayTokens, long dailyLimit) {
+        @Override
+        public String toString() {
+            return String.format("requests=%d session=%d/%s day=%d/%s", requests,
+                    sessionTokens, sessionLimit > 0 ? sessionLimit : "unlimited",
+                    dayTokens, dailyLimit > 0 ? dailyLimit : "unlimited");
+        }
+    }
+
+    public synchronized Stats getStats() {
+        rollOver();
+        return new Stats(requests, sessionTokens, sessionLimit, dayTokens, dailyLimit);
+    }
+
+    private void rollOver() {
+        LocalDate today = LocalDate.now();
+        if (!today.equals(day)) {
+            day = today;
+            dayTokens = 0;
+        }
+    }
+
+    private synchronized void load() {
+        if (file == null || !Files.exists(file)) return;
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+            if (LocalDate.now().toString().equals(properties.getProperty("day"))) {
+                dayTokens = Long.parseLong(properties.getProperty("tokens", "0"));
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Could not read token usage from " + file + ": " + e.getMessage());
+        }
+    }
+
+    /** Writes the day total outside the main lock, so the EDT never waits for the disk. */
+    private void save() {
+        if (file == null) return;
+        LocalDate savedDay;
+        long savedTokens;
+        synchronized (this) {
+            saveScheduled = false;
+            savedDay = day;
+            savedTokens = dayTokens;
+        }
+        synchronized (saveLock) {
+            if (savedDay.equals(lastSavedDay) && savedTokens <= lastSavedTokens) return; // A newer total was written
+            Properties properties = new Properties();
+            properties.setProperty("day", savedDay.toString());
+            properties.setProperty("tokens", Long.toString(savedTokens));
+            try (OutputStream out = Files.newOutputStream(file)) {
+                properties.store(out, "Syngrafi estimated token usage");
+                lastSavedDay = savedDay;
+                lastSavedTokens = savedTokens;
+            } catch (IOException e) {
+                System.err.println("Could not save token usage to " + file + ": " + e.getMessage());
+            }
+        }
+    }
+}
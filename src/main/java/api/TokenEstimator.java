@@ -0,0 +1,92 @@
+package api;
+
+/**
+ * Fast local estimate of how many BPE tokens a text costs with the GPT-4 class and Gemini
+ * tokenizers, without shipping their vocabularies.
+ * <p>
+ * The text is split the way those tokenizers pre-split it: letter runs with their leading
+ * space, digit groups of up to three, punctuation runs and whitespace runs. Each piece is
+ * then priced by shape instead of looking up its merges: a common-length word is one token,
+ * longer words one more per six letters, CJK characters one each. English prose comes out
+ * at the usual four characters or so per token, which is close enough for budgets and rate
+ * limits. One pass over the characters, no allocation.
+ */
+public final class TokenEstimator {
+
+    private static final int WORD_CHARS_PER_TOKEN = 6;
+    private static final int SINGLE_TOKEN_WORD = 8; // Words up to this length are mostly one token
+
+    private TokenEstimator() {
+    }
+
+    /** Estimated token count of {@code text}; 0 for null or empty text. */
+    public static int count(CharSequence text) {
+        if (text == null) return 0;
+        int length = text.length();
+        int tokens = 0;
+        int halves = 0; // Non-CJK non-ASCII letters cost about half a token each
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (c == ' ' && i + 1 < length && isLetter(text.charAt(i + 1))) {
+                i++; // A single space is part of the word that follows
+                continue;
+            }
+            if (isLetter(c)) {
+                int start = i;
+                int foreign = 0;
+                int cjk = 0;
+                while (i < length && isLetter(text.charAt(i))) {
+                    char w = text.charAt(i);
+                    if (w >= 0x3000) {
+                        cjk++; // CJK and similar scripts: about one token per character
+                    } else if (w > 0x7f) {
+                        foreign++;
+                    }
+                    i++;
+                }
+                tokens += cjk;
+                int letters = i - start - foreign - cjk;
+                if (letters > 0) {
+                    tokens += letters <= SINGLE_TOKEN_WORD ? 1
+                            : 1 + (letters - SINGLE_TOKEN_WORD + WORD_CHARS_PER_TOKEN - 1) / WORD_CHARS_PER_TOKEN;
+                }
+                halves += foreign;
+                continue;
+            }
+            if (c >= '0' && c <= '9') {
+                int start = i;
+                while (i < length && text.charAt(i) >= '0' && text.charAt(i) <= '9') i++;
+                tokens += (i - start + 2) / 3; // Digits are grouped in threes
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                while (i < length && Character.isWhitespace(text.charAt(i))) i++;
+                tokens++; // Runs of spaces or newlines merge into one token
+                continue;
+            }
+            if (Character.isHighSurrogate(c)) {
+                tokens += 2; // Emoji and other supplementary characters span several byte tokens
+                i += 2;
+                continue;
+            }
+            int start = i;
+            while (i < length && isPunctuation(text.charAt(i))) i++;
+            if (i == start) i++; // Any other symbol
+            tokens += (i - start + 1) / 2;
+        }
+        return tokens + (halves + 1) / 2;
+    }
+
+    private static boolean isLetter(char c) {
+        if (c < 0x80) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '\'';
+        }
+        return Character.isLetter(c);
+    }
+
+    private static boolean isPunctuation(char c) {
+        return c < 0x80 ? !Character.isLetterOrDigit(c) && !Character.isWhitespace(c) && c != '\''
+                : !Character.isLetterOrDigit(c) && !Character.isWhitespace(c) && !Character.isSurrogate(c);
+    }
+}
@@ -0,0 +1,25 @@
+package api;
+
+/**
+ * Token accounting for one provider request, with locally estimated counts.
+ *
+ * @param modelId          Provider and model, as in {@link APIProvider#getModelId()}.
+ * @param purpose          What the request was for, e.g. "autocomplete" or "rewrite".
+ * @param promptTokens     Estimated tokens sent.
+ * @param completionTokens Estimated tokens received, over all candidates.
+ * @param latencyMillis    Time from the request to its last token, failure or cancellation.
+ * @param timestampMillis  When the request ended.
+ */
+public record TokenUsage(String modelId, String purpose, int promptTokens, int completionTokens,
+                         long latencyMillis, long timestampMillis) {
+
+    public int totalTokens() {
+        return promptTokens + completionTokens;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s: prompt=%d completion=%d %dms",
+                purpose, modelId, promptTokens, completionTokens, latencyMillis);
+    }
+}